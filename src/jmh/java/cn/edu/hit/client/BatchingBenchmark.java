@@ -0,0 +1,70 @@
+package cn.edu.hit.client;
+
+import cn.edu.hit.server.DynamicGrpcServer;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.ServerSocket;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 调用合并基准测试：16个线程并发调用GetUser，对比直接调用、合并后逐个发出、合并后通过GetUserStream双向流发送
+ * userCount越小，相同请求越多，single-flight共享的RPC越多
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+@State(Scope.Benchmark)
+public class BatchingBenchmark {
+    @Param({"direct", "fanout", "stream"})
+    public String mode;
+
+    @Param({"3", "1000"})
+    public int userCount;
+
+    private DynamicGrpcServer server;
+    private DynamicGrpcClient client;
+    private Descriptors.FieldDescriptor userIdField;
+    private Descriptors.Descriptor requestType;
+
+    @Setup
+    public void setup() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new DynamicGrpcServer(port);
+        server.start();
+
+        client = new DynamicGrpcClient("localhost", port);
+        client.loadProtoFiles("src/main/resources/proto");
+        if (mode.equals("fanout")) {
+            client.enableBatching("user.UserService", "GetUser", 200, TimeUnit.MICROSECONDS, 64);
+        } else if (mode.equals("stream")) {
+            client.enableBatching("user.UserService", "GetUser", "GetUserStream", 200, TimeUnit.MICROSECONDS, 64);
+        }
+        client.enableCoalescing("user.UserService", "GetUser");
+
+        requestType = client.getServiceDescriptor("user.UserService").findMethodByName("GetUser").getInputType();
+        userIdField = requestType.findFieldByName("user_id");
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        client.shutdown();
+        server.stop();
+    }
+
+    @Benchmark
+    public DynamicMessage getUser() throws Exception {
+        DynamicMessage request = DynamicMessage.newBuilder(requestType)
+                .setField(userIdField, 1 + ThreadLocalRandom.current().nextInt(userCount))
+                .build();
+        return client.callMethod("user.UserService", "GetUser", request);
+    }
+}
@@ -0,0 +1,50 @@
+package cn.edu.hit.client;
+
+import cn.edu.hit.common.ProtoFileManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 调用计划缓存基准测试：对比每次重新解析与从缓存获取调用计划的开销
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CallPlanBenchmark {
+    private ProtoFileManager protoManager;
+    private CallPlanCache cache;
+
+    @Setup
+    public void setup() throws Exception {
+        protoManager = new ProtoFileManager();
+        protoManager.loadProtoFiles("src/main/resources/proto");
+        cache = new CallPlanCache(protoManager);
+        cache.get("user.UserService", "GetUser");
+    }
+
+    @Benchmark
+    public CallPlan uncached() {
+        return CallPlan.resolve(protoManager, "user.UserService", "GetUser");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public CallPlan uncachedContended() {
+        return CallPlan.resolve(protoManager, "user.UserService", "GetUser");
+    }
+
+    @Benchmark
+    public CallPlan cached() {
+        return cache.get("user.UserService", "GetUser");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public CallPlan cachedContended() {
+        return cache.get("user.UserService", "GetUser");
+    }
+}
@@ -0,0 +1,76 @@
+package cn.edu.hit.client;
+
+import cn.edu.hit.server.DynamicGrpcServer;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连接池基准测试：启动3个本地DynamicGrpcServer，32个线程并发调用GetUser
+ * 对比单个连接到一个服务端与连接池（每个服务端2个连接）在轮询和最少进行中调用两种策略下的吞吐量
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(32)
+@State(Scope.Benchmark)
+public class ChannelPoolBenchmark {
+    private static final int SERVER_COUNT = 3;
+
+    @Param({"single", "ROUND_ROBIN", "LEAST_OUTSTANDING"})
+    public String mode;
+
+    private final List<DynamicGrpcServer> servers = new ArrayList<>();
+    private DynamicGrpcClient client;
+    private Descriptors.Descriptor requestType;
+    private Descriptors.FieldDescriptor userIdField;
+
+    @Setup
+    public void setup() throws Exception {
+        List<String> targets = new ArrayList<>();
+        for (int i = 0; i < SERVER_COUNT; i++) {
+            int port;
+            try (ServerSocket socket = new ServerSocket(0)) {
+                port = socket.getLocalPort();
+            }
+            DynamicGrpcServer server = new DynamicGrpcServer(port);
+            server.start();
+            servers.add(server);
+            targets.add("localhost:" + port);
+        }
+
+        if (mode.equals("single")) {
+            client = new DynamicGrpcClient(targets.subList(0, 1), 1, ChannelPool.Policy.ROUND_ROBIN);
+        } else {
+            client = new DynamicGrpcClient(targets, 2, ChannelPool.Policy.valueOf(mode));
+        }
+        client.loadProtoFiles("src/main/resources/proto");
+
+        requestType = client.getServiceDescriptor("user.UserService").findMethodByName("GetUser").getInputType();
+        userIdField = requestType.findFieldByName("user_id");
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        client.shutdown();
+        for (DynamicGrpcServer server : servers) {
+            server.stop();
+        }
+    }
+
+    @Benchmark
+    public DynamicMessage getUser() throws Exception {
+        DynamicMessage request = DynamicMessage.newBuilder(requestType)
+                .setField(userIdField, 1 + ThreadLocalRandom.current().nextInt(3))
+                .build();
+        return client.callMethod("user.UserService", "GetUser", request);
+    }
+}
@@ -0,0 +1,70 @@
+package cn.edu.hit.client;
+
+import cn.edu.hit.common.AsyncLogger;
+import cn.edu.hit.server.DynamicGrpcServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 调试日志基准测试：8个线程对本地服务器调用callMethod（JSON），对比debug日志关闭（INFO）与开启（DEBUG）时每次调用的耗时
+ * 日志输出到丢弃内容的流，只衡量调用线程上的开销
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class LoggingBenchmark {
+    @Param({"INFO", "DEBUG"})
+    public AsyncLogger.Level level;
+
+    private DynamicGrpcServer server;
+    private DynamicGrpcClient client;
+
+    @Setup
+    public void setup() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new DynamicGrpcServer(port);
+        server.start();
+
+        client = new DynamicGrpcClient("localhost", port);
+        client.loadProtoFiles("src/main/resources/proto");
+        // 使用DynamicMessage路径，debug日志包含完整的请求和响应消息
+        client.setJsonTranscoding(false);
+
+        PrintStream discard = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        AsyncLogger.setOutput(discard, discard);
+        AsyncLogger.setLevel(level);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        System.out.println("dropped log messages: " + AsyncLogger.getDroppedCount());
+        AsyncLogger.setLevel(AsyncLogger.Level.INFO);
+        AsyncLogger.setOutput(System.out, System.err);
+        client.shutdown();
+        server.stop();
+    }
+
+    @Benchmark
+    public String callMethod() throws Exception {
+        return client.callMethod("user.UserService", "GetUser", "{\"user_id\":1}");
+    }
+}
@@ -0,0 +1,60 @@
+package cn.edu.hit.client;
+
+import cn.edu.hit.server.DynamicGrpcServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.ServerSocket;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 响应缓存基准测试：8个线程对本地服务器调用GetUser（JSON），对比关闭缓存与开启缓存（1秒TTL）的吞吐量
+ * 请求的user_id在3个已有用户中随机选择，开启缓存后几乎全部命中
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class ResponseCacheBenchmark {
+    private static final String[] REQUESTS = {"{\"user_id\":1}", "{\"user_id\":2}", "{\"user_id\":3}"};
+
+    @Param({"false", "true"})
+    public boolean cached;
+
+    private DynamicGrpcServer server;
+    private DynamicGrpcClient client;
+
+    @Setup
+    public void setup() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new DynamicGrpcServer(port);
+        server.start();
+
+        client = new DynamicGrpcClient("localhost", port);
+        client.loadProtoFiles("src/main/resources/proto");
+        if (cached) {
+            client.enableCaching("user.UserService", "GetUser", 1, TimeUnit.SECONDS, 1 << 20);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        if (cached) {
+            System.out.println(client.getResponseCache("user.UserService", "GetUser"));
+        }
+        client.shutdown();
+        server.stop();
+    }
+
+    @Benchmark
+    public String getUser() throws Exception {
+        String request = REQUESTS[ThreadLocalRandom.current().nextInt(REQUESTS.length)];
+        return client.callMethodAsync("user.UserService", "GetUser", request).get();
+    }
+}
@@ -0,0 +1,81 @@
+package cn.edu.hit.common;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 日志调用开销基准测试：8个线程同时输出一条带2个参数的日志
+ * 对比级别未开启、异步输出和直接同步调用PrintStream.println（原先的调试输出方式），输出内容都被丢弃
+ * 异步输出时后台线程跟不上的日志被丢弃，结果中包含这部分
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class AsyncLoggerBenchmark {
+    private static final AsyncLogger log = AsyncLogger.getLogger(AsyncLoggerBenchmark.class);
+
+    private PrintStream discard;
+    private final String service = "user.UserService";
+    private final String method = "GetUser";
+
+    @Setup
+    public void setup() {
+        discard = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        AsyncLogger.setOutput(discard, discard);
+    }
+
+    @TearDown
+    public void tearDown() {
+        AsyncLogger.setLevel(AsyncLogger.Level.INFO);
+        AsyncLogger.setOutput(System.out, System.err);
+    }
+
+    /**
+     * 日志级别是全局的，每个测试方法通过各自的状态对象在开始前设置
+     */
+    @State(Scope.Benchmark)
+    public static class DebugDisabled {
+        @Setup
+        public void setup() {
+            AsyncLogger.setLevel(AsyncLogger.Level.INFO);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class DebugEnabled {
+        @Setup
+        public void setup() {
+            AsyncLogger.setLevel(AsyncLogger.Level.DEBUG);
+        }
+    }
+
+    @Benchmark
+    public void disabled(DebugDisabled state) {
+        log.debug("Calling service={}, method={}", service, method);
+    }
+
+    @Benchmark
+    public void async(DebugEnabled state) {
+        log.debug("Calling service={}, method={}", service, method);
+    }
+
+    @Benchmark
+    public void syncPrintln() {
+        discard.println("Debug: Calling service=" + service + ", method=" + method);
+    }
+}
@@ -0,0 +1,101 @@
+package cn.edu.hit.common;
+
+import cn.edu.hit.client.DynamicGrpcClient;
+import cn.edu.hit.server.DynamicGrpcServer;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ClientStreamTracer;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.ServerSocket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 压缩基准测试：本地服务器预先创建2000个用户，8个线程通过回环地址调用ListUsers（每页1000个用户，protobuf响应约50KB）
+ * 对比响应不压缩、gzip和deflate（BEST_SPEED）的吞吐量，结束时输出每次调用实际传输的响应字节数
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class CompressionBenchmark {
+    private static final int USER_COUNT = 2000;
+
+    @Param({"identity", "gzip", "deflate"})
+    public String encoding;
+
+    private NettyTransport transport;
+    private DynamicGrpcServer server;
+    private DynamicGrpcClient client;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder wireBytes = new LongAdder();
+
+    @Setup
+    public void setup() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new DynamicGrpcServer(port);
+        server.getCompression().setCompression("user.UserService/ListUsers", encoding, 1024);
+        server.start();
+
+        // 通过StreamTracer统计收到的响应压缩后的字节数
+        ClientStreamTracer.Factory tracerFactory = new ClientStreamTracer.Factory() {
+            @Override
+            public ClientStreamTracer newClientStreamTracer(ClientStreamTracer.StreamInfo info, Metadata headers) {
+                calls.increment();
+                return new ClientStreamTracer() {
+                    @Override
+                    public void inboundWireSize(long bytes) {
+                        wireBytes.add(bytes);
+                    }
+                };
+            }
+        };
+        transport = new NettyTransport();
+        client = new DynamicGrpcClient(transport.newChannelBuilder("localhost:" + port)
+                .intercept(new ClientInterceptor() {
+                    @Override
+                    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(
+                            MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
+                        return next.newCall(method, callOptions.withStreamTracerFactory(tracerFactory));
+                    }
+                })
+                .build());
+        client.loadProtoFiles("src/main/resources/proto");
+
+        server.getConcurrencyLimit().setEnabled(false);
+        CompletableFuture<?>[] created = new CompletableFuture<?>[USER_COUNT];
+        for (int i = 0; i < USER_COUNT; i++) {
+            created[i] = client.callMethodAsync("user.UserService", "CreateUser",
+                    "{\"name\":\"user" + i + "\",\"email\":\"user" + i + "@example.com\",\"age\":30}");
+        }
+        CompletableFuture.allOf(created).get();
+        server.getConcurrencyLimit().setEnabled(true);
+        calls.reset();
+        wireBytes.reset();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        System.out.println(encoding + ": " + wireBytes.sum() / Math.max(calls.sum(), 1) + " response bytes per call");
+        client.shutdown();
+        server.stop();
+        transport.close();
+    }
+
+    @Benchmark
+    public String listUsers() throws Exception {
+        return client.callMethodAsync("user.UserService", "ListUsers", "{\"page\":0,\"size\":1000}").get();
+    }
+}
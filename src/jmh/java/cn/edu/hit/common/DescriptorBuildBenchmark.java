@@ -0,0 +1,110 @@
+package cn.edu.hit.common;
+
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.Descriptors;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FileDescriptor构建基准测试：在生成的500个文件的schema上对比串行与并行构建
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DescriptorBuildBenchmark {
+    @Param({"500"})
+    private int fileCount;
+
+    private Map<String, DescriptorProtos.FileDescriptorProto> protos;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setup() {
+        protos = generateSchema(fileCount, 8, 3, new Random(42));
+        pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public Map<String, Descriptors.FileDescriptor> sequential() throws Exception {
+        return new FileDescriptorGraph(protos)
+                .buildSequential(DescriptorSnapshot.EMPTY, Collections.<String>emptySet());
+    }
+
+    @Benchmark
+    public Map<String, Descriptors.FileDescriptor> parallel() throws Exception {
+        return new FileDescriptorGraph(protos)
+                .buildParallel(DescriptorSnapshot.EMPTY, Collections.<String>emptySet(), pool);
+    }
+
+    /**
+     * 生成schema：每个文件从前50个文件中随机导入若干个，消息字段引用被导入文件中的消息
+     */
+    static Map<String, DescriptorProtos.FileDescriptorProto> generateSchema(
+            int fileCount, int messagesPerFile, int maxImports, Random random) {
+        Map<String, DescriptorProtos.FileDescriptorProto> protos = new LinkedHashMap<>();
+        for (int i = 0; i < fileCount; i++) {
+            DescriptorProtos.FileDescriptorProto.Builder file = DescriptorProtos.FileDescriptorProto.newBuilder()
+                    .setName("gen/file" + i + ".proto")
+                    .setPackage("gen.f" + i)
+                    .setSyntax("proto3");
+
+            int imports = i == 0 ? 0 : 1 + random.nextInt(Math.min(maxImports, i));
+            for (int k = 0; k < imports; k++) {
+                String dep = "gen/file" + (i - 1 - random.nextInt(Math.min(50, i))) + ".proto";
+                if (!file.getDependencyList().contains(dep)) {
+                    file.addDependency(dep);
+                }
+            }
+
+            for (int m = 0; m < messagesPerFile; m++) {
+                DescriptorProtos.DescriptorProto.Builder message = DescriptorProtos.DescriptorProto.newBuilder()
+                        .setName("Msg" + m);
+                message.addField(field("id", 1, DescriptorProtos.FieldDescriptorProto.Type.TYPE_INT32, null));
+                message.addField(field("name", 2, DescriptorProtos.FieldDescriptorProto.Type.TYPE_STRING, null));
+                for (int d = 0; d < file.getDependencyCount(); d++) {
+                    String depPackage = "gen.f" + file.getDependency(d).replaceAll("\\D", "");
+                    message.addField(field("ref" + d, 3 + d, DescriptorProtos.FieldDescriptorProto.Type.TYPE_MESSAGE,
+                            "." + depPackage + ".Msg" + m));
+                }
+                file.addMessageType(message);
+            }
+
+            file.addService(DescriptorProtos.ServiceDescriptorProto.newBuilder()
+                    .setName("Service" + i)
+                    .addMethod(DescriptorProtos.MethodDescriptorProto.newBuilder()
+                            .setName("Call")
+                            .setInputType(".gen.f" + i + ".Msg0")
+                            .setOutputType(".gen.f" + i + ".Msg1")));
+
+            protos.put(file.getName(), file.build());
+        }
+        return protos;
+    }
+
+    private static DescriptorProtos.FieldDescriptorProto field(
+            String name, int number, DescriptorProtos.FieldDescriptorProto.Type type, String typeName) {
+        DescriptorProtos.FieldDescriptorProto.Builder field = DescriptorProtos.FieldDescriptorProto.newBuilder()
+                .setName(name)
+                .setNumber(number)
+                .setLabel(DescriptorProtos.FieldDescriptorProto.Label.LABEL_OPTIONAL)
+                .setType(type);
+        if (typeName != null) {
+            field.setTypeName(typeName);
+        }
+        return field.build();
+    }
+}
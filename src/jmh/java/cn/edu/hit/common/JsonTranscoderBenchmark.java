@@ -0,0 +1,76 @@
+package cn.edu.hit.common;
+
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.util.JsonFormat;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON转码基准测试：在含有大量OrderItem的CreateOrderRequest上对比JsonFormat与JsonTranscoder
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonTranscoderBenchmark {
+    @Param({"10", "1000"})
+    public int items;
+
+    private Descriptors.Descriptor requestType;
+    private JsonFormat.Parser jsonParser;
+    private JsonFormat.Printer jsonPrinter;
+    private JsonTranscoder transcoder;
+    private String requestJson;
+    private byte[] requestBytes;
+
+    @Setup
+    public void setup() throws Exception {
+        ProtoFileManager protoManager = new ProtoFileManager();
+        protoManager.loadDescriptorSetResource(ProtoFileManager.PRECOMPILED_DESCRIPTOR_SET);
+        requestType = protoManager.getSnapshot()
+                .findMethod("order.OrderService/CreateOrder").getInputType();
+        jsonParser = JsonFormat.parser().ignoringUnknownFields();
+        jsonPrinter = JsonFormat.printer();
+        transcoder = JsonTranscoder.forType(requestType);
+
+        StringBuilder json = new StringBuilder("{\"userId\": 42, \"items\": [");
+        for (int i = 0; i < items; i++) {
+            if (i > 0) {
+                json.append(", ");
+            }
+            json.append("{\"productId\": \"P").append(i)
+                    .append("\", \"productName\": \"Product ").append(i)
+                    .append("\", \"quantity\": ").append(i % 7 + 1)
+                    .append(", \"price\": ").append(i * 1.25 + 0.99)
+                    .append('}');
+        }
+        requestJson = json.append("]}").toString();
+        requestBytes = transcoder.toProto(requestJson);
+    }
+
+    @Benchmark
+    public byte[] jsonFormatParse() throws Exception {
+        DynamicMessage.Builder builder = DynamicMessage.newBuilder(requestType);
+        jsonParser.merge(requestJson, builder);
+        return builder.build().toByteArray();
+    }
+
+    @Benchmark
+    public byte[] transcoderParse() throws Exception {
+        return transcoder.toProto(requestJson);
+    }
+
+    @Benchmark
+    public String jsonFormatPrint() throws Exception {
+        return jsonPrinter.print(DynamicMessage.parseFrom(requestType, requestBytes));
+    }
+
+    @Benchmark
+    public String transcoderPrint() throws Exception {
+        return transcoder.toJson(requestBytes);
+    }
+}
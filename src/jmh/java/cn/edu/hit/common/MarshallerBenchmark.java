@@ -0,0 +1,120 @@
+package cn.edu.hit.common;
+
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import io.grpc.Drainable;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor;
+import io.grpc.protobuf.ProtoUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 序列化器基准测试：在含10个和1000个用户的ListUsersResponse上对比ProtoUtils.marshaller和只保存原始字节的LazyMessage的反序列化，
+ * 以及ProtoUtils.marshaller和DynamicMessageMarshaller序列化写入传输层的开销（DynamicMessageMarshaller的反序列化即ProtoUtils）
+ * 反序列化的输入流与gRPC收到的消息一样实现KnownLength；加-prof gc可对比每次操作的分配量，
+ * 也可通过-jvmArgsAppend "-Xlog:gc"查看GC次数
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MarshallerBenchmark {
+    @Param({"10", "1000"})
+    public int users;
+
+    private DynamicMessage message;
+    private byte[] bytes;
+    private MethodDescriptor.Marshaller<DynamicMessage> protoUtils;
+    private MethodDescriptor.Marshaller<DynamicMessage> pooled;
+    private MethodDescriptor.Marshaller<LazyMessage> lazy;
+    private final byte[] copyBuffer = new byte[8192];
+    private final OutputStream sink = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Setup
+    public void setup() throws Exception {
+        ProtoFileManager protoManager = new ProtoFileManager();
+        protoManager.loadDescriptorSetResource(ProtoFileManager.PRECOMPILED_DESCRIPTOR_SET);
+        Descriptors.Descriptor type = protoManager.getSnapshot()
+                .findMethod("user.UserService/ListUsers").getOutputType();
+        Descriptors.Descriptor userType = type.findFieldByName("users").getMessageType();
+
+        DynamicMessage.Builder builder = DynamicMessage.newBuilder(type);
+        for (int i = 0; i < users; i++) {
+            builder.addRepeatedField(type.findFieldByName("users"), DynamicMessage.newBuilder(userType)
+                    .setField(userType.findFieldByName("id"), i)
+                    .setField(userType.findFieldByName("name"), "user" + i)
+                    .setField(userType.findFieldByName("email"), "user" + i + "@example.com")
+                    .setField(userType.findFieldByName("age"), 30)
+                    .setField(userType.findFieldByName("created_time"), System.currentTimeMillis())
+                    .build());
+        }
+        builder.setField(type.findFieldByName("total"), users);
+        message = builder.build();
+        bytes = message.toByteArray();
+
+        protoUtils = ProtoUtils.marshaller(DynamicMessage.getDefaultInstance(type));
+        pooled = new DynamicMessageMarshaller(type);
+        lazy = LazyMessage.marshaller(type);
+    }
+
+    @Benchmark
+    public DynamicMessage parseProtoUtils() {
+        return protoUtils.parse(new KnownLengthStream(bytes));
+    }
+
+    @Benchmark
+    public LazyMessage parseLazy() {
+        return lazy.parse(new KnownLengthStream(bytes));
+    }
+
+    @Benchmark
+    public int streamProtoUtils() throws IOException {
+        return drain(protoUtils.stream(message));
+    }
+
+    @Benchmark
+    public int streamPooled() throws IOException {
+        return drain(pooled.stream(message));
+    }
+
+    /**
+     * 按传输层的方式写出：Drainable直接写入，否则经过复制缓冲区
+     */
+    private int drain(InputStream stream) throws IOException {
+        if (stream instanceof Drainable) {
+            return ((Drainable) stream).drainTo(sink);
+        }
+        int total = 0;
+        for (int n; (n = stream.read(copyBuffer)) > 0; ) {
+            sink.write(copyBuffer, 0, n);
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * 与gRPC传给序列化器的流一样提供准确的长度
+     */
+    private static final class KnownLengthStream extends ByteArrayInputStream implements KnownLength {
+        KnownLengthStream(byte[] bytes) {
+            super(bytes);
+        }
+    }
+
+}
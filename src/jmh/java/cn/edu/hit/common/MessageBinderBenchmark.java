@@ -0,0 +1,105 @@
+package cn.edu.hit.common;
+
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 字段访问基准测试：对比每次按名称查找字段与使用MessageBinder预先解析的字段访问器
+ * 模拟CreateUser处理流程（读取请求字段、构建User和响应）；加上-prof gc可以看到每次操作的分配量
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageBinderBenchmark {
+    private DynamicMessage request;
+
+    private MessageBinder.StringField requestName;
+    private MessageBinder.StringField requestEmail;
+    private MessageBinder.IntField requestAge;
+    private MessageBinder response;
+    private MessageBinder.MessageField responseUser;
+    private MessageBinder.BoolField responseSuccess;
+    private MessageBinder user;
+    private MessageBinder.IntField userId;
+    private MessageBinder.StringField userName;
+    private MessageBinder.StringField userEmail;
+    private MessageBinder.IntField userAge;
+    private MessageBinder.LongField userCreatedTime;
+
+    @Setup
+    public void setup() throws Exception {
+        ProtoFileManager protoManager = new ProtoFileManager();
+        protoManager.loadDescriptorSetResource(ProtoFileManager.PRECOMPILED_DESCRIPTOR_SET);
+        Descriptors.FileDescriptor file = protoManager.getSnapshot()
+                .findMethod("user.UserService/CreateUser").getFile();
+
+        MessageBinder requestBinder = MessageBinder.of(file, "CreateUserRequest");
+        requestName = requestBinder.stringField("name");
+        requestEmail = requestBinder.stringField("email");
+        requestAge = requestBinder.intField("age");
+        response = MessageBinder.of(file, "CreateUserResponse");
+        responseUser = response.messageField("user");
+        responseSuccess = response.boolField("success");
+        user = responseUser.binder();
+        userId = user.intField("id");
+        userName = user.stringField("name");
+        userEmail = user.stringField("email");
+        userAge = user.intField("age");
+        userCreatedTime = user.longField("created_time");
+
+        DynamicMessage.Builder builder = requestBinder.newBuilder();
+        requestName.set(builder, "Alice");
+        requestEmail.set(builder, "alice@example.com");
+        requestAge.set(builder, 25);
+        request = builder.build();
+    }
+
+    @Benchmark
+    public DynamicMessage findFieldByName() {
+        Descriptors.Descriptor requestType = request.getDescriptorForType();
+        String name = (String) request.getField(requestType.findFieldByName("name"));
+        String email = (String) request.getField(requestType.findFieldByName("email"));
+        int age = (Integer) request.getField(requestType.findFieldByName("age"));
+
+        DynamicMessage.Builder userBuilder = DynamicMessage.newBuilder(
+                requestType.getFile().findMessageTypeByName("User"));
+        Descriptors.Descriptor userType = userBuilder.getDescriptorForType();
+        userBuilder.setField(userType.findFieldByName("id"), 1000);
+        userBuilder.setField(userType.findFieldByName("name"), name);
+        userBuilder.setField(userType.findFieldByName("email"), email);
+        userBuilder.setField(userType.findFieldByName("age"), age);
+        userBuilder.setField(userType.findFieldByName("created_time"), 1700000000000L);
+
+        DynamicMessage.Builder responseBuilder = DynamicMessage.newBuilder(
+                requestType.getFile().findMessageTypeByName("CreateUserResponse"));
+        Descriptors.Descriptor responseType = responseBuilder.getDescriptorForType();
+        responseBuilder.setField(responseType.findFieldByName("user"), userBuilder.build());
+        responseBuilder.setField(responseType.findFieldByName("success"), true);
+        return responseBuilder.build();
+    }
+
+    @Benchmark
+    public DynamicMessage messageBinder() {
+        String name = requestName.get(request);
+        String email = requestEmail.get(request);
+        int age = requestAge.get(request);
+
+        DynamicMessage.Builder userBuilder = user.newBuilder();
+        userId.set(userBuilder, 1000);
+        userName.set(userBuilder, name);
+        userEmail.set(userBuilder, email);
+        userAge.set(userBuilder, age);
+        userCreatedTime.set(userBuilder, 1700000000000L);
+
+        DynamicMessage.Builder responseBuilder = response.newBuilder();
+        responseUser.set(responseBuilder, userBuilder.build());
+        responseSuccess.set(responseBuilder, true);
+        return responseBuilder.build();
+    }
+}
@@ -0,0 +1,46 @@
+package cn.edu.hit.common;
+
+import io.grpc.Status;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 调用统计基准测试：8个线程同时向同一个方法的MethodMetrics记录完整的一次调用（开始、请求、响应、结束）
+ * 加-prof gc可确认记录过程不分配对象
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+    private RpcMetrics metrics;
+    private MethodMetrics method;
+
+    @Setup
+    public void setup() {
+        metrics = new RpcMetrics("benchmark");
+        method = metrics.forMethod("user.UserService/GetUser");
+    }
+
+    /**
+     * 拦截器每次调用都要做的查找
+     */
+    @Benchmark
+    public MethodMetrics lookup() {
+        return metrics.forMethod("user.UserService/GetUser");
+    }
+
+    @Benchmark
+    public void recordCall() {
+        long latency = ThreadLocalRandom.current().nextLong(100_000, 5_000_000);
+        method.callStarted();
+        method.requestMessage(12);
+        method.responseMessage(48);
+        method.callClosed(Status.Code.OK, latency);
+    }
+}
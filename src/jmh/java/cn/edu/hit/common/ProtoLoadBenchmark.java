@@ -0,0 +1,53 @@
+package cn.edu.hit.common;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 启动加载基准测试：对比调用protoc编译、磁盘缓存命中、classpath预编译描述符集三种启动路径
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProtoLoadBenchmark {
+    private static final String PROTO_DIR = "src/main/resources/proto";
+
+    private File cacheDir;
+
+    @Setup
+    public void setup() throws Exception {
+        cacheDir = Files.createTempDirectory("proto-load-bench").toFile();
+        ProtoFileManager warmup = new ProtoFileManager();
+        warmup.setCacheDir(cacheDir);
+        warmup.loadProtoFiles(PROTO_DIR);
+    }
+
+    @Benchmark
+    public DescriptorSnapshot protocSubprocess() throws Exception {
+        ProtoFileManager manager = new ProtoFileManager();
+        manager.setCacheDir(null);
+        manager.loadProtoFiles(PROTO_DIR);
+        return manager.getSnapshot();
+    }
+
+    @Benchmark
+    public DescriptorSnapshot diskCacheHit() throws Exception {
+        ProtoFileManager manager = new ProtoFileManager();
+        manager.setCacheDir(cacheDir);
+        manager.loadProtoFiles(PROTO_DIR);
+        return manager.getSnapshot();
+    }
+
+    @Benchmark
+    public DescriptorSnapshot precompiledClasspath() throws Exception {
+        ProtoFileManager manager = new ProtoFileManager();
+        manager.loadDescriptorSetResource(ProtoFileManager.PRECOMPILED_DESCRIPTOR_SET);
+        return manager.getSnapshot();
+    }
+}
@@ -0,0 +1,85 @@
+package cn.edu.hit.common;
+
+import cn.edu.hit.client.DynamicGrpcClient;
+import cn.edu.hit.server.DynamicGrpcServer;
+import cn.edu.hit.server.ServerExecutors;
+import cn.edu.hit.server.UserPersistence;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.ServerSocket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 传输层负载测试：本地服务器预先创建2000个用户，16个线程并发调用ListUsers（每页1000个用户，protobuf响应约50KB）
+ * 对比epoll与NIO、事件循环线程数、HTTP/2流控窗口大小对吞吐量的影响，服务端和客户端使用相同的配置
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+@State(Scope.Benchmark)
+public class TransportBenchmark {
+    private static final int USER_COUNT = 2000;
+
+    @Param({"true", "false"})
+    public boolean epoll;
+
+    @Param({"1", "0"})
+    public int workerThreads;
+
+    @Param({"65535", "1048576"})
+    public int flowControlWindow;
+
+    private NettyTransport serverTransport;
+    private NettyTransport clientTransport;
+    private DynamicGrpcServer server;
+    private DynamicGrpcClient client;
+
+    @Setup
+    public void setup() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        serverTransport = newTransport();
+        clientTransport = newTransport();
+        server = new DynamicGrpcServer(port, UserPersistence.NONE,
+                new ServerExecutors(ServerExecutors.Mode.DIRECT, 1), serverTransport);
+        server.start();
+
+        client = new DynamicGrpcClient("localhost", port, clientTransport);
+        client.loadProtoFiles("src/main/resources/proto");
+        // 一次性并发创建的用户数超过服务端的并发限制，创建完成前先关闭限制
+        server.getConcurrencyLimit().setEnabled(false);
+        CompletableFuture<?>[] created = new CompletableFuture<?>[USER_COUNT];
+        for (int i = 0; i < USER_COUNT; i++) {
+            created[i] = client.callMethodAsync("user.UserService", "CreateUser",
+                    "{\"name\":\"user" + i + "\",\"email\":\"user" + i + "@example.com\",\"age\":30}");
+        }
+        CompletableFuture.allOf(created).get();
+        server.getConcurrencyLimit().setEnabled(true);
+    }
+
+    private NettyTransport newTransport() {
+        return new NettyTransport()
+                .epoll(epoll)
+                .workerThreads(workerThreads)
+                .flowControlWindow(flowControlWindow);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        client.shutdown();
+        server.stop();
+        clientTransport.close();
+        serverTransport.close();
+    }
+
+    @Benchmark
+    public String listUsers() throws Exception {
+        return client.callMethodAsync("user.UserService", "ListUsers", "{\"page\":0,\"size\":1000}").get();
+    }
+}
@@ -0,0 +1,63 @@
+package cn.edu.hit.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订单引擎基准测试：并发生成订单号、创建订单、按订单号查找、按用户查询订单的吞吐量
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class OrderEngineBenchmark {
+    private static final int USERS = 100000;
+    private static final int PRELOADED = 1000000;
+
+    private final OrderIdGenerator generator = new OrderIdGenerator();
+    private OrderEngine engine;
+    private String[] orderIds;
+    private final String[] productIds = {"P1", "P2", "P3", "P4"};
+    private final String[] productNames = {"Book", "Pen", "Bag", "Lamp"};
+    private final int[] quantities = {1, 2, 3, 4};
+    private final double[] prices = {12.5, 1.2, 30, 45.99};
+
+    @Setup
+    public void setup() {
+        engine = new OrderEngine(PRELOADED * 2);
+        orderIds = new String[PRELOADED];
+        for (int i = 0; i < PRELOADED; i++) {
+            orderIds[i] = engine.create(1 + i % USERS, productIds, productNames, quantities, prices, i).getId();
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public OrderRecord create() {
+        int userId = 1 + ThreadLocalRandom.current().nextInt(USERS);
+        return engine.create(userId, productIds, productNames, quantities, prices, System.currentTimeMillis());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public OrderRecord getById() {
+        return engine.get(orderIds[ThreadLocalRandom.current().nextInt(PRELOADED)]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public List<OrderRecord> ordersOfUser() {
+        return engine.ordersOf(1 + ThreadLocalRandom.current().nextInt(USERS));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String nextOrderId() {
+        return generator.nextId();
+    }
+}
@@ -0,0 +1,62 @@
+package cn.edu.hit.server;
+
+import cn.edu.hit.client.DynamicGrpcClient;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.ServerSocket;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 服务端执行方式基准测试：32个客户端线程并发调用GetUser（内存查询，不阻塞），对比各ServerExecutors.Mode的吞吐量
+ * VIRTUAL在JDK 21以下按FORK_JOIN运行
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(32)
+@State(Scope.Benchmark)
+public class ServerExecutorBenchmark {
+    @Param({"DIRECT", "FORK_JOIN", "VIRTUAL", "CACHED"})
+    public String mode;
+
+    private DynamicGrpcServer server;
+    private DynamicGrpcClient client;
+    private Descriptors.Descriptor requestType;
+    private Descriptors.FieldDescriptor userIdField;
+
+    @Setup
+    public void setup() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        ServerExecutors executors = new ServerExecutors(ServerExecutors.Mode.valueOf(mode),
+                Runtime.getRuntime().availableProcessors());
+        server = new DynamicGrpcServer(port, UserPersistence.NONE, executors);
+        server.start();
+
+        client = new DynamicGrpcClient("localhost", port);
+        client.loadProtoFiles("src/main/resources/proto");
+        requestType = client.getServiceDescriptor("user.UserService").findMethodByName("GetUser").getInputType();
+        userIdField = requestType.findFieldByName("user_id");
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        client.shutdown();
+        server.stop();
+    }
+
+    @Benchmark
+    public DynamicMessage getUser() throws Exception {
+        DynamicMessage request = DynamicMessage.newBuilder(requestType)
+                .setField(userIdField, 1 + ThreadLocalRandom.current().nextInt(3))
+                .build();
+        return client.callMethod("user.UserService", "GetUser", request);
+    }
+}
@@ -0,0 +1,130 @@
+package cn.edu.hit.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 用户持久化基准测试
+ * 写入：多线程创建用户并等待所在批次落盘，对比开启和关闭fsync的吞吐量（组提交使并发写入共享fsync）
+ * 恢复：对比从完整日志重放与加载快照恢复同样数量用户的耗时
+ */
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserPersistenceBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Writer {
+        @Param({"true", "false"})
+        public boolean fsync;
+
+        File dir;
+        UserStore store;
+        WalUserPersistence persistence;
+        final AtomicInteger emails = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            dir = Files.createTempDirectory("user-wal-bench").toFile();
+            store = new UserStore();
+            persistence = new WalUserPersistence(dir, 0, fsync);
+            persistence.recover(store);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            persistence.close();
+            deleteRecursively(dir);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(16)
+    public UserRecord createUser(Writer writer) {
+        UserRecord user = writer.store.create("User", "bench" + writer.emails.getAndIncrement() + "@example.com",
+                30, System.currentTimeMillis());
+        writer.persistence.append(user).join();
+        return user;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Recovery {
+        @Param({"1000000"})
+        public int users;
+
+        File walDir;
+        File snapshotDir;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            walDir = populate(users, false);
+            snapshotDir = populate(users, true);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            deleteRecursively(walDir);
+            deleteRecursively(snapshotDir);
+        }
+
+        private static File populate(int users, boolean snapshot) throws IOException {
+            File dir = Files.createTempDirectory("user-recovery-bench").toFile();
+            UserStore store = new UserStore();
+            WalUserPersistence persistence = new WalUserPersistence(dir, 0, false);
+            persistence.recover(store);
+            for (int i = 0; i < users; i++) {
+                persistence.append(store.create("User " + i, "user" + i + "@example.com", 20 + i % 50, i));
+            }
+            if (snapshot) {
+                // close写入快照并删除已覆盖的日志
+                persistence.close();
+            } else {
+                // 等待日志写完，不写快照，模拟进程崩溃
+                persistence.append(store.create("last", "last@example.com", 1, 1)).join();
+            }
+            return dir;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public UserStore recoverFromWal(Recovery recovery) throws IOException {
+        return recover(recovery.walDir);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public UserStore recoverFromSnapshot(Recovery recovery) throws IOException {
+        return recover(recovery.snapshotDir);
+    }
+
+    private static UserStore recover(File dir) throws IOException {
+        // 不调用close：close会写入快照，改变下一次恢复的输入；每次恢复只会额外创建一个空的日志段
+        UserStore store = new UserStore();
+        new WalUserPersistence(dir, 0, false).recover(store);
+        return store;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
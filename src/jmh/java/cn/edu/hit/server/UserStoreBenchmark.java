@@ -0,0 +1,140 @@
+package cn.edu.hit.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 用户存储基准测试：对比UserStore与原先加锁的HashMap<Integer, Map<String, Object>>
+ * 包括按id读取、并发创建、按页号和按游标分页的吞吐量，以及保存同样数量用户后的堆内存占用
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class UserStoreBenchmark {
+    @Param({"1000000"})
+    public int users;
+
+    private UserStore store;
+    private Map<Integer, Map<String, Object>> map;
+    private final AtomicInteger mapIds = new AtomicInteger(1);
+    private final AtomicInteger emails = new AtomicInteger();
+
+    @Setup
+    public void setup() {
+        store = populateStore(users);
+        map = populateMap(users);
+        mapIds.set(users + 1);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public UserRecord storeGet() {
+        return store.get(1 + ThreadLocalRandom.current().nextInt(users));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Map<String, Object> mapGet() {
+        return map.get(1 + ThreadLocalRandom.current().nextInt(users));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public UserRecord storeCreate() {
+        return store.create("User", "bench" + emails.getAndIncrement() + "@example.com", 30, 0L);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Map<String, Object> mapCreate() {
+        int id = mapIds.getAndIncrement();
+        Map<String, Object> user = user(id, "bench" + emails.getAndIncrement() + "@example.com");
+        map.put(id, user);
+        return user;
+    }
+
+    @Benchmark
+    public List<UserRecord> storePage() {
+        return store.page(ThreadLocalRandom.current().nextInt(users / 50), 50);
+    }
+
+    @Benchmark
+    public List<UserRecord> storePageAfter() {
+        return store.pageAfter(ThreadLocalRandom.current().nextInt(users), 50);
+    }
+
+    /**
+     * 堆内存占用：填充后触发GC，以AuxCounters报告保留的字节数
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long retainedBytes;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public Object storeFootprint(Footprint footprint) {
+        long before = usedHeap();
+        UserStore populated = populateStore(users);
+        footprint.retainedBytes = usedHeap() - before;
+        return populated;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public Object mapFootprint(Footprint footprint) {
+        long before = usedHeap();
+        Map<Integer, Map<String, Object>> populated = populateMap(users);
+        footprint.retainedBytes = usedHeap() - before;
+        return populated;
+    }
+
+    private static UserStore populateStore(int count) {
+        UserStore store = new UserStore();
+        for (int i = 0; i < count; i++) {
+            store.create("User " + i, "user" + i + "@example.com", 20 + i % 50, 1700000000000L + i);
+        }
+        return store;
+    }
+
+    private static Map<Integer, Map<String, Object>> populateMap(int count) {
+        Map<Integer, Map<String, Object>> map = new HashMap<>();
+        for (int i = 1; i <= count; i++) {
+            map.put(i, user(i, "user" + i + "@example.com"));
+        }
+        return Collections.synchronizedMap(map);
+    }
+
+    private static Map<String, Object> user(int id, String email) {
+        Map<String, Object> user = new HashMap<>();
+        user.put("id", id);
+        user.put("name", "User " + id);
+        user.put("email", email);
+        user.put("age", 20 + id % 50);
+        user.put("created_time", 1700000000000L + id);
+        return user;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,121 @@
+package cn.edu.hit.client;
+
+import cn.edu.hit.common.DescriptorSnapshot;
+import cn.edu.hit.common.JsonTranscoder;
+import cn.edu.hit.common.MethodDescriptorHelper;
+import cn.edu.hit.common.ProtoFileManager;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import io.grpc.MethodDescriptor;
+
+/**
+ * 调用计划，保存一次方法解析的全部结果，供同一方法的后续调用直接复用
+ */
+public final class CallPlan {
+    private final Descriptors.MethodDescriptor methodDescriptor;
+    private final MethodDescriptor<DynamicMessage, DynamicMessage> grpcMethodDescriptor;
+    private final MethodDescriptor<byte[], byte[]> rawMethodDescriptor;
+    private final Descriptors.Descriptor inputType;
+    private final Descriptors.Descriptor outputType;
+    private final DynamicMessage requestPrototype;
+    private final DynamicMessage responsePrototype;
+    private final JsonTranscoder requestTranscoder;
+    private final JsonTranscoder responseTranscoder;
+
+    private CallPlan(Descriptors.ServiceDescriptor serviceDescriptor,
+                     Descriptors.MethodDescriptor methodDescriptor) {
+        this.methodDescriptor = methodDescriptor;
+        this.grpcMethodDescriptor =
+                MethodDescriptorHelper.createMethodDescriptor(serviceDescriptor, methodDescriptor);
+        this.rawMethodDescriptor =
+                MethodDescriptorHelper.createRawMethodDescriptor(serviceDescriptor, methodDescriptor);
+        this.inputType = methodDescriptor.getInputType();
+        this.outputType = methodDescriptor.getOutputType();
+        this.requestPrototype = DynamicMessage.getDefaultInstance(inputType);
+        this.responsePrototype = DynamicMessage.getDefaultInstance(outputType);
+        this.requestTranscoder = JsonTranscoder.forType(inputType);
+        this.responseTranscoder = JsonTranscoder.forType(outputType);
+    }
+
+    /**
+     * 从描述符中解析调用计划（不经过缓存）
+     */
+    public static CallPlan resolve(ProtoFileManager protoManager, String serviceName, String methodName) {
+        return resolve(protoManager.getSnapshot(), serviceName + "/" + methodName);
+    }
+
+    /**
+     * 从指定快照中按完整方法名解析调用计划（不经过缓存）
+     */
+    public static CallPlan resolve(DescriptorSnapshot snapshot, String fullMethodName) {
+        Descriptors.MethodDescriptor methodDescriptor = snapshot.findMethod(fullMethodName);
+        if (methodDescriptor == null) {
+            int slash = fullMethodName.lastIndexOf('/');
+            String serviceName = slash < 0 ? fullMethodName : fullMethodName.substring(0, slash);
+            if (snapshot.findService(serviceName) == null) {
+                throw new IllegalArgumentException("Service not found: " + serviceName);
+            }
+            throw new IllegalArgumentException(
+                    "Method not found: " + fullMethodName.substring(slash + 1) + " in service: " + serviceName);
+        }
+
+        return new CallPlan(methodDescriptor.getService(), methodDescriptor);
+    }
+
+    public Descriptors.MethodDescriptor getMethodDescriptor() {
+        return methodDescriptor;
+    }
+
+    public MethodDescriptor<DynamicMessage, DynamicMessage> getGrpcMethodDescriptor() {
+        return grpcMethodDescriptor;
+    }
+
+    /**
+     * 以protobuf二进制数据为请求和响应的方法描述符，配合JsonTranscoder使用
+     */
+    public MethodDescriptor<byte[], byte[]> getRawMethodDescriptor() {
+        return rawMethodDescriptor;
+    }
+
+    public String getFullMethodName() {
+        return grpcMethodDescriptor.getFullMethodName();
+    }
+
+    public Descriptors.Descriptor getInputType() {
+        return inputType;
+    }
+
+    public Descriptors.Descriptor getOutputType() {
+        return outputType;
+    }
+
+    public DynamicMessage getRequestPrototype() {
+        return requestPrototype;
+    }
+
+    public DynamicMessage getResponsePrototype() {
+        return responsePrototype;
+    }
+
+    public JsonTranscoder getRequestTranscoder() {
+        return requestTranscoder;
+    }
+
+    public JsonTranscoder getResponseTranscoder() {
+        return responseTranscoder;
+    }
+
+    /**
+     * 请求和响应类型是否都可以使用JsonTranscoder直接转换
+     */
+    public boolean isJsonTranscodable() {
+        return requestTranscoder.isSupported() && responseTranscoder.isSupported();
+    }
+
+    /**
+     * 创建请求消息构建器
+     */
+    public DynamicMessage.Builder newRequestBuilder() {
+        return requestPrototype.newBuilderForType();
+    }
+}
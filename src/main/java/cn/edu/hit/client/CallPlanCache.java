@@ -0,0 +1,73 @@
+package cn.edu.hit.client;
+
+import cn.edu.hit.common.DescriptorSnapshot;
+import cn.edu.hit.common.ProtoFileManager;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 调用计划缓存，按完整方法名（service/method）缓存已解析的调用计划
+ * 缓存与描述符快照绑定，proto文件重新加载后整体失效
+ */
+public class CallPlanCache {
+    private final ProtoFileManager protoManager;
+    private volatile Generation generation = new Generation(null);
+
+    public CallPlanCache(ProtoFileManager protoManager) {
+        this.protoManager = protoManager;
+        protoManager.addReloadListener(this::invalidateAll);
+    }
+
+    /**
+     * 获取调用计划，未命中时解析并缓存
+     */
+    public CallPlan get(String serviceName, String methodName) {
+        return get(serviceName + "/" + methodName);
+    }
+
+    /**
+     * 按完整方法名获取调用计划，未命中时解析并缓存
+     */
+    public CallPlan get(String fullMethodName) {
+        // 计划总是从所在代对应的快照中解析，重新加载前解析出的计划不会进入新的一代
+        DescriptorSnapshot snapshot = protoManager.getSnapshot();
+        Generation current = generation;
+        if (current.snapshot != snapshot) {
+            current = new Generation(snapshot);
+            generation = current;
+        }
+
+        CallPlan plan = current.plans.get(fullMethodName);
+        if (plan == null) {
+            plan = CallPlan.resolve(snapshot, fullMethodName);
+            CallPlan existing = current.plans.putIfAbsent(fullMethodName, plan);
+            if (existing != null) {
+                plan = existing;
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * 清空全部缓存
+     */
+    public void invalidateAll() {
+        generation = new Generation(null);
+    }
+
+    public int size() {
+        return generation.plans.size();
+    }
+
+    /**
+     * 同一描述符快照下解析出的调用计划
+     */
+    private static final class Generation {
+        final DescriptorSnapshot snapshot;
+        final ConcurrentHashMap<String, CallPlan> plans = new ConcurrentHashMap<>();
+
+        Generation(DescriptorSnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+    }
+}
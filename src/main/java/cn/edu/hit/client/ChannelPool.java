@@ -0,0 +1,357 @@
+package cn.edu.hit.client;
+
+import cn.edu.hit.common.AsyncLogger;
+import cn.edu.hit.common.MessageCompression;
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ConnectivityState;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.function.Function;
+
+/**
+ * 连接池，向一组静态配置的服务端地址各建立若干个连接，每次调用按策略选择其中一个
+ * 单个HTTP/2连接的并发流数达到上限后，调用分散到其他连接和其他服务端
+ * 连续返回UNAVAILABLE或连接失败（调用失败或选择时处于TRANSIENT_FAILURE状态）的连接被摘除一段时间（连续摘除时加倍），
+ * 所有连接都不可用时仍选择最早恢复的连接
+ */
+public class ChannelPool extends ManagedChannel {
+    /**
+     * 连接选择策略
+     */
+    public enum Policy {
+        /** 依次轮流选择 */
+        ROUND_ROBIN,
+        /** 选择进行中调用最少的连接 */
+        LEAST_OUTSTANDING
+    }
+
+    private static final AsyncLogger log = AsyncLogger.getLogger(ChannelPool.class);
+    private static final int EJECTION_FAILURE_THRESHOLD = 3;
+    private static final long BASE_EJECTION_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_EJECTION_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final Subchannel[] subchannels;
+    private final Policy policy;
+    private final AtomicInteger nextIndex = new AtomicInteger();
+
+    /**
+     * 连接使用明文传输，并注册MessageCompression的压缩器和解压器（支持deflate）
+     *
+     * @param targets            服务端地址列表，格式为host:port
+     * @param channelsPerTarget  每个地址建立的连接数
+     */
+    public ChannelPool(List<String> targets, int channelsPerTarget, Policy policy) {
+        this(targets, channelsPerTarget, policy,
+                target -> ManagedChannelBuilder.forTarget(target).usePlaintext()
+                        .compressorRegistry(MessageCompression.compressorRegistry())
+                        .decompressorRegistry(MessageCompression.decompressorRegistry())
+                        .build());
+    }
+
+    /**
+     * @param channelFactory 为地址创建一个连接，如使用NettyTransport配置传输层；
+     *                       使用deflate压缩时连接需要注册MessageCompression.compressorRegistry()
+     */
+    public ChannelPool(List<String> targets, int channelsPerTarget, Policy policy,
+                       Function<String, ManagedChannel> channelFactory) {
+        if (targets.isEmpty() || channelsPerTarget <= 0) {
+            throw new IllegalArgumentException("Invalid channel pool: " + targets + " x " + channelsPerTarget);
+        }
+        List<Subchannel> created = new ArrayList<>();
+        for (String target : targets) {
+            for (int i = 0; i < channelsPerTarget; i++) {
+                created.add(new Subchannel(target, channelFactory.apply(target)));
+            }
+        }
+        this.subchannels = created.toArray(new Subchannel[0]);
+        this.policy = policy;
+    }
+
+    /**
+     * 解析逗号分隔的host:port列表
+     */
+    public static List<String> parseTargets(String targets) {
+        List<String> result = new ArrayList<>();
+        for (String target : targets.split(",")) {
+            target = target.trim();
+            if (target.isEmpty()) {
+                continue;
+            }
+            int colon = target.lastIndexOf(':');
+            if (colon <= 0 || colon == target.length() - 1) {
+                throw new IllegalArgumentException("Invalid target, expected host:port: " + target);
+            }
+            result.add(target);
+        }
+        if (result.isEmpty()) {
+            throw new IllegalArgumentException("No targets: " + targets);
+        }
+        return result;
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(MethodDescriptor<ReqT, RespT> method,
+                                                         CallOptions callOptions) {
+        Subchannel subchannel = pick();
+        return new TrackingCall<>(subchannel, subchannel.channel.newCall(method, callOptions));
+    }
+
+    @Override
+    public String authority() {
+        return subchannels[0].channel.authority();
+    }
+
+    /**
+     * 选择一个可用的连接
+     */
+    private Subchannel pick() {
+        long now = System.nanoTime();
+        int n = subchannels.length;
+        if (n == 1) {
+            return subchannels[0];
+        }
+
+        Subchannel best = null;
+        if (policy == Policy.ROUND_ROBIN) {
+            // 跳过不可用的连接时继续取下一个序号，不可用连接的份额平均分给其余连接
+            for (int i = 0; i < n; i++) {
+                Subchannel candidate = subchannels[Math.floorMod(nextIndex.getAndIncrement(), n)];
+                if (candidate.isAvailable(now)) {
+                    return candidate;
+                }
+            }
+        } else {
+            int start = ThreadLocalRandom.current().nextInt(n);
+            for (int i = 0; i < n; i++) {
+                Subchannel candidate = subchannels[(start + i) % n];
+                if (candidate.isAvailable(now)
+                        && (best == null || candidate.outstanding.get() < best.outstanding.get())) {
+                    best = candidate;
+                }
+            }
+            if (best != null) {
+                return best;
+            }
+        }
+
+        // 全部不可用时选择最早结束摘除的连接，调用失败由调用方处理
+        best = subchannels[0];
+        for (Subchannel candidate : subchannels) {
+            if (candidate.ejectedUntil - best.ejectedUntil < 0) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 各连接的状态汇总：任一连接READY即为READY，否则依次为CONNECTING、IDLE、TRANSIENT_FAILURE
+     */
+    @Override
+    public ConnectivityState getState(boolean requestConnection) {
+        ConnectivityState result = ConnectivityState.SHUTDOWN;
+        for (Subchannel subchannel : subchannels) {
+            ConnectivityState state = subchannel.channel.getState(requestConnection);
+            if (rank(state) < rank(result)) {
+                result = state;
+            }
+        }
+        return result;
+    }
+
+    private static int rank(ConnectivityState state) {
+        switch (state) {
+            case READY:
+                return 0;
+            case CONNECTING:
+                return 1;
+            case IDLE:
+                return 2;
+            case TRANSIENT_FAILURE:
+                return 3;
+            default:
+                return 4;
+        }
+    }
+
+    /**
+     * 连接数（地址数 x 每个地址的连接数）
+     */
+    public int size() {
+        return subchannels.length;
+    }
+
+    /**
+     * 当前被摘除的连接数
+     */
+    public int ejectedCount() {
+        long now = System.nanoTime();
+        int count = 0;
+        for (Subchannel subchannel : subchannels) {
+            if (subchannel.ejectedUntil - now > 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public ChannelPool shutdown() {
+        for (Subchannel subchannel : subchannels) {
+            subchannel.channel.shutdown();
+        }
+        return this;
+    }
+
+    @Override
+    public ChannelPool shutdownNow() {
+        for (Subchannel subchannel : subchannels) {
+            subchannel.channel.shutdownNow();
+        }
+        return this;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        for (Subchannel subchannel : subchannels) {
+            if (!subchannel.channel.isShutdown()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        for (Subchannel subchannel : subchannels) {
+            if (!subchannel.channel.isTerminated()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Subchannel subchannel : subchannels) {
+            long remaining = deadline - System.nanoTime();
+            if (!subchannel.channel.awaitTermination(Math.max(remaining, 0), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 池中的一个连接及其调用统计
+     */
+    private static final class Subchannel {
+        private static final AtomicLongFieldUpdater<Subchannel> EJECTED_UNTIL =
+                AtomicLongFieldUpdater.newUpdater(Subchannel.class, "ejectedUntil");
+
+        final String target;
+        final ManagedChannel channel;
+        final AtomicInteger outstanding = new AtomicInteger();
+        final AtomicInteger consecutiveFailures = new AtomicInteger();
+        volatile long ejectedUntil = System.nanoTime();
+        volatile int ejections;
+
+        Subchannel(String target, ManagedChannel channel) {
+            this.target = target;
+            this.channel = channel;
+        }
+
+        boolean isAvailable(long now) {
+            long until = ejectedUntil;
+            if (until - now > 0) {
+                return false;
+            }
+            // 不主动发起连接，空闲的连接在被选中后由gRPC建立；连接失败的连接在选择时摘除，
+            // 不依赖失败调用结束时连接状态是否已变为TRANSIENT_FAILURE
+            if (channel.getState(false) == ConnectivityState.TRANSIENT_FAILURE) {
+                eject(until);
+                return false;
+            }
+            return true;
+        }
+
+        void onClose(Status status) {
+            outstanding.decrementAndGet();
+            if (status.getCode() != Status.Code.UNAVAILABLE) {
+                consecutiveFailures.set(0);
+                ejections = 0;
+                return;
+            }
+            // 已被摘除时，摘除前发出的调用陆续失败属于同一次故障，不再摘除
+            long until = ejectedUntil;
+            if (until - System.nanoTime() > 0) {
+                return;
+            }
+            // 连接失败（连接处于TRANSIENT_FAILURE）时立即摘除，服务端返回的UNAVAILABLE连续达到阈值后摘除
+            if (consecutiveFailures.incrementAndGet() >= EJECTION_FAILURE_THRESHOLD
+                    || channel.getState(false) == ConnectivityState.TRANSIENT_FAILURE) {
+                eject(until);
+            }
+        }
+
+        /**
+         * 从observedUntil开始摘除，多个线程同时发现同一次故障时只有一个线程CAS成功，摘除时间只加倍一次
+         */
+        private void eject(long observedUntil) {
+            // 连续被摘除时摘除时间加倍
+            int times = Math.min(ejections, 16);
+            long duration = Math.min(BASE_EJECTION_NANOS << times, MAX_EJECTION_NANOS);
+            if (!EJECTED_UNTIL.compareAndSet(this, observedUntil, System.nanoTime() + duration)) {
+                return;
+            }
+            ejections = times + 1;
+            consecutiveFailures.set(0);
+            log.warn("Ejected channel to {} for {} ms", target, TimeUnit.NANOSECONDS.toMillis(duration));
+        }
+    }
+
+    /**
+     * 记录连接上进行中的调用数和调用结果
+     */
+    private static final class TrackingCall<ReqT, RespT>
+            extends ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT> {
+        private final Subchannel subchannel;
+
+        TrackingCall(Subchannel subchannel, ClientCall<ReqT, RespT> delegate) {
+            super(delegate);
+            this.subchannel = subchannel;
+        }
+
+        @Override
+        public void start(Listener<RespT> responseListener, Metadata headers) {
+            subchannel.outstanding.incrementAndGet();
+            try {
+                super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<RespT>(responseListener) {
+                    @Override
+                    public void onClose(Status status, Metadata trailers) {
+                        subchannel.onClose(status);
+                        super.onClose(status, trailers);
+                    }
+                }, headers);
+            } catch (RuntimeException | Error e) {
+                // 调用未能开始，之后不会回调onClose
+                subchannel.outstanding.decrementAndGet();
+                throw e;
+            }
+        }
+    }
+}
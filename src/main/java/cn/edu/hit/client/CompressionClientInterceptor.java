@@ -0,0 +1,39 @@
+package cn.edu.hit.client;
+
+import cn.edu.hit.common.MessageCompression;
+import cn.edu.hit.common.MethodMetrics;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall;
+import io.grpc.MethodDescriptor;
+
+/**
+ * 按方法设置压缩请求消息，序列化后小于最小字节数的消息不压缩
+ * 服务端必须支持所选编码，否则调用返回UNIMPLEMENTED
+ */
+final class CompressionClientInterceptor implements ClientInterceptor {
+    private final MessageCompression compression;
+
+    CompressionClientInterceptor(MessageCompression compression) {
+        this.compression = compression;
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(
+            MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
+        MessageCompression.Setting setting = compression.getSetting(method.getFullMethodName());
+        if (setting == null) {
+            return next.newCall(method, callOptions);
+        }
+        ClientCall<ReqT, RespT> call = next.newCall(method, callOptions.withCompression(setting.getEncoding()));
+        return new ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT>(call) {
+            @Override
+            public void sendMessage(ReqT message) {
+                super.setMessageCompression(setting.shouldCompress(MethodMetrics.sizeOf(message)));
+                super.sendMessage(message);
+            }
+        };
+    }
+}
@@ -0,0 +1,57 @@
+package cn.edu.hit.client;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.MethodDescriptor;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 为没有指定deadline的调用设置默认deadline，可按方法设置，未单独设置的方法使用全局默认值
+ * deadline随请求头发送给服务端，服务端在处理器的Context中可见，处理器继续发起的调用自动继承剩余时间
+ */
+final class DeadlineInterceptor implements ClientInterceptor {
+    // 完整方法名 -> 超时纳秒数
+    private final Map<String, Long> methodTimeouts = new ConcurrentHashMap<>();
+    private volatile long defaultTimeoutNanos;
+
+    /**
+     * timeout小于等于0表示不设置
+     */
+    void setDefaultTimeout(long timeout, TimeUnit unit) {
+        defaultTimeoutNanos = Math.max(unit.toNanos(timeout), 0);
+    }
+
+    /**
+     * timeout小于等于0表示该方法不设置deadline，即使设置了全局默认值
+     */
+    void setTimeout(String fullMethodName, long timeout, TimeUnit unit) {
+        methodTimeouts.put(fullMethodName, Math.max(unit.toNanos(timeout), 0));
+    }
+
+    void clearTimeout(String fullMethodName) {
+        methodTimeouts.remove(fullMethodName);
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(
+            MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
+        if (callOptions.getDeadline() == null) {
+            long timeoutNanos = defaultTimeoutNanos;
+            if (!methodTimeouts.isEmpty()) {
+                Long methodTimeout = methodTimeouts.get(method.getFullMethodName());
+                if (methodTimeout != null) {
+                    timeoutNanos = methodTimeout;
+                }
+            }
+            if (timeoutNanos > 0) {
+                callOptions = callOptions.withDeadlineAfter(timeoutNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        return next.newCall(method, callOptions);
+    }
+}
@@ -1,108 +1,476 @@
 package cn.edu.hit.client;
 
+import cn.edu.hit.common.AsyncLogger;
+import cn.edu.hit.common.JsonTranscoder;
+import cn.edu.hit.common.MessageCompression;
 import cn.edu.hit.common.MethodDescriptorHelper;
+import cn.edu.hit.common.NettyTransport;
 import cn.edu.hit.common.ProtoFileManager;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import cn.edu.hit.common.RpcMetrics;
+import cn.edu.hit.common.StreamPump;
 import com.google.protobuf.Descriptors;
 import com.google.protobuf.DynamicMessage;
 import com.google.protobuf.util.JsonFormat;
+import com.google.protobuf.InvalidProtocolBufferException;
 import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientInterceptors;
+import io.grpc.ClientCall;
 import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
 import io.grpc.MethodDescriptor;
+import io.grpc.stub.ClientCallStreamObserver;
 import io.grpc.stub.ClientCalls;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
 
+import java.io.IOException;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * 动态gRPC客户端，支持运行时调用任意gRPC服务
  */
 public class DynamicGrpcClient {
+    private static final AsyncLogger log = AsyncLogger.getLogger(DynamicGrpcClient.class);
+
     private final ManagedChannel channel;
+    // 经过统计、默认deadline和压缩拦截器的channel，所有调用都通过它发出
+    private final Channel callChannel;
+    private final RpcMetrics metrics;
+    private final DeadlineInterceptor deadlines = new DeadlineInterceptor();
+    private final MessageCompression compression = new MessageCompression();
+    // 由本客户端创建、shutdown时关闭的传输层，使用外部channel或transport时为null
+    private final NettyTransport ownedTransport;
     private final ProtoFileManager protoManager;
-    private final ObjectMapper objectMapper;
+    private final CallPlanCache callPlanCache;
     private final JsonFormat.Parser jsonParser;
     private final JsonFormat.Printer jsonPrinter;
+    private volatile boolean jsonTranscoding = true;
+    // 完整方法名 -> 调用合并器
+    private final ConcurrentHashMap<String, UnaryBatcher> batchers = new ConcurrentHashMap<>();
+    // 允许相同请求共享一次RPC的完整方法名，只包含显式指定的只读方法
+    private final Set<String> coalescedMethods = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService batchScheduler;
+    // 完整方法名 -> 响应缓存
+    private final ConcurrentHashMap<String, ResponseCache> caches = new ConcurrentHashMap<>();
 
     public DynamicGrpcClient(String host, int port) {
-        this.channel = ManagedChannelBuilder.forAddress(host, port)
-                .usePlaintext()
-                .build();
+        this(host, port, new NettyTransport(), true);
+    }
+
+    /**
+     * 使用指定的传输层配置连接服务端，transport由调用方关闭
+     */
+    public DynamicGrpcClient(String host, int port, NettyTransport transport) {
+        this(host, port, transport, false);
+    }
+
+    private DynamicGrpcClient(String host, int port, NettyTransport transport, boolean ownsTransport) {
+        this(transport.newChannelBuilder(host + ":" + port).build(), ownsTransport ? transport : null);
+    }
+
+    /**
+     * 连接一组服务端，每个地址建立channelsPerTarget个连接，调用按policy分散到各连接
+     *
+     * @param targets 服务端地址列表，格式为host:port
+     */
+    public DynamicGrpcClient(List<String> targets, int channelsPerTarget, ChannelPool.Policy policy) {
+        this(targets, channelsPerTarget, policy, new NettyTransport(), true);
+    }
+
+    /**
+     * 连接一组服务端，使用指定的传输层配置，transport由调用方关闭
+     */
+    public DynamicGrpcClient(List<String> targets, int channelsPerTarget, ChannelPool.Policy policy,
+                             NettyTransport transport) {
+        this(targets, channelsPerTarget, policy, transport, false);
+    }
+
+    private DynamicGrpcClient(List<String> targets, int channelsPerTarget, ChannelPool.Policy policy,
+                              NettyTransport transport, boolean ownsTransport) {
+        this(new ChannelPool(targets, channelsPerTarget, policy, target -> transport.newChannelBuilder(target).build()),
+                ownsTransport ? transport : null);
+    }
+
+    /**
+     * 使用已创建的channel（如ChannelPool），shutdown时一并关闭
+     * 使用deflate压缩时channel需要注册MessageCompression.compressorRegistry()，否则调用失败（INTERNAL）
+     */
+    public DynamicGrpcClient(ManagedChannel channel) {
+        this(channel, null);
+    }
+
+    private DynamicGrpcClient(ManagedChannel channel, NettyTransport ownedTransport) {
+        this.channel = channel;
+        this.metrics = new RpcMetrics("client-" + channel.authority());
+        // 统计拦截器在内层，记录的延迟和状态码包含默认deadline的效果
+        this.callChannel = ClientInterceptors.intercept(channel, new CompressionClientInterceptor(compression),
+                new MetricsClientInterceptor(metrics), deadlines);
+        this.ownedTransport = ownedTransport;
 
         this.protoManager = new ProtoFileManager();
-        this.objectMapper = new ObjectMapper();
+        this.callPlanCache = new CallPlanCache(protoManager);
         this.jsonParser = JsonFormat.parser().ignoringUnknownFields();
         this.jsonPrinter = JsonFormat.printer();
     }
 
     /**
-     * 加载proto文件
+     * 加载proto文件，目录不存在时使用构建时预编译的描述符集
      */
     public void loadProtoFiles(String protoDir) throws Exception {
-        protoManager.loadProtoFiles(protoDir);
+        protoManager.loadProtoFiles(protoDir, ProtoFileManager.PRECOMPILED_DESCRIPTOR_SET);
     }
 
     /**
-     * 调用gRPC方法（使用JSON格式的请求和响应）
+     * 监听proto目录，文件修改后自动重新加载
      */
-    public String callMethod(String serviceName, String methodName, String requestJson)
-            throws Exception {
+    public void watchProtoFiles() throws IOException {
+        if (!protoManager.isLoadedFromDirectory()) {
+            System.out.println("Proto files loaded from precompiled descriptors, hot reload disabled");
+            return;
+        }
+        protoManager.startWatching();
+    }
+
+    /**
+     * 是否使用JsonTranscoder在JSON和protobuf二进制数据之间直接转换（默认开启）
+     * 关闭后或消息中含有well-known类型时，经由DynamicMessage和JsonFormat转换
+     */
+    public void setJsonTranscoding(boolean jsonTranscoding) {
+        this.jsonTranscoding = jsonTranscoding;
+    }
+
+    /**
+     * 开启一元方法的调用合并：window时间内的并发调用合并为一批，达到maxBatchSize时立即发出，
+     * 一批中的调用同时发出各自的RPC；只有enableCoalescing指定的方法中请求相同的并发调用共享一次RPC
+     */
+    public void enableBatching(String serviceName, String methodName,
+                               long window, TimeUnit unit, int maxBatchSize) {
+        enableBatching(serviceName, methodName, null, window, unit, maxBatchSize);
+    }
 
-        System.out.println("Debug: Calling service=" + serviceName + ", method=" + methodName);
+    /**
+     * 开启一元方法的调用合并，一批调用通过同一服务中的双向流方法streamMethodName发送
+     * 双向流方法的请求和响应类型必须与一元方法相同，且按请求顺序逐条返回响应（如GetUser与GetUserStream）
+     * streamMethodName为null时与不指定相同
+     * 只有使用默认CallOptions的调用会被合并，指定了超时时间或执行器的调用直接发出
+     */
+    public void enableBatching(String serviceName, String methodName, String streamMethodName,
+                               long window, TimeUnit unit, int maxBatchSize) {
+        CallPlan plan = streamingPlan(serviceName, methodName, MethodDescriptor.MethodType.UNARY);
+        MethodDescriptor<byte[], byte[]> streamMethod = null;
+        if (streamMethodName != null) {
+            CallPlan streamPlan = streamingPlan(serviceName, streamMethodName, MethodDescriptor.MethodType.BIDI_STREAMING);
+            if (!streamPlan.getInputType().getFullName().equals(plan.getInputType().getFullName())
+                    || !streamPlan.getOutputType().getFullName().equals(plan.getOutputType().getFullName())) {
+                throw new IllegalArgumentException("Method " + streamPlan.getFullMethodName()
+                        + " does not have the same message types as " + plan.getFullMethodName());
+            }
+            streamMethod = streamPlan.getRawMethodDescriptor();
+        }
+        batchers.put(plan.getFullMethodName(), new UnaryBatcher(callChannel, plan.getRawMethodDescriptor(),
+                streamMethod, window, unit, maxBatchSize, batchScheduler()));
+    }
 
-        // 获取服务描述符
-        Descriptors.ServiceDescriptor serviceDescriptor = protoManager.getServiceDescriptor(serviceName);
-        if (serviceDescriptor == null) {
-            throw new IllegalArgumentException("Service not found: " + serviceName);
+    /**
+     * 关闭一元方法的调用合并，已进入批次的调用仍会发出
+     */
+    public void disableBatching(String serviceName, String methodName) {
+        batchers.remove(MethodDescriptorHelper.generateFullMethodName(serviceName, methodName));
+    }
+
+    /**
+     * 允许开启了调用合并的一元方法中请求相同的并发调用共享一次RPC（single-flight）
+     * 只应对无副作用的读方法开启（如GetUser），CreateUser等方法的相同请求必须各自发出
+     */
+    public void enableCoalescing(String serviceName, String methodName) {
+        CallPlan plan = streamingPlan(serviceName, methodName, MethodDescriptor.MethodType.UNARY);
+        coalescedMethods.add(plan.getFullMethodName());
+    }
+
+    /**
+     * 取消方法的相同请求共享，进行中的共享RPC不受影响
+     */
+    public void disableCoalescing(String serviceName, String methodName) {
+        coalescedMethods.remove(MethodDescriptorHelper.generateFullMethodName(serviceName, methodName));
+    }
+
+    private synchronized ScheduledExecutorService batchScheduler() {
+        if (batchScheduler == null) {
+            batchScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "grpc-call-batcher");
+                thread.setDaemon(true);
+                return thread;
+            });
         }
-        System.out.println("Debug: Found service descriptor: " + serviceDescriptor.getFullName());
+        return batchScheduler;
+    }
 
-        // 获取方法描述符
-        Descriptors.MethodDescriptor methodDescriptor = serviceDescriptor.findMethodByName(methodName);
-        if (methodDescriptor == null) {
-            throw new IllegalArgumentException(
-                    "Method not found: " + methodName + " in service: " + serviceName);
+    /**
+     * 获取方法的调用合并器，未开启合并或使用了自定义CallOptions时返回null
+     */
+    private UnaryBatcher batcherFor(CallPlan plan, CallOptions callOptions) {
+        if (callOptions != CallOptions.DEFAULT || batchers.isEmpty()) {
+            return null;
+        }
+        return batchers.get(plan.getFullMethodName());
+    }
+
+    /**
+     * 开启一元方法的响应缓存：以序列化后的请求为键，保存ttl时间，缓存的响应总字节数不超过maxBytes
+     * 只应对无副作用的读方法开启
+     */
+    public void enableCaching(String serviceName, String methodName, long ttl, TimeUnit unit, long maxBytes) {
+        CallPlan plan = streamingPlan(serviceName, methodName, MethodDescriptor.MethodType.UNARY);
+        caches.put(plan.getFullMethodName(), new ResponseCache(ttl, unit, maxBytes));
+    }
+
+    /**
+     * 关闭一元方法的响应缓存
+     */
+    public void disableCaching(String serviceName, String methodName) {
+        caches.remove(MethodDescriptorHelper.generateFullMethodName(serviceName, methodName));
+    }
+
+    /**
+     * 获取方法的响应缓存（用于查看命中、未命中和淘汰计数），未开启时返回null
+     */
+    public ResponseCache getResponseCache(String serviceName, String methodName) {
+        return caches.get(MethodDescriptorHelper.generateFullMethodName(serviceName, methodName));
+    }
+
+    /**
+     * 压缩方法的请求消息，序列化后小于minBytes的消息不压缩
+     * 服务端需要支持所选编码（gzip或deflate，使用NettyTransport创建的服务端都支持）；
+     * deflate还需要客户端的channel注册了MessageCompression的压缩器，
+     * 由host/port、NettyTransport或ChannelPool默认配置创建的channel都已注册，自行创建的channel见构造方法说明
+     *
+     * @param encoding MessageCompression.GZIP或MessageCompression.DEFLATE
+     */
+    public void enableCompression(String serviceName, String methodName, String encoding, int minBytes) {
+        compression.setCompression(MethodDescriptorHelper.generateFullMethodName(serviceName, methodName),
+                encoding, minBytes);
+    }
+
+    /**
+     * 取消方法的压缩设置，之后使用默认设置
+     */
+    public void disableCompression(String serviceName, String methodName) {
+        compression.clearCompression(MethodDescriptorHelper.generateFullMethodName(serviceName, methodName));
+    }
+
+    /**
+     * 未单独设置的方法使用的请求压缩编码，encoding为null时不压缩
+     */
+    public void setDefaultCompression(String encoding, int minBytes) {
+        compression.setDefaultCompression(encoding, minBytes);
+    }
+
+    /**
+     * 没有指定deadline的调用默认在timeout后超时（包括阻塞调用和流式调用），timeout小于等于0表示不设置
+     */
+    public void setDefaultDeadline(long timeout, TimeUnit unit) {
+        deadlines.setDefaultTimeout(timeout, unit);
+    }
+
+    /**
+     * 设置方法的默认deadline，优先于全局默认值；timeout小于等于0表示该方法不设置deadline
+     */
+    public void setDefaultDeadline(String serviceName, String methodName, long timeout, TimeUnit unit) {
+        deadlines.setTimeout(MethodDescriptorHelper.generateFullMethodName(serviceName, methodName), timeout, unit);
+    }
+
+    /**
+     * 取消方法的默认deadline设置，之后使用全局默认值
+     */
+    public void clearDefaultDeadline(String serviceName, String methodName) {
+        deadlines.clearTimeout(MethodDescriptorHelper.generateFullMethodName(serviceName, methodName));
+    }
+
+    /**
+     * 各方法的RPC调用统计（缓存命中的调用不发起RPC，不计入），registerMBeans后可通过JMX查看
+     */
+    public RpcMetrics getMetrics() {
+        return metrics;
+    }
+
+    private ResponseCache cacheFor(CallPlan plan) {
+        return caches.isEmpty() ? null : caches.get(plan.getFullMethodName());
+    }
+
+    /**
+     * 方法开启了响应缓存或调用合并时，以序列化字节发起调用
+     */
+    private boolean callsAsBytes(CallPlan plan, CallOptions callOptions) {
+        return cacheFor(plan) != null || batcherFor(plan, callOptions) != null;
+    }
+
+    /**
+     * 以序列化字节发起阻塞一元调用，依次经过响应缓存和调用合并
+     */
+    private ResponseCache.Response blockingBytesCall(CallPlan plan, byte[] request) throws Exception {
+        ResponseCache cache = cacheFor(plan);
+        if (cache != null) {
+            ResponseCache.Response cached = cache.get(request);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        UnaryBatcher batcher = batcherFor(plan, CallOptions.DEFAULT);
+        ResponseCache.Response response = new ResponseCache.Response(batcher != null
+                ? awaitBatched(batcher.call(request, coalescedMethods.contains(plan.getFullMethodName())))
+                : ClientCalls.blockingUnaryCall(callChannel, plan.getRawMethodDescriptor(), CallOptions.DEFAULT, request));
+        if (cache != null) {
+            cache.put(request, response);
+        }
+        return response;
+    }
+
+    /**
+     * 以序列化字节发起异步一元调用，依次经过响应缓存和调用合并
+     */
+    private CompletableFuture<ResponseCache.Response> asyncBytesCall(CallPlan plan, byte[] request,
+                                                                    CallOptions callOptions) {
+        ResponseCache cache = cacheFor(plan);
+        if (cache != null) {
+            ResponseCache.Response cached = cache.get(request);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+
+        UnaryBatcher batcher = batcherFor(plan, callOptions);
+        CompletableFuture<byte[]> future = batcher != null ? batcher.call(request, coalescedMethods.contains(plan.getFullMethodName()))
+                : asyncUnaryCall(plan.getRawMethodDescriptor(), request, callOptions, new CompletableFuture<byte[]>());
+        // 写入缓存后再通知调用方，调用方随后的相同请求一定命中
+        return thenApplyCancellable(future, bytes -> {
+            ResponseCache.Response response = new ResponseCache.Response(bytes);
+            if (cache != null) {
+                cache.put(request, response);
+            }
+            return response;
+        });
+    }
+
+    /**
+     * 与thenApply相同，但调用方取消返回的future时同时取消inner，使取消传递到底层RPC
+     * fn抛出的CompletionException按其原因使返回的future失败
+     */
+    private static <T, R> CompletableFuture<R> thenApplyCancellable(
+            CompletableFuture<T> inner, Function<? super T, ? extends R> fn) {
+        CompletableFuture<R> result = new CompletableFuture<>();
+        inner.whenComplete((value, error) -> {
+            if (error != null) {
+                result.completeExceptionally(unwrap(error));
+                return;
+            }
+            try {
+                result.complete(fn.apply(value));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(unwrap(e));
+            }
+        });
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                inner.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * 等待合并调用完成，返回响应字节，RPC失败时抛出原始异常，等待被中断时取消调用
+     */
+    private static byte[] awaitBatched(CompletableFuture<byte[]> future) throws Exception {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
         }
-        System.out.println("Debug: Found method descriptor: " + methodDescriptor.getFullName());
+    }
 
-        // 创建gRPC方法描述符
-        MethodDescriptor<DynamicMessage, DynamicMessage> grpcMethodDescriptor =
-                MethodDescriptorHelper.createMethodDescriptor(serviceDescriptor, methodDescriptor);
-        System.out.println("Debug: Created gRPC method descriptor: " + grpcMethodDescriptor.getFullMethodName());
+    /**
+     * 缓存命中时返回缓存中已解析的消息，不再解析
+     */
+    private static DynamicMessage parseResponse(CallPlan plan, ResponseCache.Response response) {
+        try {
+            return response.message(plan.getOutputType());
+        } catch (InvalidProtocolBufferException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * 调用gRPC方法（使用JSON格式的请求和响应）
+     */
+    public String callMethod(String serviceName, String methodName, String requestJson)
+            throws Exception {
+
+        log.debug("Calling service={}, method={}", serviceName, methodName);
+
+        // 获取调用计划（包含服务、方法及gRPC方法描述符）
+        CallPlan plan = callPlanCache.get(serviceName, methodName);
 
-        // 构建请求消息
         try {
-            DynamicMessage.Builder requestBuilder =
-                    DynamicMessage.newBuilder(methodDescriptor.getInputType());
+            if (useTranscoder(plan)) {
+                byte[] request = plan.getRequestTranscoder().toProto(requestJson);
+                // 字节数需要装箱，先判断级别
+                if (log.isDebugEnabled()) {
+                    log.debug("Transcoded request: {} bytes, channel state: {}", request.length, channel.getState(false));
+                }
+                byte[] response = blockingBytesCall(plan, request).bytes();
+                if (log.isDebugEnabled()) {
+                    log.debug("Received response: {} bytes", response.length);
+                }
 
-            System.out.println("Debug: Parsing JSON: " + requestJson);
+                return plan.getResponseTranscoder().toJson(response);
+            }
+
+            DynamicMessage.Builder requestBuilder = plan.newRequestBuilder();
             jsonParser.merge(requestJson, requestBuilder);
             DynamicMessage request = requestBuilder.build();
-            System.out.println("Debug: Built request message: " + request);
-
-            // 检查channel状态
-            if (channel == null) {
-                throw new IllegalStateException("Channel is null");
+            // 消息的toString在日志线程中执行，debug未开启时不会执行
+            if (log.isDebugEnabled()) {
+                log.debug("Built request message: {}, channel state: {}", request, channel.getState(false));
             }
-            System.out.println("Debug: Channel state: " + channel.getState(false));
 
-            // 发起调用 - 使用CallOptions.DEFAULT而不是null
-            System.out.println("Debug: Making gRPC call...");
-            DynamicMessage response = ClientCalls.blockingUnaryCall(
-                    channel, grpcMethodDescriptor, CallOptions.DEFAULT, request);
+            DynamicMessage response = callsAsBytes(plan, CallOptions.DEFAULT)
+                    ? parseResponse(plan, blockingBytesCall(plan, request.toByteArray()))
+                    : ClientCalls.blockingUnaryCall(callChannel, plan.getGrpcMethodDescriptor(), CallOptions.DEFAULT, request);
 
             if (response == null) {
                 throw new IllegalStateException("Received null response");
             }
-            System.out.println("Debug: Received response: " + response);
+            log.debug("Received response: {}", response);
 
             // 转换响应为JSON
             return jsonPrinter.print(response);
 
         } catch (Exception e) {
-            System.err.println("Debug: Exception during request processing: " + e.getMessage());
-            e.printStackTrace();
+            log.debug("Call to {}.{} failed", serviceName, methodName, e);
             throw e;
         }
     }
@@ -113,24 +481,285 @@ public class DynamicGrpcClient {
     public DynamicMessage callMethod(String serviceName, String methodName, DynamicMessage request)
             throws Exception {
 
-        Descriptors.ServiceDescriptor serviceDescriptor =
-                protoManager.getServiceDescriptor(serviceName);
-        if (serviceDescriptor == null) {
-            throw new IllegalArgumentException("Service not found: " + serviceName);
+        CallPlan plan = callPlanCache.get(serviceName, methodName);
+        if (callsAsBytes(plan, CallOptions.DEFAULT)) {
+            return parseResponse(plan, blockingBytesCall(plan, request.toByteArray()));
+        }
+
+        // 使用CallOptions.DEFAULT而不是null
+        return ClientCalls.blockingUnaryCall(
+                callChannel, plan.getGrpcMethodDescriptor(), CallOptions.DEFAULT, request);
+    }
+
+    /**
+     * 异步调用gRPC方法（使用DynamicMessage），不占用调用线程
+     */
+    public CompletableFuture<DynamicMessage> callMethodAsync(
+            String serviceName, String methodName, DynamicMessage request) {
+        return callMethodAsync(serviceName, methodName, request, CallOptions.DEFAULT);
+    }
+
+    /**
+     * 异步调用gRPC方法，指定调用超时时间和回调执行器
+     * timeout小于等于0表示不设置deadline，executor为null时使用channel默认执行器
+     */
+    public CompletableFuture<DynamicMessage> callMethodAsync(
+            String serviceName, String methodName, DynamicMessage request,
+            long timeout, TimeUnit unit, Executor executor) {
+        return callMethodAsync(serviceName, methodName, request, callOptions(timeout, unit, executor));
+    }
+
+    /**
+     * 异步调用gRPC方法，使用自定义的CallOptions
+     */
+    public CompletableFuture<DynamicMessage> callMethodAsync(
+            String serviceName, String methodName, DynamicMessage request, CallOptions callOptions) {
+        CompletableFuture<DynamicMessage> future = new CompletableFuture<>();
+        CallPlan plan;
+        try {
+            plan = callPlanCache.get(serviceName, methodName);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        if (callsAsBytes(plan, callOptions)) {
+            return thenApplyCancellable(asyncBytesCall(plan, request.toByteArray(), callOptions),
+                    response -> parseResponse(plan, response));
+        }
+        return asyncUnaryCall(plan.getGrpcMethodDescriptor(), request, callOptions, future);
+    }
+
+    /**
+     * 异步调用gRPC方法（使用JSON格式的请求和响应）
+     */
+    public CompletableFuture<String> callMethodAsync(
+            String serviceName, String methodName, String requestJson) {
+        return callMethodAsync(serviceName, methodName, requestJson, CallOptions.DEFAULT);
+    }
+
+    /**
+     * 异步调用gRPC方法（JSON），指定调用超时时间和回调执行器
+     */
+    public CompletableFuture<String> callMethodAsync(
+            String serviceName, String methodName, String requestJson,
+            long timeout, TimeUnit unit, Executor executor) {
+        return callMethodAsync(serviceName, methodName, requestJson, callOptions(timeout, unit, executor));
+    }
+
+    /**
+     * 异步调用gRPC方法（JSON），使用自定义的CallOptions
+     * 请求JSON在调用线程中解析，响应JSON在回调执行器中生成
+     */
+    public CompletableFuture<String> callMethodAsync(
+            String serviceName, String methodName, String requestJson, CallOptions callOptions) {
+        DynamicMessage request;
+        try {
+            CallPlan plan = callPlanCache.get(serviceName, methodName);
+            if (useTranscoder(plan)) {
+                byte[] requestBytes = plan.getRequestTranscoder().toProto(requestJson);
+                JsonTranscoder responseTranscoder = plan.getResponseTranscoder();
+                return thenApplyCancellable(asyncBytesCall(plan, requestBytes, callOptions), response -> {
+                    try {
+                        return responseTranscoder.toJson(response.bytes());
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                });
+            }
+
+            DynamicMessage.Builder requestBuilder = plan.newRequestBuilder();
+            jsonParser.merge(requestJson, requestBuilder);
+            request = requestBuilder.build();
+        } catch (IOException | RuntimeException e) {
+            CompletableFuture<String> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+
+        return thenApplyCancellable(callMethodAsync(serviceName, methodName, request, callOptions), response -> {
+            try {
+                return jsonPrinter.print(response);
+            } catch (InvalidProtocolBufferException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    private boolean useTranscoder(CallPlan plan) {
+        return jsonTranscoding && plan.isJsonTranscodable();
+    }
+
+    /**
+     * 发起异步一元调用，结果写入future；调用方取消future时同时取消底层RPC
+     */
+    private <ReqT, RespT> CompletableFuture<RespT> asyncUnaryCall(
+            MethodDescriptor<ReqT, RespT> method, ReqT request, CallOptions callOptions,
+            CompletableFuture<RespT> future) {
+        ClientCall<ReqT, RespT> call = callChannel.newCall(method, callOptions);
+        ClientCalls.asyncUnaryCall(call, request, new FutureObserver<>(future));
+
+        future.whenComplete((response, error) -> {
+            if (future.isCancelled()) {
+                call.cancel("Cancelled by caller", null);
+            }
+        });
+        return future;
+    }
+
+    private static CallOptions callOptions(long timeout, TimeUnit unit, Executor executor) {
+        CallOptions callOptions = CallOptions.DEFAULT;
+        if (timeout > 0) {
+            callOptions = callOptions.withDeadlineAfter(timeout, unit);
+        }
+        if (executor != null) {
+            callOptions = callOptions.withExecutor(executor);
+        }
+        return callOptions;
+    }
+
+    /**
+     * 将一元调用的响应转发到CompletableFuture
+     */
+    private static class FutureObserver<T> implements StreamObserver<T> {
+        private final CompletableFuture<T> future;
+        private T response;
+
+        FutureObserver(CompletableFuture<T> future) {
+            this.future = future;
+        }
+
+        @Override
+        public void onNext(T value) {
+            response = value;
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            future.completeExceptionally(t);
         }
 
-        Descriptors.MethodDescriptor methodDescriptor =
-                serviceDescriptor.findMethodByName(methodName);
-        if (methodDescriptor == null) {
+        @Override
+        public void onCompleted() {
+            if (response == null) {
+                future.completeExceptionally(new IllegalStateException("Received null response"));
+            } else {
+                future.complete(response);
+            }
+        }
+    }
+
+    /**
+     * 服务端流调用，响应消息通过responseObserver异步返回
+     */
+    public void callServerStreaming(String serviceName, String methodName, DynamicMessage request,
+                                    StreamObserver<DynamicMessage> responseObserver) {
+        CallPlan plan = streamingPlan(serviceName, methodName, MethodDescriptor.MethodType.SERVER_STREAMING);
+        ClientCalls.asyncServerStreamingCall(
+                callChannel.newCall(plan.getGrpcMethodDescriptor(), CallOptions.DEFAULT), request, responseObserver);
+    }
+
+    /**
+     * 服务端流调用（阻塞迭代器）
+     * 每次调用next时才向服务端请求下一条消息，消费速度即为接收速度
+     */
+    public Iterator<DynamicMessage> callServerStreaming(String serviceName, String methodName,
+                                                        DynamicMessage request) {
+        CallPlan plan = streamingPlan(serviceName, methodName, MethodDescriptor.MethodType.SERVER_STREAMING);
+        return ClientCalls.blockingServerStreamingCall(
+                callChannel, plan.getGrpcMethodDescriptor(), CallOptions.DEFAULT, request);
+    }
+
+    /**
+     * 客户端流调用，返回用于发送请求消息的StreamObserver
+     */
+    public StreamObserver<DynamicMessage> callClientStreaming(String serviceName, String methodName,
+                                                              StreamObserver<DynamicMessage> responseObserver) {
+        CallPlan plan = streamingPlan(serviceName, methodName, MethodDescriptor.MethodType.CLIENT_STREAMING);
+        return ClientCalls.asyncClientStreamingCall(
+                callChannel.newCall(plan.getGrpcMethodDescriptor(), CallOptions.DEFAULT), responseObserver);
+    }
+
+    /**
+     * 客户端流调用，按流控从requests中发送请求消息，发送完毕后自动结束请求流
+     */
+    public void callClientStreaming(String serviceName, String methodName, Iterator<DynamicMessage> requests,
+                                    StreamObserver<DynamicMessage> responseObserver) {
+        CallPlan plan = streamingPlan(serviceName, methodName, MethodDescriptor.MethodType.CLIENT_STREAMING);
+        ClientCalls.asyncClientStreamingCall(
+                callChannel.newCall(plan.getGrpcMethodDescriptor(), CallOptions.DEFAULT),
+                new PumpingResponseObserver(requests, responseObserver));
+    }
+
+    /**
+     * 双向流调用，返回用于发送请求消息的StreamObserver
+     */
+    public StreamObserver<DynamicMessage> callBidiStreaming(String serviceName, String methodName,
+                                                            StreamObserver<DynamicMessage> responseObserver) {
+        CallPlan plan = streamingPlan(serviceName, methodName, MethodDescriptor.MethodType.BIDI_STREAMING);
+        return ClientCalls.asyncBidiStreamingCall(
+                callChannel.newCall(plan.getGrpcMethodDescriptor(), CallOptions.DEFAULT), responseObserver);
+    }
+
+    /**
+     * 双向流调用，按流控从requests中发送请求消息，发送完毕后自动结束请求流
+     */
+    public void callBidiStreaming(String serviceName, String methodName, Iterator<DynamicMessage> requests,
+                                  StreamObserver<DynamicMessage> responseObserver) {
+        CallPlan plan = streamingPlan(serviceName, methodName, MethodDescriptor.MethodType.BIDI_STREAMING);
+        ClientCalls.asyncBidiStreamingCall(
+                callChannel.newCall(plan.getGrpcMethodDescriptor(), CallOptions.DEFAULT),
+                new PumpingResponseObserver(requests, responseObserver));
+    }
+
+    /**
+     * 获取调用计划并校验方法类型
+     */
+    private CallPlan streamingPlan(String serviceName, String methodName, MethodDescriptor.MethodType expected) {
+        CallPlan plan = callPlanCache.get(serviceName, methodName);
+        MethodDescriptor.MethodType actual = plan.getGrpcMethodDescriptor().getType();
+        if (actual != expected) {
             throw new IllegalArgumentException(
-                    "Method not found: " + methodName + " in service: " + serviceName);
+                    "Method " + plan.getFullMethodName() + " is " + actual + ", not " + expected);
         }
+        return plan;
+    }
 
-        MethodDescriptor<DynamicMessage, DynamicMessage> grpcMethodDescriptor =
-                MethodDescriptorHelper.createMethodDescriptor(serviceDescriptor, methodDescriptor);
+    /**
+     * 在调用开始前挂接请求消息泵，其余回调转发给调用方的responseObserver
+     */
+    private static class PumpingResponseObserver
+            implements ClientResponseObserver<DynamicMessage, DynamicMessage> {
+        private final Iterator<DynamicMessage> requests;
+        private final StreamObserver<DynamicMessage> delegate;
+        private volatile StreamPump<DynamicMessage> pump;
 
-        // 使用CallOptions.DEFAULT而不是null
-        return ClientCalls.blockingUnaryCall(channel, grpcMethodDescriptor, CallOptions.DEFAULT, request);
+        PumpingResponseObserver(Iterator<DynamicMessage> requests, StreamObserver<DynamicMessage> delegate) {
+            this.requests = requests;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void beforeStart(ClientCallStreamObserver<DynamicMessage> requestStream) {
+            pump = StreamPump.attach(requestStream, requests);
+        }
+
+        @Override
+        public void onNext(DynamicMessage value) {
+            delegate.onNext(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            pump.cancel();
+            delegate.onError(t);
+        }
+
+        @Override
+        public void onCompleted() {
+            pump.cancel();
+            delegate.onCompleted();
+        }
     }
 
     /**
@@ -163,6 +792,19 @@ public class DynamicGrpcClient {
      * 关闭客户端
      */
     public void shutdown() throws InterruptedException {
+        try {
+            protoManager.stopWatching();
+        } catch (IOException e) {
+            System.err.println("Failed to stop watching proto files: " + e.getMessage());
+        }
+        synchronized (this) {
+            if (batchScheduler != null) {
+                batchScheduler.shutdown();
+            }
+        }
         channel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
+        if (ownedTransport != null) {
+            ownedTransport.close();
+        }
     }
 }
\ No newline at end of file
@@ -1,37 +1,153 @@
 package cn.edu.hit.client;
 
+import cn.edu.hit.server.DynamicGrpcServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
 /**
  * gRPC客户端管理器，提供交互式命令行界面
+ * 第一个参数为bench时不进入交互界面，按参数压测一个方法后退出
  */
 public class GrpcClientManager {
     private DynamicGrpcClient client;
     private Scanner scanner;
     
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("bench")) {
+            runBench(args);
+            return;
+        }
         GrpcClientManager manager = new GrpcClientManager();
         manager.start();
     }
+
+    /**
+     * 无交互的压测模式，参数见printBenchUsage
+     */
+    private static void runBench(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            String name = args[i].substring(2);
+            if (name.equals("local")) {
+                options.put(name, "true");
+            } else if (i + 1 < args.length) {
+                options.put(name, args[++i]);
+            } else {
+                throw new IllegalArgumentException("Missing value for --" + name);
+            }
+        }
+        String method = options.get("method");
+        if (method == null) {
+            printBenchUsage();
+            return;
+        }
+        int lastDotIndex = method.lastIndexOf('.');
+        if (lastDotIndex <= 0 || lastDotIndex == method.length() - 1) {
+            throw new IllegalArgumentException("Invalid method, expected <full.service.name>.<method>: " + method);
+        }
+
+        // --local时在本进程内启动服务端，不依赖外部服务
+        DynamicGrpcServer server = null;
+        String target = options.getOrDefault("target", "localhost:50051");
+        if (options.containsKey("local")) {
+            int port = freePort();
+            server = new DynamicGrpcServer(port);
+            server.start();
+            target = "localhost:" + port;
+        }
+
+        DynamicGrpcClient client = new DynamicGrpcClient(
+                ChannelPool.parseTargets(target), 2, ChannelPool.Policy.LEAST_OUTSTANDING);
+        try {
+            client.loadProtoFiles("src/main/resources/proto");
+            if (options.containsKey("deadline")) {
+                client.setDefaultDeadline(Long.parseLong(options.get("deadline")), TimeUnit.MILLISECONDS);
+            }
+            LoadGenerator generator = new LoadGenerator(client, method.substring(0, lastDotIndex),
+                    method.substring(lastDotIndex + 1), options.getOrDefault("data", "{}"));
+
+            long warmup = Long.parseLong(options.getOrDefault("warmup", "5"));
+            long duration = Long.parseLong(options.getOrDefault("duration", "30"));
+            if (warmup > 0) {
+                System.out.println("Warming up for " + warmup + " s...");
+                runLoad(generator, options, warmup);
+            }
+            System.out.println("Running for " + duration + " s...");
+            System.out.println(runLoad(generator, options, duration));
+        } finally {
+            client.shutdown();
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    /**
+     * 指定--qps时按开环方式压测，否则按--concurrency（默认16）闭环压测
+     */
+    private static LoadGenerator.Result runLoad(LoadGenerator generator, Map<String, String> options,
+                                                long seconds) throws InterruptedException {
+        if (options.containsKey("qps")) {
+            int maxInFlight = Integer.parseInt(options.getOrDefault("max-in-flight", "10000"));
+            return generator.runOpenLoop(Double.parseDouble(options.get("qps")), seconds, TimeUnit.SECONDS, maxInFlight);
+        }
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "16"));
+        return generator.runClosedLoop(concurrency, seconds, TimeUnit.SECONDS);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void printBenchUsage() {
+        System.out.println("Usage: bench --method <full.service.name>.<method> [options]");
+        System.out.println("  --target host:port[,host:port...] - Servers to call (default: localhost:50051)");
+        System.out.println("  --local                    - Start an in-process server instead of using --target");
+        System.out.println("  --data <json>              - Request template, ${seq} and ${rand:MIN-MAX} are substituted");
+        System.out.println("  --qps <n>                  - Open-loop at a fixed request rate");
+        System.out.println("  --max-in-flight <n>        - Open-loop limit on outstanding requests (default: 10000)");
+        System.out.println("  --concurrency <n>          - Closed-loop with n outstanding requests (default: 16)");
+        System.out.println("  --deadline <ms>            - Deadline for each request (default: none)");
+        System.out.println("  --duration <s>             - Measured run time in seconds (default: 30)");
+        System.out.println("  --warmup <s>               - Unmeasured warmup in seconds (default: 5)");
+        System.out.println("\nExample:");
+        System.out.println("  bench --local --method user.UserService.GetUser --data '{\"user_id\": ${rand:1-3}}' --qps 2000");
+    }
     
     public void start() {
         scanner = new Scanner(System.in);
         
         System.out.println("=== gRPC Dynamic Client ===");
-        System.out.print("Enter server host (default: localhost): ");
+        System.out.print("Enter server host, or host:port list separated by commas (default: localhost): ");
         String host = scanner.nextLine().trim();
         if (host.isEmpty()) {
             host = "localhost";
         }
         
-        System.out.print("Enter server port (default: 50051): ");
-        String portStr = scanner.nextLine().trim();
-        int port = portStr.isEmpty() ? 50051 : Integer.parseInt(portStr);
-        
-        client = new DynamicGrpcClient(host, port);
+        if (host.contains(":") || host.contains(",")) {
+            // 多个服务端时每个地址建立2个连接，按进行中调用数选择
+            client = new DynamicGrpcClient(ChannelPool.parseTargets(host), 2, ChannelPool.Policy.LEAST_OUTSTANDING);
+        } else {
+            System.out.print("Enter server port (default: 50051): ");
+            String portStr = scanner.nextLine().trim();
+            int port = portStr.isEmpty() ? 50051 : Integer.parseInt(portStr);
+            
+            client = new DynamicGrpcClient(host, port);
+        }
         
         // 加载proto文件
         loadProtoFiles();
+        client.getMetrics().registerMBeans();
         
         // 开始交互循环
         commandLoop();
@@ -81,7 +197,20 @@ public class GrpcClientManager {
                         }
                         handleCall(parts[1]);
                         break;
+
+                    case "bench":
+                        if (parts.length < 2) {
+                            System.out.println("Usage: bench <service>.<method>");
+                            break;
+                        }
+                        handleBench(parts[1]);
+                        break;
                         
+                    case "metrics":
+                        String report = client.getMetrics().toString();
+                        System.out.println(report.isEmpty() ? "No calls yet" : report);
+                        break;
+
                     case "quit":
                     case "exit":
                     case "q":
@@ -128,15 +257,59 @@ public class GrpcClientManager {
         System.out.println(response);
     }
 
+    private void handleBench(String methodPath) throws Exception {
+        int lastDotIndex = methodPath.lastIndexOf('.');
+        if (lastDotIndex == -1 || lastDotIndex == 0 || lastDotIndex == methodPath.length() - 1) {
+            System.out.println("Invalid format. Use: <full.service.name>.<method>");
+            System.out.println("Example: user.UserService.GetUser");
+            return;
+        }
+
+        String serviceName = methodPath.substring(0, lastDotIndex);
+        String methodName = methodPath.substring(lastDotIndex + 1);
+
+        System.out.println("Enter request template (${seq} and ${rand:MIN-MAX} are substituted, Enter for {}):");
+        System.out.print("request> ");
+        String template = scanner.nextLine().trim();
+        if (template.isEmpty()) {
+            template = "{}";
+        }
+        LoadGenerator generator = new LoadGenerator(client, serviceName, methodName, template);
+
+        System.out.print("Target QPS, or press Enter for fixed concurrency: ");
+        String qps = scanner.nextLine().trim();
+        String concurrency = "";
+        if (qps.isEmpty()) {
+            System.out.print("Concurrency (default: 16): ");
+            concurrency = scanner.nextLine().trim();
+        }
+        System.out.print("Duration in seconds (default: 10): ");
+        String duration = scanner.nextLine().trim();
+        long seconds = duration.isEmpty() ? 10 : Long.parseLong(duration);
+
+        System.out.println("Running for " + seconds + " s...");
+        LoadGenerator.Result result;
+        if (!qps.isEmpty()) {
+            result = generator.runOpenLoop(Double.parseDouble(qps), seconds, TimeUnit.SECONDS, 10000);
+        } else {
+            result = generator.runClosedLoop(concurrency.isEmpty() ? 16 : Integer.parseInt(concurrency),
+                    seconds, TimeUnit.SECONDS);
+        }
+        System.out.println(result);
+    }
+
     private void printHelp() {
         System.out.println("\nAvailable commands:");
         System.out.println("  help, h          - Show this help message");
         System.out.println("  list, ls         - List all available services and methods");
         System.out.println("  call <full.service.name>.<method> - Call a gRPC method");
+        System.out.println("  bench <full.service.name>.<method> - Load test a gRPC method");
+        System.out.println("  metrics          - Show per-method call statistics");
         System.out.println("  quit, exit, q    - Exit the client");
         System.out.println("\nExamples:");
         System.out.println("  call user.UserService.GetUser");
         System.out.println("  call user.UserService.CreateUser");
         System.out.println("  call order.OrderService.CreateOrder");
+        System.out.println("  bench user.UserService.GetUser");
     }
 } 
\ No newline at end of file
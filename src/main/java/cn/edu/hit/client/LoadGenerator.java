@@ -0,0 +1,344 @@
+package cn.edu.hit.client;
+
+import cn.edu.hit.common.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 压测一个方法：按目标QPS发起请求（开环）或保持固定的并发数（闭环），统计吞吐量和延迟分布
+ * 开环模式下每个请求的延迟从计划发出的时间算起，服务端变慢导致发出延后的时间也计入延迟，避免协调遗漏（coordinated omission）
+ * 成功和失败请求的延迟分别统计；开环模式下因进行中请求过多而未发出的请求计为失败，
+ * 延迟按从计划发出到压测结束计算（实际延迟的下限），过载时的慢样本不会从分布中消失
+ * 请求使用JSON模板，${seq}替换为请求序号，${rand:MIN-MAX}替换为[MIN, MAX]之间的随机整数
+ */
+public class LoadGenerator {
+    private final DynamicGrpcClient client;
+    private final String serviceName;
+    private final String methodName;
+    private final List<Object> template;
+
+    public LoadGenerator(DynamicGrpcClient client, String serviceName, String methodName, String requestTemplate) {
+        this.client = client;
+        this.serviceName = serviceName;
+        this.methodName = methodName;
+        this.template = parseTemplate(requestTemplate);
+    }
+
+    /**
+     * 开环压测：按qps匀速发出请求，不等待之前的请求完成
+     * 进行中的请求超过maxInFlight时不再发出新请求，计为丢弃，并以从计划发出到压测结束的时间计入失败延迟
+     */
+    public Result runOpenLoop(double qps, long duration, TimeUnit unit, int maxInFlight) throws InterruptedException {
+        if (qps <= 0 || maxInFlight <= 0) {
+            throw new IllegalArgumentException("Invalid qps: " + qps + ", max in flight: " + maxInFlight);
+        }
+        Run run = new Run();
+        double intervalNanos = TimeUnit.SECONDS.toNanos(1) / qps;
+        long durationNanos = unit.toNanos(duration);
+        long start = System.nanoTime();
+
+        for (long seq = 0; ; seq++) {
+            long intended = start + (long) (seq * intervalNanos);
+            if (intended - start >= durationNanos) {
+                break;
+            }
+            long delay = intended - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            if (run.inFlight.get() >= maxInFlight) {
+                run.drop(intended);
+                continue;
+            }
+            run.issue(seq, intended);
+        }
+        run.awaitInFlight();
+        long end = System.nanoTime();
+        run.recordDropped(end);
+        return run.result(end - start);
+    }
+
+    /**
+     * 闭环压测：concurrency个线程各自循环调用，每个请求完成后立即发出下一个
+     */
+    public Result runClosedLoop(int concurrency, long duration, TimeUnit unit) throws InterruptedException {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Invalid concurrency: " + concurrency);
+        }
+        Run run = new Run();
+        long start = System.nanoTime();
+        long deadline = start + unit.toNanos(duration);
+        Thread[] workers = new Thread[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            workers[i] = new Thread(() -> {
+                while (System.nanoTime() - deadline < 0) {
+                    run.call(run.sequence.getAndIncrement());
+                }
+            }, "bench-worker-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return run.result(System.nanoTime() - start);
+    }
+
+    /**
+     * 一次压测的状态
+     */
+    private final class Run {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram errorLatency = new LatencyHistogram();
+        final AtomicLong sequence = new AtomicLong();
+        final AtomicLong inFlight = new AtomicLong();
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        // 未发出请求的计划发出时间，只由开环的发送线程访问
+        long[] droppedStarts = new long[16];
+        int dropped;
+        final CountDownLatch drained = new CountDownLatch(1);
+        volatile boolean finished;
+        volatile Throwable firstError;
+
+        /**
+         * 异步发出请求，延迟从intendedStart算起
+         */
+        void issue(long seq, long intendedStart) {
+            inFlight.incrementAndGet();
+            send(seq).whenComplete((response, error) -> {
+                record(intendedStart, error);
+                if (inFlight.decrementAndGet() == 0 && finished) {
+                    drained.countDown();
+                }
+            });
+        }
+
+        /**
+         * 记录一个因进行中请求过多而未发出的请求
+         */
+        void drop(long intendedStart) {
+            if (dropped == droppedStarts.length) {
+                droppedStarts = Arrays.copyOf(droppedStarts, dropped * 2);
+            }
+            droppedStarts[dropped++] = intendedStart;
+        }
+
+        /**
+         * 未发出的请求按到end为止仍未完成计入失败延迟
+         */
+        void recordDropped(long end) {
+            for (int i = 0; i < dropped; i++) {
+                errorLatency.record(end - droppedStarts[i]);
+            }
+        }
+
+        /**
+         * 发出请求并等待完成
+         */
+        void call(long seq) {
+            long start = System.nanoTime();
+            Throwable error = null;
+            try {
+                send(seq).join();
+            } catch (CompletionException e) {
+                error = e.getCause();
+            } catch (RuntimeException e) {
+                error = e;
+            }
+            record(start, error);
+        }
+
+        private CompletableFuture<String> send(long seq) {
+            try {
+                return client.callMethodAsync(serviceName, methodName, render(seq));
+            } catch (RuntimeException e) {
+                CompletableFuture<String> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+        }
+
+        private void record(long start, Throwable error) {
+            long elapsed = System.nanoTime() - start;
+            if (error == null) {
+                latency.record(elapsed);
+                completed.incrementAndGet();
+                return;
+            }
+            errorLatency.record(elapsed);
+            if (errors.incrementAndGet() == 1) {
+                firstError = error;
+            }
+        }
+
+        void awaitInFlight() throws InterruptedException {
+            finished = true;
+            if (inFlight.get() == 0) {
+                drained.countDown();
+            }
+            drained.await();
+        }
+
+        Result result(long elapsedNanos) {
+            return new Result(completed.get(), errors.get(), dropped, elapsedNanos,
+                    latency.snapshot(), errorLatency.snapshot(), firstError);
+        }
+    }
+
+    private String render(long seq) {
+        StringBuilder request = new StringBuilder();
+        for (Object part : template) {
+            if (part instanceof String) {
+                request.append((String) part);
+            } else if (part == null) {
+                request.append(seq);
+            } else {
+                long[] range = (long[]) part;
+                request.append(ThreadLocalRandom.current().nextLong(range[0], range[1] + 1));
+            }
+        }
+        return request.toString();
+    }
+
+    /**
+     * 模板拆分为文本片段（String）、序号（null）和随机数范围（long[2]）
+     */
+    private static List<Object> parseTemplate(String template) {
+        List<Object> parts = new ArrayList<>();
+        int pos = 0;
+        while (true) {
+            int start = template.indexOf("${", pos);
+            if (start < 0) {
+                break;
+            }
+            int end = template.indexOf('}', start);
+            if (end < 0) {
+                break;
+            }
+            parts.add(template.substring(pos, start));
+            String name = template.substring(start + 2, end);
+            if (name.equals("seq")) {
+                parts.add(null);
+            } else if (name.startsWith("rand:")) {
+                String[] bounds = name.substring("rand:".length()).split("-");
+                if (bounds.length != 2) {
+                    throw new IllegalArgumentException("Invalid placeholder, expected ${rand:MIN-MAX}: " + name);
+                }
+                long min = Long.parseLong(bounds[0].trim());
+                long max = Long.parseLong(bounds[1].trim());
+                if (min > max) {
+                    throw new IllegalArgumentException("Invalid placeholder range: " + name);
+                }
+                parts.add(new long[]{min, max});
+            } else {
+                throw new IllegalArgumentException("Unknown placeholder: ${" + name + "}");
+            }
+            pos = end + 1;
+        }
+        parts.add(template.substring(pos));
+        return parts;
+    }
+
+    /**
+     * 压测结果，延迟单位为纳秒
+     */
+    public static final class Result {
+        private final long completed;
+        private final long errors;
+        private final long dropped;
+        private final long elapsedNanos;
+        private final LatencyHistogram.Snapshot latency;
+        private final LatencyHistogram.Snapshot errorLatency;
+        private final Throwable firstError;
+
+        Result(long completed, long errors, long dropped, long elapsedNanos,
+               LatencyHistogram.Snapshot latency, LatencyHistogram.Snapshot errorLatency, Throwable firstError) {
+            this.completed = completed;
+            this.errors = errors;
+            this.dropped = dropped;
+            this.elapsedNanos = elapsedNanos;
+            this.latency = latency;
+            this.errorLatency = errorLatency;
+            this.firstError = firstError;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getDropped() {
+            return dropped;
+        }
+
+        public double getThroughput() {
+            return completed * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * 成功请求的延迟
+         */
+        public LatencyHistogram.Snapshot getLatency() {
+            return latency;
+        }
+
+        /**
+         * 失败请求和未发出请求的延迟，未发出的请求按从计划发出到压测结束计算
+         */
+        public LatencyHistogram.Snapshot getErrorLatency() {
+            return errorLatency;
+        }
+
+        /**
+         * 第一个失败请求的异常，没有失败时为null
+         */
+        public Throwable getFirstError() {
+            return firstError;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("requests: %d ok, %d errors, %d dropped in %.1f s%n",
+                    completed, errors, dropped, elapsedNanos / 1e9));
+            sb.append(String.format("throughput: %.1f req/s%n", getThroughput()));
+            appendLatency(sb, "latency", latency);
+            if (errorLatency.getCount() > 0) {
+                sb.append(String.format("%n"));
+                appendLatency(sb, dropped > 0 ? "error latency incl. dropped" : "error latency", errorLatency);
+            }
+            if (dropped > 0) {
+                sb.append(String.format("%nwarning: %d requests dropped at max in flight, the target rate was not sustained",
+                        dropped));
+            }
+            if (firstError != null) {
+                sb.append(String.format("%nfirst error: %s", firstError));
+            }
+            return sb.toString();
+        }
+
+        private static void appendLatency(StringBuilder sb, String name, LatencyHistogram.Snapshot snapshot) {
+            sb.append(String.format("%s (ms): mean %.3f, p50 %.3f, p90 %.3f, p99 %.3f, p99.9 %.3f, max %.3f",
+                    name,
+                    snapshot.getMean() / 1e6,
+                    snapshot.getValueAtPercentile(50) / 1e6,
+                    snapshot.getValueAtPercentile(90) / 1e6,
+                    snapshot.getValueAtPercentile(99) / 1e6,
+                    snapshot.getValueAtPercentile(99.9) / 1e6,
+                    snapshot.getMax() / 1e6));
+        }
+    }
+}
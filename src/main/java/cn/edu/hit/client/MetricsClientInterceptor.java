@@ -0,0 +1,64 @@
+package cn.edu.hit.client;
+
+import cn.edu.hit.common.MethodMetrics;
+import cn.edu.hit.common.RpcMetrics;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+/**
+ * 记录客户端每个方法的调用数、进行中的调用数、状态码、消息字节数和延迟
+ * 延迟从调用start开始，到收到onClose为止
+ */
+public class MetricsClientInterceptor implements ClientInterceptor {
+    private final RpcMetrics metrics;
+
+    public MetricsClientInterceptor(RpcMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(
+            MethodDescriptor<ReqT, RespT> methodDescriptor, CallOptions callOptions, Channel next) {
+        MethodMetrics method = metrics.forMethod(methodDescriptor.getFullMethodName());
+        return new ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT>(next.newCall(methodDescriptor, callOptions)) {
+            @Override
+            public void start(Listener<RespT> responseListener, Metadata headers) {
+                long startNanos = System.nanoTime();
+                method.callStarted();
+                Listener<RespT> listener = new ForwardingClientCallListener.SimpleForwardingClientCallListener<RespT>(
+                        responseListener) {
+                    @Override
+                    public void onMessage(RespT message) {
+                        method.responseMessage(MethodMetrics.sizeOf(message));
+                        super.onMessage(message);
+                    }
+
+                    @Override
+                    public void onClose(Status status, Metadata trailers) {
+                        method.callClosed(status.getCode(), System.nanoTime() - startNanos);
+                        super.onClose(status, trailers);
+                    }
+                };
+                try {
+                    super.start(listener, headers);
+                } catch (RuntimeException e) {
+                    method.callClosed(Status.Code.UNKNOWN, System.nanoTime() - startNanos);
+                    throw e;
+                }
+            }
+
+            @Override
+            public void sendMessage(ReqT message) {
+                method.requestMessage(MethodMetrics.sizeOf(message));
+                super.sendMessage(message);
+            }
+        };
+    }
+}
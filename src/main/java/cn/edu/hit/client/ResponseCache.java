@@ -0,0 +1,187 @@
+package cn.edu.hit.client;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnsafeByteOperations;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一个一元方法的响应缓存，以序列化后的请求字节为键，保存序列化后的响应字节和第一次需要时解析出的DynamicMessage
+ * 条目写入ttl时间后过期；序列化字节的总数超过maxBytes时按LRU顺序淘汰，解析出的消息不计入
+ * 命中时不发起RPC，也不复制字节：JSON调用直接由缓存的字节转码，DynamicMessage调用直接返回缓存的不可变消息
+ */
+public final class ResponseCache {
+    // 每个条目除请求和响应字节外的估算开销（键值对象、链表节点、哈希表槽位）
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final long ttlNanos;
+    private final long maxBytes;
+    private final LinkedHashMap<ByteString, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long sizeBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ResponseCache(long ttl, TimeUnit unit, long maxBytes) {
+        if (ttl <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Invalid cache ttl: " + ttl + " " + unit + ", max bytes: " + maxBytes);
+        }
+        this.ttlNanos = unit.toNanos(ttl);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 查找未过期的响应，未命中时返回null
+     * request在调用返回后不能再被修改
+     */
+    public Response get(byte[] request) {
+        ByteString key = UnsafeByteOperations.unsafeWrap(request);
+        long now = System.nanoTime();
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expiresAt - now > 0) {
+                    hits.increment();
+                    return entry.response;
+                }
+                remove(key, entry);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * 保存响应，超过maxBytes的单个响应不缓存
+     * request在调用返回后不能再被修改
+     */
+    public void put(byte[] request, Response response) {
+        long weight = weigh(request.length, response);
+        if (weight > maxBytes) {
+            return;
+        }
+        ByteString key = UnsafeByteOperations.unsafeWrap(request);
+        Entry entry = new Entry(response, weight, System.nanoTime() + ttlNanos);
+        synchronized (this) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                sizeBytes -= previous.weight;
+            }
+            sizeBytes += weight;
+
+            // 从最久未访问的条目开始淘汰
+            Iterator<Map.Entry<ByteString, Entry>> eldest = entries.entrySet().iterator();
+            while (sizeBytes > maxBytes && eldest.hasNext()) {
+                Entry evicted = eldest.next().getValue();
+                eldest.remove();
+                sizeBytes -= evicted.weight;
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * 清空缓存，计数器不清零
+     */
+    public synchronized void clear() {
+        entries.clear();
+        sizeBytes = 0;
+    }
+
+    // 调用方持有this的锁
+    private void remove(ByteString key, Entry entry) {
+        entries.remove(key);
+        sizeBytes -= entry.weight;
+    }
+
+    private static long weigh(int requestSize, Response response) {
+        return (long) requestSize + response.bytes.length + ENTRY_OVERHEAD;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * 因容量不足被淘汰的条目数（不含过期条目）
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * 当前缓存条目的估算字节数
+     */
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ResponseCache{hits=" + getHitCount() + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount() + ", entries=" + size() + ", bytes=" + getSizeBytes() + "}";
+    }
+
+    /**
+     * 一个序列化的响应，命中的调用共享同一个对象
+     */
+    public static final class Response {
+        private final byte[] bytes;
+        private volatile DynamicMessage message;
+
+        /**
+         * @param bytes 序列化的响应，之后不能再被修改
+         */
+        public Response(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * 序列化的响应，与缓存共享，调用方不能修改
+         */
+        public byte[] bytes() {
+            return bytes;
+        }
+
+        /**
+         * 解析为type类型的消息，只在第一次调用时解析，之后返回同一个不可变消息
+         */
+        public DynamicMessage message(Descriptors.Descriptor type) throws InvalidProtocolBufferException {
+            DynamicMessage parsed = message;
+            if (parsed == null || parsed.getDescriptorForType() != type) {
+                // 并发的第一次调用可能各自解析一次，结果相同
+                parsed = DynamicMessage.parseFrom(type, bytes);
+                message = parsed;
+            }
+            return parsed;
+        }
+    }
+
+    private static final class Entry {
+        final Response response;
+        final long weight;
+        final long expiresAt;
+
+        Entry(Response response, long weight, long expiresAt) {
+            this.response = response;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package cn.edu.hit.client;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.StreamObserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一元调用合并器，请求和响应均为序列化后的字节
+ * 同一方法的并发调用先进入当前批次，时间窗口到期或达到批大小时一次性发出：
+ * 指定了双向流方法时整批请求在一个双向流上发送，响应按请求顺序一一对应；否则在同一时刻并发发出各自的一元调用
+ * 指定coalesce的调用中请求字节完全相同的调用共享同一个进行中的RPC（single-flight），RPC完成后不再复用其结果；
+ * 只有只读方法可以共享，否则每次调用都单独进入批次
+ * 调用方取消返回的future时：批次尚未发出则从批次中移除该请求；已发出时，共享同一RPC（或同一双向流）的调用方都取消后才取消RPC
+ */
+final class UnaryBatcher {
+    private final Channel channel;
+    private final MethodDescriptor<byte[], byte[]> unaryMethod;
+    private final MethodDescriptor<byte[], byte[]> streamMethod;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService scheduler;
+    private final ConcurrentHashMap<RequestKey, Pending> inFlight = new ConcurrentHashMap<>();
+
+    // 以下字段由this保护
+    private List<Pending> batch = new ArrayList<>();
+    private ScheduledFuture<?> flushTask;
+
+    /**
+     * @param streamMethod 请求和响应类型与unaryMethod相同的双向流方法，为null时逐个发出一元调用
+     */
+    UnaryBatcher(Channel channel, MethodDescriptor<byte[], byte[]> unaryMethod,
+                 MethodDescriptor<byte[], byte[]> streamMethod,
+                 long window, TimeUnit unit, int maxBatchSize, ScheduledExecutorService scheduler) {
+        if (window <= 0 || maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Invalid batch window: " + window + " " + unit
+                    + ", max batch size: " + maxBatchSize);
+        }
+        this.channel = channel;
+        this.unaryMethod = unaryMethod;
+        this.streamMethod = streamMethod;
+        this.windowNanos = unit.toNanos(window);
+        this.maxBatchSize = maxBatchSize;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * 提交一次调用，返回响应字节
+     * 取消返回的future只影响本调用方，共享RPC的其他调用方不受影响
+     *
+     * @param coalesce 是否与请求相同的进行中调用共享RPC，只能对无副作用的方法为true
+     */
+    CompletableFuture<byte[]> call(byte[] request, boolean coalesce) {
+        if (!coalesce) {
+            Pending pending = new Pending(request);
+            enqueue(pending);
+            return waiterOf(pending);
+        }
+        RequestKey key = new RequestKey(request);
+        while (true) {
+            Pending shared = inFlight.get(key);
+            if (shared == null) {
+                Pending created = new Pending(request);
+                shared = inFlight.putIfAbsent(key, created);
+                if (shared == null) {
+                    created.future.whenComplete((response, error) -> inFlight.remove(key, created));
+                    enqueue(created);
+                    return waiterOf(created);
+                }
+            }
+            if (shared.join()) {
+                return waiterOf(shared);
+            }
+            // 所有调用方都已取消，RPC正在被取消
+            inFlight.remove(key, shared);
+        }
+    }
+
+    /**
+     * 调用方持有的future，完成时机与RPC相同，取消时退出共享
+     */
+    private CompletableFuture<byte[]> waiterOf(Pending pending) {
+        CompletableFuture<byte[]> waiter = new CompletableFuture<>();
+        pending.future.whenComplete((response, error) -> {
+            if (error != null) {
+                waiter.completeExceptionally(error);
+            } else {
+                waiter.complete(response);
+            }
+        });
+        waiter.whenComplete((response, error) -> {
+            if (waiter.isCancelled() && pending.waiters.decrementAndGet() == 0) {
+                cancel(pending);
+            }
+        });
+        return waiter;
+    }
+
+    /**
+     * 所有调用方都已取消：尚未发出时从批次中移除，已发出时释放其占用的RPC
+     */
+    private void cancel(Pending pending) {
+        boolean removed;
+        synchronized (this) {
+            removed = batch.remove(pending);
+            if (removed && batch.isEmpty() && flushTask != null) {
+                flushTask.cancel(false);
+                flushTask = null;
+            }
+        }
+        pending.future.cancel(false);
+        if (!removed) {
+            pending.release();
+        }
+    }
+
+    private void enqueue(Pending pending) {
+        List<Pending> full = null;
+        synchronized (this) {
+            batch.add(pending);
+            if (batch.size() >= maxBatchSize) {
+                full = takeBatch();
+            } else if (batch.size() == 1) {
+                flushTask = scheduler.schedule(this::flush, windowNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        if (full != null) {
+            dispatch(full);
+        }
+    }
+
+    /**
+     * 窗口到期，发出当前批次
+     */
+    private void flush() {
+        List<Pending> pending;
+        synchronized (this) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            pending = takeBatch();
+        }
+        dispatch(pending);
+    }
+
+    // 调用方持有this的锁
+    private List<Pending> takeBatch() {
+        List<Pending> taken = batch;
+        batch = new ArrayList<>();
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        return taken;
+    }
+
+    private void dispatch(List<Pending> taken) {
+        // 取出批次后才取消的调用不再发出
+        List<Pending> pending = new ArrayList<>(taken.size());
+        for (Pending call : taken) {
+            if (!call.future.isDone()) {
+                pending.add(call);
+            }
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        if (streamMethod == null || pending.size() == 1) {
+            for (Pending call : pending) {
+                ClientCall<byte[], byte[]> clientCall = channel.newCall(unaryMethod, CallOptions.DEFAULT);
+                ClientCalls.asyncUnaryCall(clientCall, call.request, new UnaryObserver(call.future));
+                call.dispatched(new Dispatched(clientCall, 1));
+            }
+            return;
+        }
+
+        // 一批的请求数不超过maxBatchSize，直接全部写入流
+        ClientCall<byte[], byte[]> clientCall = channel.newCall(streamMethod, CallOptions.DEFAULT);
+        StreamObserver<byte[]> requests = ClientCalls.asyncBidiStreamingCall(clientCall, new BatchObserver(pending));
+        for (Pending call : pending) {
+            requests.onNext(call.request);
+        }
+        requests.onCompleted();
+        Dispatched dispatched = new Dispatched(clientCall, pending.size());
+        for (Pending call : pending) {
+            call.dispatched(dispatched);
+        }
+    }
+
+    /**
+     * 双向流的响应按顺序对应批次中的请求，流提前结束或出错时剩余的调用失败
+     */
+    private static final class BatchObserver implements StreamObserver<byte[]> {
+        private final List<Pending> pending;
+        private int next;
+
+        BatchObserver(List<Pending> pending) {
+            this.pending = pending;
+        }
+
+        @Override
+        public void onNext(byte[] value) {
+            if (next < pending.size()) {
+                pending.get(next++).future.complete(value);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            failRemaining(t);
+        }
+
+        @Override
+        public void onCompleted() {
+            failRemaining(Status.INTERNAL
+                    .withDescription("Batch stream completed after " + next + " of " + pending.size() + " responses")
+                    .asRuntimeException());
+        }
+
+        private void failRemaining(Throwable t) {
+            while (next < pending.size()) {
+                pending.get(next++).future.completeExceptionally(t);
+            }
+        }
+    }
+
+    /**
+     * 将一元调用的响应转发到future
+     */
+    private static final class UnaryObserver implements StreamObserver<byte[]> {
+        private final CompletableFuture<byte[]> future;
+        private byte[] response;
+
+        UnaryObserver(CompletableFuture<byte[]> future) {
+            this.future = future;
+        }
+
+        @Override
+        public void onNext(byte[] value) {
+            response = value;
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            future.completeExceptionally(t);
+        }
+
+        @Override
+        public void onCompleted() {
+            if (response == null) {
+                future.completeExceptionally(new IllegalStateException("Received null response"));
+            } else {
+                future.complete(response);
+            }
+        }
+    }
+
+    /**
+     * 一个请求及其RPC结果，相同请求合并时由多个调用方共享
+     */
+    private static final class Pending {
+        final byte[] request;
+        final CompletableFuture<byte[]> future = new CompletableFuture<>();
+        // 未取消的调用方数，降为0后不再有调用方加入
+        final AtomicInteger waiters = new AtomicInteger(1);
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile Dispatched dispatched;
+
+        Pending(byte[] request) {
+            this.request = request;
+        }
+
+        /**
+         * 加入共享，所有调用方都已取消时返回false
+         */
+        boolean join() {
+            for (int n = waiters.get(); n > 0; n = waiters.get()) {
+                if (waiters.compareAndSet(n, n + 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 请求已发出，发出前已被取消时立即释放
+         */
+        void dispatched(Dispatched dispatched) {
+            this.dispatched = dispatched;
+            if (future.isCancelled()) {
+                release();
+            }
+        }
+
+        /**
+         * 释放占用的RPC，与dispatched并发时由先看到对方的一方释放，只释放一次
+         */
+        void release() {
+            Dispatched current = dispatched;
+            if (current != null && released.compareAndSet(false, true)) {
+                current.release();
+            }
+        }
+    }
+
+    /**
+     * 已发出的RPC，承载的请求都被取消后取消RPC
+     */
+    private static final class Dispatched {
+        private final ClientCall<byte[], byte[]> call;
+        private final AtomicInteger live;
+
+        Dispatched(ClientCall<byte[], byte[]> call, int requests) {
+            this.call = call;
+            this.live = new AtomicInteger(requests);
+        }
+
+        void release() {
+            if (live.decrementAndGet() == 0) {
+                call.cancel("Cancelled by all callers", null);
+            }
+        }
+    }
+
+    /**
+     * 按内容比较的请求字节
+     */
+    private static final class RequestKey {
+        private final byte[] bytes;
+        private final int hash;
+
+        RequestKey(byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof RequestKey && Arrays.equals(bytes, ((RequestKey) o).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
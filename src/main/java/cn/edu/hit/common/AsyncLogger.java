@@ -0,0 +1,304 @@
+package cn.edu.hit.common;
+
+import java.io.PrintStream;
+import java.util.Calendar;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 分级异步日志，用于调用路径上的调试输出
+ * 调用线程只把级别、格式串和参数引用写入预先分配的无锁环形缓冲区，由后台线程格式化并写出，不阻塞调用线程
+ * 格式串中的{}按顺序替换为参数，参数的toString在后台线程中执行，级别未开启时只做一次比较
+ * 缓冲区满时丢弃新的日志并计数，之后输出一条丢弃提示
+ * 默认级别为INFO，可通过系统属性grpc.log.level设置，WARN及以上写到System.err，其余写到System.out
+ */
+public final class AsyncLogger {
+    /**
+     * 日志级别
+     */
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR, OFF
+    }
+
+    private static final int CAPACITY = 8192;
+    private static final int MASK = CAPACITY - 1;
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private static volatile Level level = parseLevel(System.getProperty("grpc.log.level", "INFO"));
+    private static volatile PrintStream out = System.out;
+    private static volatile PrintStream err = System.err;
+
+    // 多生产者单消费者环形缓冲区：槽位i的序号等于写入位置时可写，等于写入位置+1时可读
+    private static final Event[] EVENTS = new Event[CAPACITY];
+    private static final AtomicLongArray SEQUENCES = new AtomicLongArray(CAPACITY);
+    private static final AtomicLong TAIL = new AtomicLong();
+    private static final LongAdder DROPPED = new LongAdder();
+    private static volatile long head;
+    private static volatile Thread writer;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            EVENTS[i] = new Event();
+            SEQUENCES.set(i, i);
+        }
+    }
+
+    private final String name;
+
+    private AsyncLogger(String name) {
+        this.name = name;
+    }
+
+    public static AsyncLogger getLogger(Class<?> type) {
+        return new AsyncLogger(type.getSimpleName());
+    }
+
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    /**
+     * 设置输出目标，stdout用于WARN以下的级别，stderr用于WARN及以上
+     */
+    public static void setOutput(PrintStream stdout, PrintStream stderr) {
+        out = stdout;
+        err = stderr;
+    }
+
+    /**
+     * 因缓冲区满而丢弃的日志条数
+     */
+    public static long getDroppedCount() {
+        return DROPPED.sum();
+    }
+
+    public boolean isDebugEnabled() {
+        return level.compareTo(Level.DEBUG) <= 0;
+    }
+
+    public boolean isEnabled(Level atLevel) {
+        return atLevel != Level.OFF && level.compareTo(atLevel) <= 0;
+    }
+
+    public void debug(String format) {
+        if (isDebugEnabled()) {
+            enqueue(Level.DEBUG, format, 0, null, null, NO_ARGS, null);
+        }
+    }
+
+    public void debug(String format, Object arg) {
+        if (isDebugEnabled()) {
+            enqueue(Level.DEBUG, format, 1, arg, null, NO_ARGS, null);
+        }
+    }
+
+    public void debug(String format, Object arg1, Object arg2) {
+        if (isDebugEnabled()) {
+            enqueue(Level.DEBUG, format, 2, arg1, arg2, NO_ARGS, null);
+        }
+    }
+
+    /**
+     * 最后一个参数为Throwable时输出其堆栈
+     */
+    public void debug(String format, Object... args) {
+        if (isDebugEnabled()) {
+            log(Level.DEBUG, format, args);
+        }
+    }
+
+    public void info(String format, Object... args) {
+        if (isEnabled(Level.INFO)) {
+            log(Level.INFO, format, args);
+        }
+    }
+
+    public void warn(String format, Object... args) {
+        if (isEnabled(Level.WARN)) {
+            log(Level.WARN, format, args);
+        }
+    }
+
+    public void error(String format, Object... args) {
+        if (isEnabled(Level.ERROR)) {
+            log(Level.ERROR, format, args);
+        }
+    }
+
+    private void log(Level atLevel, String format, Object[] args) {
+        Throwable thrown = null;
+        if (args.length > 0 && args[args.length - 1] instanceof Throwable) {
+            thrown = (Throwable) args[args.length - 1];
+        }
+        enqueue(atLevel, format, args.length, null, null, args, thrown);
+    }
+
+    private void enqueue(Level atLevel, String format, int argCount, Object arg1, Object arg2,
+                         Object[] args, Throwable thrown) {
+        long position;
+        while (true) {
+            position = TAIL.get();
+            long sequence = SEQUENCES.get((int) position & MASK);
+            if (sequence == position) {
+                if (TAIL.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (sequence < position) {
+                // 后台线程还没有取走这个槽位的上一条日志，缓冲区已满
+                DROPPED.increment();
+                return;
+            }
+        }
+        Event event = EVENTS[(int) position & MASK];
+        event.level = atLevel;
+        event.logger = name;
+        event.thread = Thread.currentThread().getName();
+        event.timeMillis = System.currentTimeMillis();
+        event.format = format;
+        event.argCount = argCount;
+        event.arg1 = arg1;
+        event.arg2 = arg2;
+        event.args = args;
+        event.thrown = thrown;
+        SEQUENCES.set((int) position & MASK, position + 1);
+
+        if (writer == null) {
+            startWriter();
+        }
+    }
+
+    private static synchronized void startWriter() {
+        if (writer != null) {
+            return;
+        }
+        Thread thread = new Thread(AsyncLogger::drainLoop, "async-logger");
+        thread.setDaemon(true);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(AsyncLogger::flush, "async-logger-flush"));
+        writer = thread;
+    }
+
+    /**
+     * 等待已写入缓冲区的日志全部输出
+     */
+    public static void flush() {
+        long target = TAIL.get();
+        while (head < target && writer != null && writer.isAlive()) {
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    private static void drainLoop() {
+        StringBuilder line = new StringBuilder(256);
+        Calendar calendar = Calendar.getInstance();
+        long reportedDrops = 0;
+        while (true) {
+            long position = head;
+            int index = (int) position & MASK;
+            if (SEQUENCES.get(index) != position + 1) {
+                long dropped = DROPPED.sum();
+                if (dropped != reportedDrops) {
+                    err.println("AsyncLogger: " + (dropped - reportedDrops) + " messages dropped, buffer full");
+                    reportedDrops = dropped;
+                }
+                LockSupport.parkNanos(1_000_000);
+                continue;
+            }
+
+            Event event = EVENTS[index];
+            line.setLength(0);
+            format(line, calendar, event);
+            PrintStream stream = event.level.compareTo(Level.WARN) >= 0 ? err : out;
+            Throwable thrown = event.thrown;
+            event.clear();
+            // 释放槽位后再写出，写出较慢时不占用缓冲区
+            SEQUENCES.set(index, position + CAPACITY);
+
+            stream.println(line);
+            if (thrown != null) {
+                thrown.printStackTrace(stream);
+            }
+            head = position + 1;
+        }
+    }
+
+    private static void format(StringBuilder line, Calendar calendar, Event event) {
+        calendar.setTimeInMillis(event.timeMillis);
+        pad(line, calendar.get(Calendar.HOUR_OF_DAY), 2).append(':');
+        pad(line, calendar.get(Calendar.MINUTE), 2).append(':');
+        pad(line, calendar.get(Calendar.SECOND), 2).append('.');
+        pad(line, calendar.get(Calendar.MILLISECOND), 3).append(' ');
+        line.append(event.level).append(" [").append(event.thread).append("] ")
+                .append(event.logger).append(" - ");
+
+        String format = event.format;
+        int argIndex = 0;
+        int argCount = event.argCount;
+        int pos = 0;
+        while (true) {
+            int placeholder = format.indexOf("{}", pos);
+            if (placeholder < 0 || argIndex >= argCount) {
+                break;
+            }
+            line.append(format, pos, placeholder);
+            Object arg = event.args.length > 0 ? event.args[argIndex] : (argIndex == 0 ? event.arg1 : event.arg2);
+            try {
+                line.append(arg);
+            } catch (RuntimeException e) {
+                line.append("[toString failed: ").append(e).append(']');
+            }
+            argIndex++;
+            pos = placeholder + 2;
+        }
+        line.append(format, pos, format.length());
+    }
+
+    private static StringBuilder pad(StringBuilder line, int value, int width) {
+        for (int limit = 10, i = 1; i < width; i++, limit *= 10) {
+            if (value < limit) {
+                line.append('0');
+            }
+        }
+        return line.append(value);
+    }
+
+    private static Level parseLevel(String name) {
+        try {
+            return Level.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown log level " + name + ", using INFO");
+            return Level.INFO;
+        }
+    }
+
+    /**
+     * 缓冲区中的一条日志，槽位对象预先分配并重复使用
+     */
+    private static final class Event {
+        Level level;
+        String logger;
+        String thread;
+        long timeMillis;
+        String format;
+        // 不超过2个参数时放在arg1、arg2中，避免调用方创建参数数组
+        int argCount;
+        Object arg1;
+        Object arg2;
+        Object[] args;
+        Throwable thrown;
+
+        void clear() {
+            format = null;
+            arg1 = null;
+            arg2 = null;
+            args = NO_ARGS;
+            thrown = null;
+        }
+    }
+}
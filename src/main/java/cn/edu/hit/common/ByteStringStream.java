@@ -0,0 +1,72 @@
+package cn.edu.hit.common;
+
+import com.google.protobuf.ByteString;
+import io.grpc.Drainable;
+import io.grpc.KnownLength;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 已序列化消息的输入流，gRPC通过KnownLength得到长度、通过Drainable直接写入传输缓冲区，不经过中间数组
+ */
+final class ByteStringStream extends InputStream implements Drainable, KnownLength {
+    private ByteString bytes;
+    // 被逐字节读取时才创建
+    private InputStream partial;
+
+    ByteStringStream(ByteString bytes) {
+        this.bytes = bytes;
+    }
+
+    @Override
+    public int drainTo(OutputStream target) throws IOException {
+        int written;
+        if (bytes != null) {
+            written = bytes.size();
+            bytes.writeTo(target);
+            bytes = null;
+        } else if (partial != null) {
+            written = 0;
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = partial.read(buffer)) != -1) {
+                target.write(buffer, 0, n);
+                written += n;
+            }
+            partial = null;
+        } else {
+            written = 0;
+        }
+        return written;
+    }
+
+    @Override
+    public int read() throws IOException {
+        InputStream in = partial();
+        return in == null ? -1 : in.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        InputStream in = partial();
+        return in == null ? -1 : in.read(b, off, len);
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (bytes != null) {
+            return bytes.size();
+        }
+        return partial == null ? 0 : partial.available();
+    }
+
+    private InputStream partial() {
+        if (bytes != null) {
+            partial = bytes.newInput();
+            bytes = null;
+        }
+        return partial;
+    }
+}
@@ -0,0 +1,97 @@
+package cn.edu.hit.common;
+
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.Descriptors;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 描述符快照，一次加载结果的不可变视图
+ * 重新加载时生成新的快照并通过单个volatile引用整体替换（写时复制），读取方不会看到加载到一半的状态
+ * 返回的Map均为不可修改视图，可以在任意线程中直接读取
+ */
+public final class DescriptorSnapshot {
+    static final DescriptorSnapshot EMPTY = new DescriptorSnapshot(
+            0, Collections.<String, DescriptorProtos.FileDescriptorProto>emptyMap(),
+            Collections.<String, Descriptors.FileDescriptor>emptyMap());
+
+    private final long version;
+    private final Map<String, DescriptorProtos.FileDescriptorProto> fileProtos;
+    private final Map<String, Descriptors.FileDescriptor> fileDescriptors;
+    private final Map<String, Descriptors.ServiceDescriptor> serviceDescriptors;
+    private final Map<String, Descriptors.MethodDescriptor> methodsByFullName;
+
+    DescriptorSnapshot(long version,
+                       Map<String, DescriptorProtos.FileDescriptorProto> fileProtos,
+                       Map<String, Descriptors.FileDescriptor> fileDescriptors) {
+        this.version = version;
+        this.fileProtos = Collections.unmodifiableMap(new LinkedHashMap<>(fileProtos));
+        this.fileDescriptors = Collections.unmodifiableMap(new LinkedHashMap<>(fileDescriptors));
+
+        // 服务和方法索引在构建快照时一次性计算，查询时不加锁也不分配对象
+        Map<String, Descriptors.ServiceDescriptor> services = new LinkedHashMap<>();
+        Map<String, Descriptors.MethodDescriptor> methods = new HashMap<>();
+        for (Descriptors.FileDescriptor fd : fileDescriptors.values()) {
+            for (Descriptors.ServiceDescriptor sd : fd.getServices()) {
+                services.put(sd.getFullName(), sd);
+                for (Descriptors.MethodDescriptor md : sd.getMethods()) {
+                    methods.put(MethodDescriptorHelper.generateFullMethodName(sd.getFullName(), md.getName()), md);
+                }
+            }
+        }
+        this.serviceDescriptors = Collections.unmodifiableMap(services);
+        this.methodsByFullName = Collections.unmodifiableMap(methods);
+    }
+
+    /**
+     * 快照版本号，每次成功加载递增
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * 按文件名索引的原始FileDescriptorProto，用于增量重新加载
+     */
+    public Map<String, DescriptorProtos.FileDescriptorProto> getFileProtos() {
+        return fileProtos;
+    }
+
+    /**
+     * 按文件名索引的FileDescriptor
+     */
+    public Map<String, Descriptors.FileDescriptor> getFileDescriptors() {
+        return fileDescriptors;
+    }
+
+    /**
+     * 按服务全名索引的ServiceDescriptor
+     */
+    public Map<String, Descriptors.ServiceDescriptor> getServiceDescriptors() {
+        return serviceDescriptors;
+    }
+
+    /**
+     * 按完整方法名（package.Service/Method）索引的MethodDescriptor
+     */
+    public Map<String, Descriptors.MethodDescriptor> getMethodDescriptors() {
+        return methodsByFullName;
+    }
+
+    /**
+     * 获取服务描述符，不存在时返回null
+     */
+    public Descriptors.ServiceDescriptor findService(String serviceName) {
+        return serviceDescriptors.get(serviceName);
+    }
+
+    /**
+     * 按完整方法名获取方法描述符，不存在时返回null
+     */
+    public Descriptors.MethodDescriptor findMethod(String fullMethodName) {
+        return methodsByFullName.get(fullMethodName);
+    }
+}
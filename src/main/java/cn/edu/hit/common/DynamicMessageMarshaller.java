@@ -0,0 +1,134 @@
+package cn.edu.hit.common;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import io.grpc.Drainable;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor;
+import io.grpc.protobuf.ProtoUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * DynamicMessage的序列化器，序列化使用每个线程复用的缓冲区
+ * 序列化时返回的流实现Drainable，消息先写入线程缓冲区再一次性写给gRPC，不为每条消息创建CodedOutputStream的缓冲区；
+ * 反序列化直接使用ProtoUtils.marshaller，在线程缓冲区上解析并不比它快（见MarshallerBenchmark）
+ * 超过64KiB的消息不使用线程缓冲区，处理器线程数不受限制时每个线程也只长期占用少量内存
+ */
+public final class DynamicMessageMarshaller implements MethodDescriptor.Marshaller<DynamicMessage> {
+    private static final int MAX_POOLED_SIZE = 64 * 1024;
+    private static final int MIN_BUFFER_SIZE = 4096;
+    private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<>();
+
+    private final MethodDescriptor.Marshaller<DynamicMessage> parser;
+
+    public DynamicMessageMarshaller(Descriptors.Descriptor type) {
+        this.parser = ProtoUtils.marshaller(DynamicMessage.getDefaultInstance(type));
+    }
+
+    @Override
+    public InputStream stream(DynamicMessage value) {
+        return new MessageStream(value);
+    }
+
+    @Override
+    public DynamicMessage parse(InputStream stream) {
+        return parser.parse(stream);
+    }
+
+    /**
+     * 当前线程的缓冲区，长度不小于size
+     */
+    private static byte[] buffer(int size) {
+        byte[] buffer = BUFFERS.get();
+        if (buffer == null || buffer.length < size) {
+            buffer = new byte[Math.max(MIN_BUFFER_SIZE, Integer.highestOneBit(size - 1) << 1)];
+            BUFFERS.set(buffer);
+        }
+        return buffer;
+    }
+
+    static void readFully(InputStream stream, byte[] buffer, int size) throws IOException {
+        int offset = 0;
+        while (offset < size) {
+            int n = stream.read(buffer, offset, size - offset);
+            if (n == -1) {
+                throw new EOFException("Expected " + size + " bytes, got " + offset);
+            }
+            offset += n;
+        }
+    }
+
+    /**
+     * 待发送的消息，gRPC调用drainTo时才序列化
+     */
+    private static final class MessageStream extends InputStream implements Drainable, KnownLength {
+        private DynamicMessage message;
+        // 被逐字节读取时才创建
+        private ByteArrayInputStream partial;
+
+        MessageStream(DynamicMessage message) {
+            this.message = message;
+        }
+
+        @Override
+        public int drainTo(OutputStream target) throws IOException {
+            if (message != null) {
+                int size = message.getSerializedSize();
+                if (size <= MAX_POOLED_SIZE) {
+                    byte[] buffer = buffer(size);
+                    CodedOutputStream output = CodedOutputStream.newInstance(buffer, 0, size);
+                    message.writeTo(output);
+                    output.checkNoSpaceLeft();
+                    target.write(buffer, 0, size);
+                } else {
+                    message.writeTo(target);
+                }
+                message = null;
+                return size;
+            }
+            if (partial != null) {
+                int size = partial.available();
+                byte[] remaining = new byte[size];
+                readFully(partial, remaining, size);
+                target.write(remaining);
+                partial = null;
+                return size;
+            }
+            return 0;
+        }
+
+        @Override
+        public int read() {
+            ByteArrayInputStream in = partial();
+            return in == null ? -1 : in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            ByteArrayInputStream in = partial();
+            return in == null ? -1 : in.read(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            if (message != null) {
+                return message.getSerializedSize();
+            }
+            return partial == null ? 0 : partial.available();
+        }
+
+        private ByteArrayInputStream partial() {
+            if (message != null) {
+                partial = new ByteArrayInputStream(message.toByteArray());
+                message = null;
+            }
+            return partial;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package cn.edu.hit.common;
+
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.Descriptors;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * proto文件依赖图，根据FileDescriptorProto.getDependencyList()建立有向无环图
+ * 构建时缺失依赖或循环依赖直接报错，相互独立的文件在fork-join线程池中并行构建
+ */
+final class FileDescriptorGraph {
+    // 文件数较少或只有单核时并行调度的开销大于收益
+    static final int PARALLEL_THRESHOLD = 32;
+
+    private final Map<String, DescriptorProtos.FileDescriptorProto> protos;
+    private final List<String> order;
+
+    FileDescriptorGraph(Map<String, DescriptorProtos.FileDescriptorProto> protos) {
+        this.protos = protos;
+        this.order = topologicalSort(protos);
+    }
+
+    /**
+     * 依赖在前的拓扑顺序
+     */
+    List<String> topologicalOrder() {
+        return order;
+    }
+
+    /**
+     * 构建所有FileDescriptor，文件本身及其依赖都未变化时复用上一个快照中的FileDescriptor
+     */
+    Map<String, Descriptors.FileDescriptor> build(DescriptorSnapshot previous, Set<String> changed)
+            throws Descriptors.DescriptorValidationException {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        if (order.size() < PARALLEL_THRESHOLD || pool.getParallelism() < 2) {
+            return buildSequential(previous, changed);
+        }
+        return buildParallel(previous, changed, pool);
+    }
+
+    /**
+     * 按拓扑顺序逐个构建
+     */
+    Map<String, Descriptors.FileDescriptor> buildSequential(DescriptorSnapshot previous, Set<String> changed)
+            throws Descriptors.DescriptorValidationException {
+        Map<String, Node> nodes = new HashMap<>();
+        for (String name : order) {
+            nodes.put(name, buildNode(name, nodes, previous, changed));
+        }
+        return toResult(nodes);
+    }
+
+    /**
+     * 并行构建，每个文件在其全部依赖构建完成后提交到线程池
+     */
+    Map<String, Descriptors.FileDescriptor> buildParallel(DescriptorSnapshot previous, Set<String> changed,
+                                                          ForkJoinPool pool)
+            throws Descriptors.DescriptorValidationException {
+        Map<String, CompletableFuture<Node>> futures = new HashMap<>();
+        for (String name : order) {
+            List<String> dependencies = protos.get(name).getDependencyList();
+            CompletableFuture<?>[] ready = new CompletableFuture<?>[dependencies.size()];
+            Map<String, CompletableFuture<Node>> depFutures = new HashMap<>();
+            for (int i = 0; i < ready.length; i++) {
+                String depName = dependencies.get(i);
+                ready[i] = futures.get(depName);
+                depFutures.put(depName, futures.get(depName));
+            }
+
+            futures.put(name, CompletableFuture.allOf(ready).thenApplyAsync(ignored -> {
+                Map<String, Node> depNodes = new HashMap<>();
+                for (Map.Entry<String, CompletableFuture<Node>> dep : depFutures.entrySet()) {
+                    depNodes.put(dep.getKey(), dep.getValue().join());
+                }
+                try {
+                    return buildNode(name, depNodes, previous, changed);
+                } catch (Descriptors.DescriptorValidationException e) {
+                    throw new CompletionException(e);
+                }
+            }, pool));
+        }
+
+        Map<String, Node> nodes = new HashMap<>();
+        try {
+            for (Map.Entry<String, CompletableFuture<Node>> entry : futures.entrySet()) {
+                nodes.put(entry.getKey(), entry.getValue().join());
+            }
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Descriptors.DescriptorValidationException) {
+                throw (Descriptors.DescriptorValidationException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+        return toResult(nodes);
+    }
+
+    private Node buildNode(String name, Map<String, Node> built, DescriptorSnapshot previous, Set<String> changed)
+            throws Descriptors.DescriptorValidationException {
+        DescriptorProtos.FileDescriptorProto fdp = protos.get(name);
+
+        Descriptors.FileDescriptor[] dependencies = new Descriptors.FileDescriptor[fdp.getDependencyCount()];
+        boolean dependencyRebuilt = false;
+        for (int i = 0; i < dependencies.length; i++) {
+            Node dep = built.get(fdp.getDependency(i));
+            dependencies[i] = dep.descriptor;
+            dependencyRebuilt |= dep.rebuilt;
+        }
+
+        Descriptors.FileDescriptor old = previous.getFileDescriptors().get(name);
+        if (old != null && !dependencyRebuilt && !changed.contains(name)) {
+            return new Node(old, false);
+        }
+        return new Node(Descriptors.FileDescriptor.buildFrom(fdp, dependencies), true);
+    }
+
+    private Map<String, Descriptors.FileDescriptor> toResult(Map<String, Node> nodes) {
+        Map<String, Descriptors.FileDescriptor> result = new LinkedHashMap<>();
+        for (String name : order) {
+            result.put(name, nodes.get(name).descriptor);
+        }
+        return result;
+    }
+
+    /**
+     * Kahn算法拓扑排序，缺失依赖或存在循环依赖时抛出IllegalStateException
+     */
+    private static List<String> topologicalSort(Map<String, DescriptorProtos.FileDescriptorProto> protos) {
+        Map<String, Integer> inDegree = new HashMap<>();
+        Map<String, List<String>> dependents = new HashMap<>();
+
+        for (DescriptorProtos.FileDescriptorProto fdp : protos.values()) {
+            inDegree.put(fdp.getName(), fdp.getDependencyCount());
+            for (String depName : fdp.getDependencyList()) {
+                if (!protos.containsKey(depName)) {
+                    throw new IllegalStateException(
+                            "Missing proto dependency: " + fdp.getName() + " imports " + depName);
+                }
+                dependents.computeIfAbsent(depName, k -> new ArrayList<>()).add(fdp.getName());
+            }
+        }
+
+        Deque<String> ready = new ArrayDeque<>();
+        for (String name : protos.keySet()) {
+            if (inDegree.get(name) == 0) {
+                ready.add(name);
+            }
+        }
+
+        List<String> order = new ArrayList<>(protos.size());
+        while (!ready.isEmpty()) {
+            String name = ready.poll();
+            order.add(name);
+            for (String dependent : dependents.getOrDefault(name, Collections.<String>emptyList())) {
+                if (inDegree.merge(dependent, -1, Integer::sum) == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+
+        if (order.size() != protos.size()) {
+            throw new IllegalStateException("Cyclic proto imports: " + findCycle(protos, new HashSet<>(order)));
+        }
+        return Collections.unmodifiableList(order);
+    }
+
+    /**
+     * 在未能排序的文件中沿依赖找出一个环，用于错误信息
+     */
+    private static String findCycle(Map<String, DescriptorProtos.FileDescriptorProto> protos, Set<String> sorted) {
+        String start = null;
+        for (String name : protos.keySet()) {
+            if (!sorted.contains(name)) {
+                start = name;
+                break;
+            }
+        }
+
+        // 未排序的文件至少有一个依赖也未排序，一直走下去必然回到已经过的文件
+        List<String> path = new ArrayList<>();
+        Map<String, Integer> position = new HashMap<>();
+        String current = start;
+        while (!position.containsKey(current)) {
+            position.put(current, path.size());
+            path.add(current);
+            for (String depName : protos.get(current).getDependencyList()) {
+                if (!sorted.contains(depName)) {
+                    current = depName;
+                    break;
+                }
+            }
+        }
+
+        List<String> cycle = new ArrayList<>(path.subList(position.get(current), path.size()));
+        cycle.add(current);
+        return String.join(" -> ", cycle);
+    }
+
+    private static final class Node {
+        final Descriptors.FileDescriptor descriptor;
+        final boolean rebuilt;
+
+        Node(Descriptors.FileDescriptor descriptor, boolean rebuilt) {
+            this.descriptor = descriptor;
+            this.rebuilt = rebuilt;
+        }
+    }
+}
@@ -0,0 +1,1305 @@
+package cn.edu.hit.common;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.PrettyPrinter;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.CharacterEscapes;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JSON与protobuf二进制格式之间的流式转换器
+ * 按消息类型预先编译字段表，解析时由Jackson的JsonParser直接写入CodedOutputStream，
+ * 输出时从二进制数据直接写入JsonGenerator，不构建DynamicMessage，也不经过JsonFormat的中间JSON树
+ * JSON格式与JsonFormat保持一致：字段名使用json_name（也接受原始字段名），64位整数输出为字符串，
+ * 枚举输出名称，bytes使用base64，proto3中没有presence的字段取默认值时不输出，未知字段忽略，
+ * 同一字段出现两次（包括分别以json_name和原始字段名出现）或同一oneof设置了多个字段时抛出InvalidProtocolBufferException
+ * 含有well-known类型（google.protobuf.*）或group字段的消息不支持，isSupported()返回false，调用方应回退到JsonFormat
+ */
+public final class JsonTranscoder {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final int MAX_DEPTH = 100;
+    // 字段编号不超过该值时用数组按编号查找字段，否则使用HashMap
+    private static final int MAX_DENSE_FIELD_NUMBER = 1024;
+    // 线程缓存的缓冲区超过该大小后不再保留
+    private static final int MAX_RETAINED_BUFFER = 1 << 20;
+
+    private static final ThreadLocal<EncodeState> ENCODE_STATE = ThreadLocal.withInitial(EncodeState::new);
+    private static final ThreadLocal<DecodeState> DECODE_STATE = ThreadLocal.withInitial(DecodeState::new);
+
+    private final MessagePlan root;
+    private final boolean supported;
+
+    private JsonTranscoder(MessagePlan root, boolean supported) {
+        this.root = root;
+        this.supported = supported;
+    }
+
+    /**
+     * 为消息类型编译转换器，嵌套消息类型一并编译（递归类型共享同一份字段表）
+     */
+    public static JsonTranscoder forType(Descriptors.Descriptor type) {
+        Map<Descriptors.Descriptor, MessagePlan> plans = new HashMap<>();
+        MessagePlan root = compile(type, plans);
+        boolean supported = true;
+        for (MessagePlan plan : plans.values()) {
+            supported &= plan.supported;
+        }
+        return new JsonTranscoder(root, supported);
+    }
+
+    /**
+     * 消息类型及其全部嵌套类型是否都可以使用流式转换
+     */
+    public boolean isSupported() {
+        return supported;
+    }
+
+    public Descriptors.Descriptor getType() {
+        return root.type;
+    }
+
+    /**
+     * 将JSON对象转换为protobuf二进制数据
+     */
+    public byte[] toProto(String json) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            return toProto(parser);
+        }
+    }
+
+    /**
+     * 从parser中读取一个JSON对象并转换为protobuf二进制数据
+     */
+    public byte[] toProto(JsonParser parser) throws IOException {
+        checkSupported();
+        JsonToken token = parser.nextToken();
+        if (token != JsonToken.START_OBJECT) {
+            throw invalid("Expect message object for " + root.type.getFullName() + " but got: " + token);
+        }
+
+        EncodeState state = ENCODE_STATE.get();
+        Level level = state.level(0);
+        try {
+            encodeMessage(root, parser, state, 0);
+            level.out.flush();
+            return level.sink.toByteArray();
+        } finally {
+            state.release();
+        }
+    }
+
+    /**
+     * 将protobuf二进制数据转换为格式化的JSON字符串，输出与JsonFormat.printer()逐字符相同
+     */
+    public String toJson(byte[] proto) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(64, proto.length * 2));
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(buffer, JsonEncoding.UTF8)) {
+            generator.setPrettyPrinter(new JsonFormatPrettyPrinter());
+            generator.setCharacterEscapes(JsonFormatEscapes.INSTANCE);
+            toJson(proto, 0, proto.length, generator);
+        }
+        return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 将protobuf二进制数据作为一个JSON对象写入generator
+     * 字符串字段的UTF-8字节直接交给generator，使用基于OutputStream的generator时不需要解码为String
+     */
+    public void toJson(byte[] proto, int offset, int length, JsonGenerator generator) throws IOException {
+        checkSupported();
+        decodeMessage(root, proto, offset, length, generator, DECODE_STATE.get(), 0);
+    }
+
+    private void checkSupported() {
+        if (!supported) {
+            throw new UnsupportedOperationException(
+                    "Message type " + root.type.getFullName() + " requires JsonFormat (well-known types or groups)");
+        }
+    }
+
+    // ---------------------------------------------------------------- 编译字段表
+
+    private static MessagePlan compile(Descriptors.Descriptor type, Map<Descriptors.Descriptor, MessagePlan> plans) {
+        MessagePlan plan = plans.get(type);
+        if (plan != null) {
+            return plan;
+        }
+        plan = new MessagePlan(type);
+        plans.put(type, plan);
+
+        // well-known类型在JSON中有特殊格式
+        if (type.getFile().getPackage().equals("google.protobuf")) {
+            plan.supported = false;
+        }
+
+        // 与JsonFormat一致，按字段编号顺序输出
+        List<Descriptors.FieldDescriptor> fields = new ArrayList<>(type.getFields());
+        fields.sort(Comparator.comparingInt(Descriptors.FieldDescriptor::getNumber));
+
+        plan.fields = new FieldPlan[fields.size()];
+        // 每个字段和每个oneof各占一位，记录解析JSON时已设置的字段
+        plan.setBits = fields.size() + type.getOneofs().size();
+        int maxNumber = 0;
+        for (int i = 0; i < plan.fields.length; i++) {
+            Descriptors.FieldDescriptor field = fields.get(i);
+            FieldPlan fieldPlan = new FieldPlan(field, i);
+            Descriptors.OneofDescriptor oneof = field.getRealContainingOneof();
+            fieldPlan.oneofBit = oneof == null ? -1 : plan.fields.length + oneof.getIndex();
+            plan.fields[i] = fieldPlan;
+            plan.byJsonName.put(field.getJsonName(), fieldPlan);
+            plan.byJsonName.put(field.getName(), fieldPlan);
+            maxNumber = Math.max(maxNumber, field.getNumber());
+
+            if (field.getType() == Descriptors.FieldDescriptor.Type.GROUP) {
+                plan.supported = false;
+            } else if (field.getType() == Descriptors.FieldDescriptor.Type.MESSAGE) {
+                fieldPlan.message = compile(field.getMessageType(), plans);
+            }
+        }
+
+        if (maxNumber <= MAX_DENSE_FIELD_NUMBER) {
+            plan.byNumber = new FieldPlan[maxNumber + 1];
+            for (FieldPlan fieldPlan : plan.fields) {
+                plan.byNumber[fieldPlan.number] = fieldPlan;
+            }
+        } else {
+            plan.byNumberMap = new HashMap<>();
+            for (FieldPlan fieldPlan : plan.fields) {
+                plan.byNumberMap.put(fieldPlan.number, fieldPlan);
+            }
+        }
+
+        // map字段的键值字段在其entry类型编译完成后才能取到
+        for (FieldPlan fieldPlan : plan.fields) {
+            if (fieldPlan.map) {
+                fieldPlan.mapKey = fieldPlan.message.find(1);
+                fieldPlan.mapValue = fieldPlan.message.find(2);
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * 一个消息类型的字段表
+     */
+    private static final class MessagePlan {
+        final Descriptors.Descriptor type;
+        final Map<String, FieldPlan> byJsonName = new HashMap<>();
+        FieldPlan[] fields;
+        FieldPlan[] byNumber;
+        Map<Integer, FieldPlan> byNumberMap;
+        int setBits;
+        boolean supported = true;
+
+        MessagePlan(Descriptors.Descriptor type) {
+            this.type = type;
+        }
+
+        FieldPlan find(int number) {
+            if (byNumber != null) {
+                return number < byNumber.length ? byNumber[number] : null;
+            }
+            return byNumberMap.get(number);
+        }
+    }
+
+    /**
+     * 单个字段的预计算信息
+     */
+    private static final class FieldPlan {
+        final Descriptors.FieldDescriptor field;
+        final int index;
+        final int number;
+        final Descriptors.FieldDescriptor.Type type;
+        final SerializedString jsonName;
+        final boolean repeated;
+        final boolean packable;
+        final boolean map;
+        final int wireType;
+        // proto3中没有presence的标量字段，默认值不编码也不输出
+        final boolean implicitPresence;
+        // 所属oneof在MessagePlan.setBits中的位置，不属于oneof时为-1
+        int oneofBit;
+        MessagePlan message;
+        FieldPlan mapKey;
+        FieldPlan mapValue;
+
+        FieldPlan(Descriptors.FieldDescriptor field, int index) {
+            this.field = field;
+            this.index = index;
+            this.number = field.getNumber();
+            this.type = field.getType();
+            this.jsonName = new SerializedString(field.getJsonName());
+            this.repeated = field.isRepeated();
+            this.packable = field.isPackable();
+            this.map = field.isMapField();
+            this.wireType = wireType(field.getType());
+            this.implicitPresence = !field.isRepeated() && !field.hasPresence();
+        }
+    }
+
+    // ---------------------------------------------------------------- JSON -> protobuf
+
+    /**
+     * 读取对象中的字段直到END_OBJECT，当前token为START_OBJECT
+     */
+    private static void encodeMessage(MessagePlan plan, JsonParser parser, EncodeState state, int depth)
+            throws IOException {
+        Level level = state.level(depth);
+        CodedOutputStream out = level.out;
+        level.clearSet(plan.setBits);
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+            FieldPlan field = plan.byJsonName.get(parser.currentName());
+            token = parser.nextToken();
+            if (field == null) {
+                // 与JsonFormat.parser().ignoringUnknownFields()一致
+                parser.skipChildren();
+                continue;
+            }
+            // 与JsonFormat一致：字段（包括分别以proto名和JSON名出现）只能设置一次，oneof中只能设置一个字段，null不算设置
+            if (level.isSet(field.index)) {
+                throw invalid("Field " + field.field.getFullName() + " has already been set.");
+            }
+            if (token == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            level.markSet(field.index);
+            if (field.oneofBit >= 0) {
+                if (level.isSet(field.oneofBit)) {
+                    throw invalid("Cannot set field " + field.field.getFullName() + " because another field "
+                            + setOneofField(plan, level, field).field.getFullName()
+                            + " belonging to the same oneof has already been set ");
+                }
+                level.markSet(field.oneofBit);
+            }
+
+            if (field.map) {
+                encodeMap(field, parser, state, depth);
+            } else if (field.repeated) {
+                encodeRepeated(field, parser, state, depth);
+            } else if (field.type == Descriptors.FieldDescriptor.Type.MESSAGE) {
+                encodeNested(field, parser, state, depth);
+            } else {
+                encodeScalar(field, parser, out, true, field.implicitPresence);
+            }
+        }
+        if (token != JsonToken.END_OBJECT) {
+            throw invalid("Expect field name in " + plan.type.getFullName() + " but got: " + token);
+        }
+    }
+
+    private static FieldPlan setOneofField(MessagePlan plan, Level level, FieldPlan field) {
+        for (FieldPlan other : plan.fields) {
+            if (other != field && other.oneofBit == field.oneofBit && level.isSet(other.index)) {
+                return other;
+            }
+        }
+        throw new IllegalStateException("No field set in oneof of " + field.field.getFullName());
+    }
+
+    /**
+     * 嵌套消息先写入下一层缓冲区，得到长度后再写入当前层
+     */
+    private static void encodeNested(FieldPlan field, JsonParser parser, EncodeState state, int depth)
+            throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw invalid("Expect message object for field " + field.field.getFullName()
+                    + " but got: " + parser.currentToken());
+        }
+        Level child = state.level(depth + 1);
+        encodeMessage(field.message, parser, state, depth + 1);
+        state.level(depth).writeChild(field.number, child);
+    }
+
+    private static void encodeRepeated(FieldPlan field, JsonParser parser, EncodeState state, int depth)
+            throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            throw invalid("Expect array for repeated field " + field.field.getFullName()
+                    + " but got: " + parser.currentToken());
+        }
+
+        if (field.packable) {
+            // packed编码：全部元素写入下一层缓冲区，作为一个length-delimited字段输出
+            Level child = state.level(depth + 1);
+            while (nextElement(field, parser)) {
+                encodeScalar(field, parser, child.out, false, false);
+            }
+            if (child.flushedSize() > 0) {
+                state.level(depth).writeChild(field.number, child);
+            } else {
+                child.reset();
+            }
+            return;
+        }
+
+        CodedOutputStream out = state.level(depth).out;
+        while (nextElement(field, parser)) {
+            if (field.type == Descriptors.FieldDescriptor.Type.MESSAGE) {
+                encodeNested(field, parser, state, depth);
+            } else {
+                encodeScalar(field, parser, out, true, false);
+            }
+        }
+    }
+
+    private static boolean nextElement(FieldPlan field, JsonParser parser) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.END_ARRAY) {
+            return false;
+        }
+        if (token == JsonToken.VALUE_NULL || token == null) {
+            throw invalid("Repeated field " + field.field.getFullName() + " contains invalid element: " + token);
+        }
+        return true;
+    }
+
+    /**
+     * map字段在JSON中是对象，每个键值对编码为一个entry消息
+     */
+    private static void encodeMap(FieldPlan field, JsonParser parser, EncodeState state, int depth)
+            throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw invalid("Expect object for map field " + field.field.getFullName()
+                    + " but got: " + parser.currentToken());
+        }
+
+        Level entry = state.level(depth + 1);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = parser.currentName();
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.VALUE_NULL) {
+                throw invalid("Map field " + field.field.getFullName() + " contains null value for key: " + key);
+            }
+
+            encodeMapKey(field.mapKey, key, entry.out);
+            if (field.mapValue.type == Descriptors.FieldDescriptor.Type.MESSAGE) {
+                encodeNested(field.mapValue, parser, state, depth + 1);
+            } else {
+                encodeScalar(field.mapValue, parser, entry.out, true, false);
+            }
+            state.level(depth).writeChild(field.number, entry);
+        }
+    }
+
+    private static void encodeMapKey(FieldPlan key, String text, CodedOutputStream out) throws IOException {
+        int n = key.number;
+        try {
+            switch (key.type) {
+                case STRING:
+                    out.writeString(n, text);
+                    return;
+                case BOOL:
+                    if (!text.equals("true") && !text.equals("false")) {
+                        throw invalid("Invalid bool map key: " + text);
+                    }
+                    out.writeBool(n, text.equals("true"));
+                    return;
+                case INT32:
+                    out.writeInt32(n, Integer.parseInt(text));
+                    return;
+                case SINT32:
+                    out.writeSInt32(n, Integer.parseInt(text));
+                    return;
+                case SFIXED32:
+                    out.writeSFixed32(n, Integer.parseInt(text));
+                    return;
+                case UINT32:
+                    out.writeUInt32(n, Integer.parseUnsignedInt(text));
+                    return;
+                case FIXED32:
+                    out.writeFixed32(n, Integer.parseUnsignedInt(text));
+                    return;
+                case INT64:
+                    out.writeInt64(n, Long.parseLong(text));
+                    return;
+                case SINT64:
+                    out.writeSInt64(n, Long.parseLong(text));
+                    return;
+                case SFIXED64:
+                    out.writeSFixed64(n, Long.parseLong(text));
+                    return;
+                case UINT64:
+                    out.writeUInt64(n, Long.parseUnsignedLong(text));
+                    return;
+                case FIXED64:
+                    out.writeFixed64(n, Long.parseUnsignedLong(text));
+                    return;
+                default:
+                    throw invalid("Unsupported map key type: " + key.type);
+            }
+        } catch (NumberFormatException e) {
+            throw invalid("Invalid " + key.type + " map key: " + text);
+        }
+    }
+
+    /**
+     * 写入一个标量值，tagged为false时只写值本身（packed编码）
+     */
+    private static void encodeScalar(FieldPlan field, JsonParser parser, CodedOutputStream out,
+                                     boolean tagged, boolean skipDefault) throws IOException {
+        int n = field.number;
+        switch (field.type) {
+            case INT32: {
+                int value = (int) readLong(field, parser, Integer.MIN_VALUE, Integer.MAX_VALUE);
+                if (skipDefault && value == 0) return;
+                if (tagged) out.writeInt32(n, value); else out.writeInt32NoTag(value);
+                return;
+            }
+            case SINT32: {
+                int value = (int) readLong(field, parser, Integer.MIN_VALUE, Integer.MAX_VALUE);
+                if (skipDefault && value == 0) return;
+                if (tagged) out.writeSInt32(n, value); else out.writeSInt32NoTag(value);
+                return;
+            }
+            case SFIXED32: {
+                int value = (int) readLong(field, parser, Integer.MIN_VALUE, Integer.MAX_VALUE);
+                if (skipDefault && value == 0) return;
+                if (tagged) out.writeSFixed32(n, value); else out.writeSFixed32NoTag(value);
+                return;
+            }
+            case UINT32: {
+                int value = (int) readLong(field, parser, 0, 0xFFFFFFFFL);
+                if (skipDefault && value == 0) return;
+                if (tagged) out.writeUInt32(n, value); else out.writeUInt32NoTag(value);
+                return;
+            }
+            case FIXED32: {
+                int value = (int) readLong(field, parser, 0, 0xFFFFFFFFL);
+                if (skipDefault && value == 0) return;
+                if (tagged) out.writeFixed32(n, value); else out.writeFixed32NoTag(value);
+                return;
+            }
+            case INT64: {
+                long value = readLong(field, parser, Long.MIN_VALUE, Long.MAX_VALUE);
+                if (skipDefault && value == 0) return;
+                if (tagged) out.writeInt64(n, value); else out.writeInt64NoTag(value);
+                return;
+            }
+            case SINT64: {
+                long value = readLong(field, parser, Long.MIN_VALUE, Long.MAX_VALUE);
+                if (skipDefault && value == 0) return;
+                if (tagged) out.writeSInt64(n, value); else out.writeSInt64NoTag(value);
+                return;
+            }
+            case SFIXED64: {
+                long value = readLong(field, parser, Long.MIN_VALUE, Long.MAX_VALUE);
+                if (skipDefault && value == 0) return;
+                if (tagged) out.writeSFixed64(n, value); else out.writeSFixed64NoTag(value);
+                return;
+            }
+            case UINT64: {
+                long value = readUnsignedLong(field, parser);
+                if (skipDefault && value == 0) return;
+                if (tagged) out.writeUInt64(n, value); else out.writeUInt64NoTag(value);
+                return;
+            }
+            case FIXED64: {
+                long value = readUnsignedLong(field, parser);
+                if (skipDefault && value == 0) return;
+                if (tagged) out.writeFixed64(n, value); else out.writeFixed64NoTag(value);
+                return;
+            }
+            case FLOAT: {
+                float value = readFloat(field, parser);
+                if (skipDefault && Float.floatToRawIntBits(value) == 0) return;
+                if (tagged) out.writeFloat(n, value); else out.writeFloatNoTag(value);
+                return;
+            }
+            case DOUBLE: {
+                double value = readDouble(field, parser);
+                if (skipDefault && Double.doubleToRawLongBits(value) == 0) return;
+                if (tagged) out.writeDouble(n, value); else out.writeDoubleNoTag(value);
+                return;
+            }
+            case BOOL: {
+                boolean value = readBool(field, parser);
+                if (skipDefault && !value) return;
+                if (tagged) out.writeBool(n, value); else out.writeBoolNoTag(value);
+                return;
+            }
+            case ENUM: {
+                Descriptors.EnumValueDescriptor value = readEnum(field, parser);
+                // 未知的枚举名称与未知字段一样忽略
+                if (value == null || (skipDefault && value.getNumber() == 0)) return;
+                if (tagged) out.writeEnum(n, value.getNumber()); else out.writeEnumNoTag(value.getNumber());
+                return;
+            }
+            case STRING: {
+                expect(field, parser, JsonToken.VALUE_STRING);
+                String value = parser.getText();
+                if (skipDefault && value.isEmpty()) return;
+                out.writeString(n, value);
+                return;
+            }
+            case BYTES: {
+                expect(field, parser, JsonToken.VALUE_STRING);
+                byte[] value = parser.getBinaryValue();
+                if (skipDefault && value.length == 0) return;
+                out.writeByteArray(n, value);
+                return;
+            }
+            default:
+                throw invalid("Unsupported field type " + field.type + " for field " + field.field.getFullName());
+        }
+    }
+
+    private static void expect(FieldPlan field, JsonParser parser, JsonToken expected) throws IOException {
+        if (parser.currentToken() != expected) {
+            throw invalid("Expect " + expected + " for field " + field.field.getFullName()
+                    + " but got: " + parser.currentToken());
+        }
+    }
+
+    /**
+     * 读取整数，接受JSON数字、整数值的浮点数以及数字字符串
+     */
+    private static long readLong(FieldPlan field, JsonParser parser, long min, long max) throws IOException {
+        long value;
+        try {
+            switch (parser.currentToken()) {
+                case VALUE_NUMBER_INT:
+                    if (parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER) {
+                        throw outOfRange(field, parser.getText());
+                    }
+                    value = parser.getLongValue();
+                    break;
+                case VALUE_NUMBER_FLOAT:
+                    value = parser.getDecimalValue().longValueExact();
+                    break;
+                case VALUE_STRING:
+                    value = parseLongText(parser.getText());
+                    break;
+                default:
+                    throw invalid("Expect integer for field " + field.field.getFullName()
+                            + " but got: " + parser.currentToken());
+            }
+        } catch (ArithmeticException | NumberFormatException e) {
+            throw invalid("Invalid integer for field " + field.field.getFullName() + ": " + parser.getText());
+        }
+        if (value < min || value > max) {
+            throw outOfRange(field, parser.getText());
+        }
+        return value;
+    }
+
+    private static long parseLongText(String text) {
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            return new BigDecimal(text).longValueExact();
+        }
+    }
+
+    private static final BigInteger MAX_UINT64 = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+
+    private static long readUnsignedLong(FieldPlan field, JsonParser parser) throws IOException {
+        BigInteger value;
+        try {
+            switch (parser.currentToken()) {
+                case VALUE_NUMBER_INT:
+                    if (parser.getNumberType() != JsonParser.NumberType.BIG_INTEGER) {
+                        long small = parser.getLongValue();
+                        if (small < 0) {
+                            throw outOfRange(field, parser.getText());
+                        }
+                        return small;
+                    }
+                    value = parser.getBigIntegerValue();
+                    break;
+                case VALUE_NUMBER_FLOAT:
+                    value = parser.getDecimalValue().toBigIntegerExact();
+                    break;
+                case VALUE_STRING:
+                    value = new BigDecimal(parser.getText()).toBigIntegerExact();
+                    break;
+                default:
+                    throw invalid("Expect integer for field " + field.field.getFullName()
+                            + " but got: " + parser.currentToken());
+            }
+        } catch (ArithmeticException | NumberFormatException e) {
+            throw invalid("Invalid integer for field " + field.field.getFullName() + ": " + parser.getText());
+        }
+        if (value.signum() < 0 || value.compareTo(MAX_UINT64) > 0) {
+            throw outOfRange(field, parser.getText());
+        }
+        return value.longValue();
+    }
+
+    private static double readDouble(FieldPlan field, JsonParser parser) throws IOException {
+        switch (parser.currentToken()) {
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_STRING:
+                String text = parser.getText();
+                if (text.equals("NaN")) return Double.NaN;
+                if (text.equals("Infinity")) return Double.POSITIVE_INFINITY;
+                if (text.equals("-Infinity")) return Double.NEGATIVE_INFINITY;
+                try {
+                    return Double.parseDouble(text);
+                } catch (NumberFormatException e) {
+                    throw invalid("Invalid number for field " + field.field.getFullName() + ": " + text);
+                }
+            default:
+                throw invalid("Expect number for field " + field.field.getFullName()
+                        + " but got: " + parser.currentToken());
+        }
+    }
+
+    private static float readFloat(FieldPlan field, JsonParser parser) throws IOException {
+        double value = readDouble(field, parser);
+        // 与JsonFormat相同，允许略微超出float范围的舍入误差
+        if (!Double.isInfinite(value) && Math.abs(value) > Float.MAX_VALUE * (1.0 + 1e-6)) {
+            throw outOfRange(field, parser.getText());
+        }
+        return (float) value;
+    }
+
+    private static boolean readBool(FieldPlan field, JsonParser parser) throws IOException {
+        switch (parser.currentToken()) {
+            case VALUE_TRUE:
+                return true;
+            case VALUE_FALSE:
+                return false;
+            case VALUE_STRING:
+                if (parser.getText().equals("true")) return true;
+                if (parser.getText().equals("false")) return false;
+                break;
+            default:
+                break;
+        }
+        throw invalid("Invalid bool for field " + field.field.getFullName() + ": " + parser.getText());
+    }
+
+    private static Descriptors.EnumValueDescriptor readEnum(FieldPlan field, JsonParser parser) throws IOException {
+        Descriptors.EnumDescriptor enumType = field.field.getEnumType();
+        switch (parser.currentToken()) {
+            case VALUE_STRING:
+                return enumType.findValueByName(parser.getText());
+            case VALUE_NUMBER_INT:
+                int number = (int) readLong(field, parser, Integer.MIN_VALUE, Integer.MAX_VALUE);
+                Descriptors.EnumValueDescriptor value = enumType.findValueByNumber(number);
+                // 开放枚举保留未知数值
+                return value != null || enumType.isClosed() ? value : enumType.findValueByNumberCreatingIfUnknown(number);
+            default:
+                throw invalid("Invalid enum for field " + field.field.getFullName() + ": " + parser.getText());
+        }
+    }
+
+    private static InvalidProtocolBufferException outOfRange(FieldPlan field, String text) {
+        return invalid("Out of range value for field " + field.field.getFullName() + ": " + text);
+    }
+
+    private static InvalidProtocolBufferException invalid(String message) {
+        return new InvalidProtocolBufferException(message);
+    }
+
+    // ---------------------------------------------------------------- protobuf -> JSON
+
+    private static void decodeMessage(MessagePlan plan, byte[] buffer, int offset, int length,
+                                      JsonGenerator generator, DecodeState state, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw invalid("Message nesting too deep: " + plan.type.getFullName());
+        }
+
+        // 第一遍扫描记录各字段出现的位置（标量直接记录值），第二遍按字段编号顺序输出
+        Occurrences occurrences = state.occurrences(depth);
+        occurrences.reset(plan.fields.length);
+        CodedInputStream in = CodedInputStream.newInstance(buffer, offset, length);
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            FieldPlan field = plan.find(WireFormat.getTagFieldNumber(tag));
+            if (field == null) {
+                in.skipField(tag);
+                continue;
+            }
+            int wireType = WireFormat.getTagWireType(tag);
+            if (wireType == WireFormat.WIRETYPE_LENGTH_DELIMITED && field.packable) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                while (in.getBytesUntilLimit() > 0) {
+                    occurrences.add(field.index, readRaw(in, field.wireType, offset));
+                }
+                in.popLimit(limit);
+            } else if (wireType == field.wireType) {
+                occurrences.add(field.index, readRaw(in, wireType, offset));
+            } else {
+                throw invalid("Wire type " + wireType + " does not match field " + field.field.getFullName());
+            }
+        }
+        occurrences.sort();
+
+        generator.writeStartObject();
+        for (FieldPlan field : plan.fields) {
+            int from = occurrences.start(field.index);
+            int to = occurrences.end(field.index);
+            if (from == to) {
+                continue;
+            }
+
+            if (field.map) {
+                generator.writeFieldName(field.jsonName);
+                generator.writeStartObject();
+                for (int i = from; i < to; i++) {
+                    long raw = occurrences.value(i);
+                    decodeMapEntry(field, buffer, start(raw), length(raw), generator, state, depth + 1);
+                }
+                generator.writeEndObject();
+            } else if (field.repeated) {
+                generator.writeFieldName(field.jsonName);
+                generator.writeStartArray();
+                for (int i = from; i < to; i++) {
+                    writeValue(field, occurrences.value(i), buffer, generator, state, depth);
+                }
+                generator.writeEndArray();
+            } else if (field.type == Descriptors.FieldDescriptor.Type.MESSAGE && to - from > 1) {
+                // 同一消息字段出现多次时按protobuf语义合并：拼接后的字节与合并结果等价
+                ByteArrayOutputStream merged = new ByteArrayOutputStream();
+                for (int i = from; i < to; i++) {
+                    long raw = occurrences.value(i);
+                    merged.write(buffer, start(raw), length(raw));
+                }
+                byte[] bytes = merged.toByteArray();
+                generator.writeFieldName(field.jsonName);
+                decodeMessage(field.message, bytes, 0, bytes.length, generator, state, depth + 1);
+            } else {
+                // 标量字段后出现的值覆盖先出现的值
+                long raw = occurrences.value(to - 1);
+                if (field.implicitPresence && isDefault(field, raw)) {
+                    continue;
+                }
+                generator.writeFieldName(field.jsonName);
+                writeValue(field, raw, buffer, generator, state, depth);
+            }
+        }
+        generator.writeEndObject();
+    }
+
+    private static void decodeMapEntry(FieldPlan field, byte[] buffer, int offset, int length,
+                                       JsonGenerator generator, DecodeState state, int depth) throws IOException {
+        long key = 0;
+        long value = 0;
+        boolean hasValue = false;
+        CodedInputStream in = CodedInputStream.newInstance(buffer, offset, length);
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            int number = WireFormat.getTagFieldNumber(tag);
+            if (number == 1) {
+                key = readRaw(in, WireFormat.getTagWireType(tag), offset);
+            } else if (number == 2) {
+                value = readRaw(in, WireFormat.getTagWireType(tag), offset);
+                hasValue = true;
+            } else {
+                in.skipField(tag);
+            }
+        }
+
+        generator.writeFieldName(mapKeyText(field.mapKey, key, buffer));
+        if (hasValue) {
+            writeValue(field.mapValue, value, buffer, generator, state, depth);
+        } else if (field.mapValue.type == Descriptors.FieldDescriptor.Type.MESSAGE) {
+            generator.writeStartObject();
+            generator.writeEndObject();
+        } else {
+            writeValue(field.mapValue, 0, buffer, generator, state, depth);
+        }
+    }
+
+    private static String mapKeyText(FieldPlan key, long raw, byte[] buffer) {
+        switch (key.type) {
+            case STRING:
+                return new String(buffer, start(raw), length(raw), StandardCharsets.UTF_8);
+            case BOOL:
+                return raw != 0 ? "true" : "false";
+            case INT32:
+            case SFIXED32:
+                return Integer.toString((int) raw);
+            case SINT32:
+                return Integer.toString(CodedInputStream.decodeZigZag32((int) raw));
+            case UINT32:
+            case FIXED32:
+                return Long.toString(raw & 0xFFFFFFFFL);
+            case SINT64:
+                return Long.toString(CodedInputStream.decodeZigZag64(raw));
+            case UINT64:
+            case FIXED64:
+                return Long.toUnsignedString(raw);
+            default:
+                return Long.toString(raw);
+        }
+    }
+
+    /**
+     * 读取一个字段值：varint和定长类型返回原始位，length-delimited类型返回(起始偏移 << 32 | 长度)
+     */
+    private static long readRaw(CodedInputStream in, int wireType, int offset) throws IOException {
+        switch (wireType) {
+            case WireFormat.WIRETYPE_VARINT:
+                return in.readRawVarint64();
+            case WireFormat.WIRETYPE_FIXED64:
+                return in.readRawLittleEndian64();
+            case WireFormat.WIRETYPE_FIXED32:
+                return in.readRawLittleEndian32() & 0xFFFFFFFFL;
+            case WireFormat.WIRETYPE_LENGTH_DELIMITED:
+                int length = in.readRawVarint32();
+                int start = offset + in.getTotalBytesRead();
+                in.skipRawBytes(length);
+                return ((long) start << 32) | (length & 0xFFFFFFFFL);
+            default:
+                throw invalid("Unsupported wire type: " + wireType);
+        }
+    }
+
+    private static int start(long raw) {
+        return (int) (raw >>> 32);
+    }
+
+    private static int length(long raw) {
+        return (int) raw;
+    }
+
+    private static int wireType(Descriptors.FieldDescriptor.Type type) {
+        switch (type) {
+            case STRING:
+            case BYTES:
+            case MESSAGE:
+            case GROUP:
+                return WireFormat.WIRETYPE_LENGTH_DELIMITED;
+            case FIXED32:
+            case SFIXED32:
+            case FLOAT:
+                return WireFormat.WIRETYPE_FIXED32;
+            case FIXED64:
+            case SFIXED64:
+            case DOUBLE:
+                return WireFormat.WIRETYPE_FIXED64;
+            default:
+                return WireFormat.WIRETYPE_VARINT;
+        }
+    }
+
+    private static boolean isDefault(FieldPlan field, long raw) {
+        switch (field.type) {
+            case STRING:
+            case BYTES:
+                return length(raw) == 0;
+            case FLOAT:
+                return (int) raw == 0;
+            default:
+                return raw == 0;
+        }
+    }
+
+    private static void writeValue(FieldPlan field, long raw, byte[] buffer, JsonGenerator generator,
+                                   DecodeState state, int depth) throws IOException {
+        switch (field.type) {
+            case INT32:
+            case SFIXED32:
+                generator.writeNumber((int) raw);
+                return;
+            case SINT32:
+                generator.writeNumber(CodedInputStream.decodeZigZag32((int) raw));
+                return;
+            case UINT32:
+            case FIXED32:
+                generator.writeNumber(raw & 0xFFFFFFFFL);
+                return;
+            case INT64:
+            case SFIXED64:
+                generator.writeString(Long.toString(raw));
+                return;
+            case SINT64:
+                generator.writeString(Long.toString(CodedInputStream.decodeZigZag64(raw)));
+                return;
+            case UINT64:
+            case FIXED64:
+                generator.writeString(Long.toUnsignedString(raw));
+                return;
+            case FLOAT: {
+                float value = Float.intBitsToFloat((int) raw);
+                if (Float.isNaN(value) || Float.isInfinite(value)) {
+                    generator.writeString(Float.toString(value));
+                } else {
+                    generator.writeNumber(value);
+                }
+                return;
+            }
+            case DOUBLE: {
+                double value = Double.longBitsToDouble(raw);
+                if (Double.isNaN(value) || Double.isInfinite(value)) {
+                    generator.writeString(Double.toString(value));
+                } else {
+                    generator.writeNumber(value);
+                }
+                return;
+            }
+            case BOOL:
+                generator.writeBoolean(raw != 0);
+                return;
+            case ENUM: {
+                Descriptors.EnumValueDescriptor value = field.field.getEnumType().findValueByNumber((int) raw);
+                if (value != null) {
+                    generator.writeString(value.getName());
+                } else {
+                    generator.writeNumber((int) raw);
+                }
+                return;
+            }
+            case STRING:
+                // 只有基于OutputStream的generator支持直接写入UTF-8字节；按JsonFormat转义时，
+                // 需要额外转义的字符只能通过writeString输出
+                if (generator.getOutputTarget() instanceof OutputStream
+                        && (generator.getCharacterEscapes() == null || !needsExtraEscape(buffer, start(raw), length(raw)))) {
+                    generator.writeUTF8String(buffer, start(raw), length(raw));
+                } else {
+                    generator.writeString(new String(buffer, start(raw), length(raw), StandardCharsets.UTF_8));
+                }
+                return;
+            case BYTES:
+                generator.writeBinary(buffer, start(raw), length(raw));
+                return;
+            case MESSAGE:
+                decodeMessage(field.message, buffer, start(raw), length(raw), generator, state, depth + 1);
+                return;
+            default:
+                throw invalid("Unsupported field type " + field.type + " for field " + field.field.getFullName());
+        }
+    }
+
+    /**
+     * UTF-8字节中是否含有JsonFormatEscapes额外转义的字符
+     */
+    private static boolean needsExtraEscape(byte[] bytes, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            int b = bytes[i];
+            if (b >= 0 && (b < 0x20 || JsonFormatEscapes.HTML_CHARS.indexOf(b) >= 0)) {
+                return true;
+            }
+            // U+2028和U+2029的UTF-8编码为E2 80 A8和E2 80 A9
+            if (b == (byte) 0xE2 && i + 2 < end && bytes[i + 1] == (byte) 0x80
+                    && (bytes[i + 2] == (byte) 0xA8 || bytes[i + 2] == (byte) 0xA9)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ---------------------------------------------------------------- 与JsonFormat一致的输出格式
+
+    /**
+     * 与JsonFormat.printer()相同的排版：对象每层缩进2个空格，字段名与值之间为": "，
+     * 数组元素在同一行以", "分隔且不增加缩进，空对象输出为"{"换行"}"，换行符固定为\n
+     * 记录对象的嵌套层数，每个generator使用一个实例
+     */
+    private static final class JsonFormatPrettyPrinter implements PrettyPrinter {
+        private static final String NEWLINE_AND_INDENT = "\n" + new String(new char[2 * (MAX_DEPTH + 1)]).replace('\0', ' ');
+
+        private int depth;
+
+        @Override
+        public void writeRootValueSeparator(JsonGenerator generator) {
+        }
+
+        @Override
+        public void writeStartObject(JsonGenerator generator) throws IOException {
+            generator.writeRaw('{');
+            depth++;
+        }
+
+        @Override
+        public void beforeObjectEntries(JsonGenerator generator) throws IOException {
+            newLine(generator);
+        }
+
+        @Override
+        public void writeObjectFieldValueSeparator(JsonGenerator generator) throws IOException {
+            generator.writeRaw(": ");
+        }
+
+        @Override
+        public void writeObjectEntrySeparator(JsonGenerator generator) throws IOException {
+            generator.writeRaw(',');
+            newLine(generator);
+        }
+
+        @Override
+        public void writeEndObject(JsonGenerator generator, int entries) throws IOException {
+            depth--;
+            newLine(generator);
+            generator.writeRaw('}');
+        }
+
+        @Override
+        public void writeStartArray(JsonGenerator generator) throws IOException {
+            generator.writeRaw('[');
+        }
+
+        @Override
+        public void beforeArrayValues(JsonGenerator generator) {
+        }
+
+        @Override
+        public void writeArrayValueSeparator(JsonGenerator generator) throws IOException {
+            generator.writeRaw(", ");
+        }
+
+        @Override
+        public void writeEndArray(JsonGenerator generator, int values) throws IOException {
+            generator.writeRaw(']');
+        }
+
+        private void newLine(JsonGenerator generator) throws IOException {
+            generator.writeRaw(NEWLINE_AND_INDENT, 0, 1 + 2 * Math.min(depth, MAX_DEPTH + 1));
+        }
+    }
+
+    /**
+     * 与JsonFormat（Gson）相同的字符串转义：除JSON要求的转义外，<>&='和U+2028、U+2029也输出为Unicode转义，
+     * 没有简写形式的控制字符同样输出为Unicode转义，十六进制均为小写
+     */
+    private static final class JsonFormatEscapes extends CharacterEscapes {
+        private static final long serialVersionUID = 1L;
+
+        static final JsonFormatEscapes INSTANCE = new JsonFormatEscapes();
+        static final String HTML_CHARS = "<>&='";
+
+        private final int[] asciiEscapes = CharacterEscapes.standardAsciiEscapesForJSON();
+        private final SerializedString[] sequences = new SerializedString[128];
+        private final SerializedString lineSeparator = new SerializedString("\\u2028");
+        private final SerializedString paragraphSeparator = new SerializedString("\\u2029");
+
+        private JsonFormatEscapes() {
+            for (int c = 0; c < 128; c++) {
+                if (asciiEscapes[c] == ESCAPE_STANDARD || HTML_CHARS.indexOf(c) >= 0) {
+                    asciiEscapes[c] = ESCAPE_CUSTOM;
+                    sequences[c] = new SerializedString(String.format("\\u%04x", c));
+                }
+            }
+        }
+
+        @Override
+        public int[] getEscapeCodesForAscii() {
+            return asciiEscapes;
+        }
+
+        @Override
+        public SerializableString getEscapeSequence(int ch) {
+            if (ch < 128) {
+                return sequences[ch];
+            }
+            if (ch == 0x2028) {
+                return lineSeparator;
+            }
+            return ch == 0x2029 ? paragraphSeparator : null;
+        }
+    }
+
+    // ---------------------------------------------------------------- 线程复用的缓冲区
+
+    /**
+     * 可直接访问内部数组的字节缓冲区
+     */
+    private static final class ByteSink extends OutputStream {
+        byte[] bytes = new byte[256];
+        int size;
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(size + 1);
+            bytes[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity(size + len);
+            System.arraycopy(b, off, bytes, size, len);
+            size += len;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+    /**
+     * 一层消息的编码缓冲区
+     */
+    private static final class Level {
+        final ByteSink sink = new ByteSink();
+        final CodedOutputStream out = CodedOutputStream.newInstance(sink, 4096);
+        // 本层消息已设置的字段和oneof，位置见MessagePlan.setBits
+        long[] set = new long[1];
+
+        void clearSet(int bits) {
+            int words = (bits + 63) >>> 6;
+            if (set.length < words) {
+                set = new long[words];
+            } else {
+                Arrays.fill(set, 0, words, 0L);
+            }
+        }
+
+        boolean isSet(int bit) {
+            return (set[bit >>> 6] & (1L << bit)) != 0;
+        }
+
+        void markSet(int bit) {
+            set[bit >>> 6] |= 1L << bit;
+        }
+
+        int flushedSize() throws IOException {
+            out.flush();
+            return sink.size;
+        }
+
+        /**
+         * 将下一层已编码的内容作为length-delimited字段写入本层，并清空下一层
+         */
+        void writeChild(int number, Level child) throws IOException {
+            int size = child.flushedSize();
+            out.writeTag(number, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            out.writeUInt32NoTag(size);
+            out.writeRawBytes(child.sink.bytes, 0, size);
+            child.sink.size = 0;
+        }
+
+        void reset() throws IOException {
+            out.flush();
+            sink.size = 0;
+            if (sink.bytes.length > MAX_RETAINED_BUFFER) {
+                sink.bytes = new byte[256];
+            }
+        }
+    }
+
+    private static final class EncodeState {
+        Level[] levels = new Level[4];
+
+        Level level(int depth) throws InvalidProtocolBufferException {
+            if (depth > MAX_DEPTH) {
+                throw invalid("Message nesting too deep");
+            }
+            if (depth >= levels.length) {
+                levels = Arrays.copyOf(levels, Math.max(depth + 1, levels.length * 2));
+            }
+            if (levels[depth] == null) {
+                levels[depth] = new Level();
+            }
+            return levels[depth];
+        }
+
+        /**
+         * 一次转换结束（包括异常结束）后清空所有层，避免残留数据进入下一次转换
+         */
+        void release() throws IOException {
+            for (Level level : levels) {
+                if (level != null) {
+                    level.reset();
+                }
+            }
+        }
+    }
+
+    /**
+     * 一层消息中各字段出现的值，按字段序号做计数排序后分组读取
+     */
+    private static final class Occurrences {
+        int[] fields = new int[16];
+        long[] values = new long[16];
+        long[] sorted = new long[16];
+        int[] bounds = new int[9];
+        int count;
+        int fieldCount;
+
+        void reset(int fieldCount) {
+            this.count = 0;
+            this.fieldCount = fieldCount;
+            if (bounds.length < fieldCount + 2) {
+                bounds = new int[fieldCount + 2];
+            } else {
+                Arrays.fill(bounds, 0, fieldCount + 2, 0);
+            }
+        }
+
+        void add(int field, long value) {
+            if (count == fields.length) {
+                fields = Arrays.copyOf(fields, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            fields[count] = field;
+            values[count] = value;
+            count++;
+            bounds[field + 2]++;
+        }
+
+        /**
+         * 计数排序，完成后第i个字段的值位于sorted[bounds[i]]到sorted[bounds[i + 1]]之间
+         */
+        void sort() {
+            for (int i = 2; i < fieldCount + 2; i++) {
+                bounds[i] += bounds[i - 1];
+            }
+            if (sorted.length < count) {
+                sorted = new long[values.length];
+            }
+            // 前缀和之后bounds[i + 1]为第i个字段的起始位置，放置时作为游标递增，结束后正好等于结束位置
+            for (int i = 0; i < count; i++) {
+                sorted[bounds[fields[i] + 1]++] = values[i];
+            }
+        }
+
+        int start(int field) {
+            return bounds[field];
+        }
+
+        int end(int field) {
+            return bounds[field + 1];
+        }
+
+        long value(int index) {
+            return sorted[index];
+        }
+    }
+
+    private static final class DecodeState {
+        Occurrences[] levels = new Occurrences[4];
+
+        Occurrences occurrences(int depth) {
+            if (depth >= levels.length) {
+                levels = Arrays.copyOf(levels, Math.max(depth + 1, levels.length * 2));
+            }
+            if (levels[depth] == null) {
+                levels[depth] = new Occurrences();
+            }
+            return levels[depth];
+        }
+    }
+}
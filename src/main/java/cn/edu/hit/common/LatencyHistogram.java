@@ -0,0 +1,153 @@
+package cn.edu.hit.common;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 并发延迟直方图，按HdrHistogram的方式分桶：小于128的值每个值一个桶，更大的值每翻一倍分为64个桶，相对误差小于1.6%
+ * 记录时只对所在条带的一个桶做原子加，不分配对象；多个线程按线程id分散到不同条带，减少同一缓存行上的竞争
+ * 可记录的最大值为2^40（以纳秒计约18分钟），更大的值计入最后一个桶
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_BITS = SUB_BUCKET_BITS - 1;
+    private static final long MAX_VALUE = (1L << 40) - 1;
+    private static final int BUCKET_COUNT = index(MAX_VALUE) + 1;
+
+    // 每个条带：[0, BUCKET_COUNT)为各桶计数，之后依次为总数、总和、最大值
+    private static final int COUNT = BUCKET_COUNT;
+    private static final int SUM = BUCKET_COUNT + 1;
+    private static final int MAX = BUCKET_COUNT + 2;
+    private static final int STRIPE_LENGTH = BUCKET_COUNT + 3;
+
+    private final AtomicLongArray[] stripes;
+    private final int stripeMask;
+
+    public LatencyHistogram() {
+        int stripeCount = Integer.highestOneBit(Math.min(Runtime.getRuntime().availableProcessors(), 4));
+        this.stripes = new AtomicLongArray[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new AtomicLongArray(STRIPE_LENGTH);
+        }
+        this.stripeMask = stripeCount - 1;
+    }
+
+    /**
+     * 记录一个值，负数按0记录
+     */
+    public void record(long value) {
+        long v = Math.min(Math.max(value, 0), MAX_VALUE);
+        AtomicLongArray stripe = stripes[(int) Thread.currentThread().getId() & stripeMask];
+        stripe.incrementAndGet(index(v));
+        stripe.incrementAndGet(COUNT);
+        stripe.addAndGet(SUM, v);
+        long max = stripe.get(MAX);
+        while (v > max && !stripe.compareAndSet(MAX, max, v)) {
+            max = stripe.get(MAX);
+        }
+    }
+
+    /**
+     * 合并各条带得到当前的统计结果，与并发的record之间不保证原子性
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        long count = 0;
+        long sum = 0;
+        long max = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                counts[i] += stripe.get(i);
+            }
+            count += stripe.get(COUNT);
+            sum += stripe.get(SUM);
+            max = Math.max(max, stripe.get(MAX));
+        }
+        return new Snapshot(counts, count, sum, max);
+    }
+
+    /**
+     * 清空所有计数，与并发的record同时进行时可能丢失少量记录
+     */
+    public void reset() {
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < STRIPE_LENGTH; i++) {
+                stripe.set(i, 0);
+            }
+        }
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_HALF_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * 桶中最大的值
+     */
+    private static long highestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_HALF_BITS) - 1;
+        long sub = index - ((long) shift << SUB_BUCKET_HALF_BITS);
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * 直方图在某一时刻的统计结果
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * 百分位数对应的值（所在桶的上界，不超过最大值），percentile取值0~100
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("Invalid percentile: " + percentile);
+            }
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
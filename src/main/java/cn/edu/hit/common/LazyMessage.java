@@ -0,0 +1,116 @@
+package cn.edu.hit.common;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnsafeByteOperations;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 延迟解析的消息：收到时只保存序列化后的字节，第一次调用getMessage时才解析为DynamicMessage
+ * 代理转发等只需要原始字节的场景不做完整解析；未解析过的消息发送时直接写出原始字节
+ */
+public final class LazyMessage {
+    private final Descriptors.Descriptor type;
+    private final ByteString bytes;
+    private volatile DynamicMessage message;
+
+    private LazyMessage(Descriptors.Descriptor type, ByteString bytes, DynamicMessage message) {
+        this.type = type;
+        this.bytes = bytes;
+        this.message = message;
+    }
+
+    /**
+     * 包装已序列化的消息，bytes在之后不能再被修改
+     */
+    public static LazyMessage wrap(Descriptors.Descriptor type, ByteString bytes) {
+        return new LazyMessage(type, bytes, null);
+    }
+
+    /**
+     * 包装已构建的消息，发送时序列化
+     */
+    public static LazyMessage of(DynamicMessage message) {
+        return new LazyMessage(message.getDescriptorForType(), null, message);
+    }
+
+    public Descriptors.Descriptor getDescriptorForType() {
+        return type;
+    }
+
+    /**
+     * 是否已经解析（或由DynamicMessage创建）
+     */
+    public boolean isParsed() {
+        return message != null;
+    }
+
+    /**
+     * 解析后的消息，只解析一次
+     */
+    public DynamicMessage getMessage() throws InvalidProtocolBufferException {
+        DynamicMessage parsed = message;
+        if (parsed == null) {
+            parsed = DynamicMessage.parseFrom(type, bytes);
+            message = parsed;
+        }
+        return parsed;
+    }
+
+    /**
+     * 序列化后的字节，由包装的字节创建时不复制
+     */
+    public ByteString toByteString() {
+        return bytes != null ? bytes : message.toByteString();
+    }
+
+    public int getSerializedSize() {
+        return bytes != null ? bytes.size() : message.getSerializedSize();
+    }
+
+    /**
+     * 按原始字节收发LazyMessage的序列化器
+     */
+    public static MethodDescriptor.Marshaller<LazyMessage> marshaller(Descriptors.Descriptor type) {
+        return new Marshaller(type);
+    }
+
+    private static final class Marshaller implements MethodDescriptor.Marshaller<LazyMessage> {
+        private final Descriptors.Descriptor type;
+
+        Marshaller(Descriptors.Descriptor type) {
+            this.type = type;
+        }
+
+        @Override
+        public InputStream stream(LazyMessage value) {
+            return new ByteStringStream(value.toByteString());
+        }
+
+        @Override
+        public LazyMessage parse(InputStream stream) {
+            try {
+                ByteString bytes;
+                if (stream instanceof KnownLength) {
+                    // 字节由消息持有，不能使用线程缓冲区，按长度只分配一次
+                    byte[] buffer = new byte[stream.available()];
+                    DynamicMessageMarshaller.readFully(stream, buffer, buffer.length);
+                    bytes = UnsafeByteOperations.unsafeWrap(buffer);
+                } else {
+                    bytes = ByteString.readFrom(stream);
+                }
+                return wrap(type, bytes);
+            } catch (IOException e) {
+                throw Status.INTERNAL.withDescription("Failed to read message bytes").withCause(e)
+                        .asRuntimeException();
+            }
+        }
+    }
+}
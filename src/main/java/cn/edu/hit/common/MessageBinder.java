@@ -0,0 +1,256 @@
+package cn.edu.hit.common;
+
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.Message;
+import com.google.protobuf.MessageOrBuilder;
+
+/**
+ * 消息绑定器，为一个消息类型预先解析字段描述符和嵌套消息类型
+ * 字段访问器提供int/long/double/boolean等基本类型的读写方法，处理请求时不再按名称查找字段，也不需要调用方强制转换
+ * 绑定器与创建它的描述符绑定，proto重新加载后描述符被替换，应随描述符快照重新创建
+ */
+public final class MessageBinder {
+    private final Descriptors.Descriptor type;
+    private final DynamicMessage defaultInstance;
+
+    private MessageBinder(Descriptors.Descriptor type) {
+        this.type = type;
+        this.defaultInstance = DynamicMessage.getDefaultInstance(type);
+    }
+
+    /**
+     * 为消息类型创建绑定器
+     */
+    public static MessageBinder of(Descriptors.Descriptor type) {
+        return new MessageBinder(type);
+    }
+
+    /**
+     * 按名称在proto文件中查找消息类型并创建绑定器
+     */
+    public static MessageBinder of(Descriptors.FileDescriptor file, String messageName) {
+        Descriptors.Descriptor type = file.findMessageTypeByName(messageName);
+        if (type == null) {
+            throw new IllegalArgumentException("Message type not found: " + messageName + " in file: " + file.getName());
+        }
+        return new MessageBinder(type);
+    }
+
+    public Descriptors.Descriptor getType() {
+        return type;
+    }
+
+    public DynamicMessage getDefaultInstance() {
+        return defaultInstance;
+    }
+
+    /**
+     * 创建该类型的消息构建器
+     */
+    public DynamicMessage.Builder newBuilder() {
+        return defaultInstance.newBuilderForType();
+    }
+
+    public IntField intField(String name) {
+        return new IntField(field(name, Descriptors.FieldDescriptor.JavaType.INT));
+    }
+
+    public LongField longField(String name) {
+        return new LongField(field(name, Descriptors.FieldDescriptor.JavaType.LONG));
+    }
+
+    public DoubleField doubleField(String name) {
+        return new DoubleField(field(name, Descriptors.FieldDescriptor.JavaType.DOUBLE));
+    }
+
+    public BoolField boolField(String name) {
+        return new BoolField(field(name, Descriptors.FieldDescriptor.JavaType.BOOLEAN));
+    }
+
+    public StringField stringField(String name) {
+        return new StringField(field(name, Descriptors.FieldDescriptor.JavaType.STRING));
+    }
+
+    /**
+     * 消息字段，嵌套消息类型的绑定器一并创建
+     */
+    public MessageField messageField(String name) {
+        return new MessageField(field(name, Descriptors.FieldDescriptor.JavaType.MESSAGE));
+    }
+
+    /**
+     * repeated消息字段，元素类型的绑定器一并创建
+     */
+    public RepeatedMessageField repeatedMessageField(String name) {
+        return new RepeatedMessageField(field(name, Descriptors.FieldDescriptor.JavaType.MESSAGE, true));
+    }
+
+    private Descriptors.FieldDescriptor field(String name, Descriptors.FieldDescriptor.JavaType javaType) {
+        return field(name, javaType, false);
+    }
+
+    private Descriptors.FieldDescriptor field(String name, Descriptors.FieldDescriptor.JavaType javaType,
+                                              boolean repeated) {
+        Descriptors.FieldDescriptor field = type.findFieldByName(name);
+        if (field == null) {
+            throw new IllegalArgumentException("Field not found: " + name + " in message: " + type.getFullName());
+        }
+        if (field.isRepeated() != repeated || field.isMapField() || field.getJavaType() != javaType) {
+            throw new IllegalArgumentException("Field " + field.getFullName() + " is "
+                    + (field.isRepeated() ? "repeated " : "") + field.getJavaType() + ", not "
+                    + (repeated ? "repeated " : "") + javaType);
+        }
+        return field;
+    }
+
+    /**
+     * 字段访问器基类
+     */
+    public abstract static class Field {
+        final Descriptors.FieldDescriptor descriptor;
+
+        Field(Descriptors.FieldDescriptor descriptor) {
+            this.descriptor = descriptor;
+        }
+
+        public Descriptors.FieldDescriptor getDescriptor() {
+            return descriptor;
+        }
+
+        public boolean has(MessageOrBuilder message) {
+            return message.hasField(descriptor);
+        }
+
+        public void clear(Message.Builder builder) {
+            builder.clearField(descriptor);
+        }
+    }
+
+    public static final class IntField extends Field {
+        IntField(Descriptors.FieldDescriptor descriptor) {
+            super(descriptor);
+        }
+
+        public int get(MessageOrBuilder message) {
+            return (Integer) message.getField(descriptor);
+        }
+
+        public void set(Message.Builder builder, int value) {
+            builder.setField(descriptor, value);
+        }
+    }
+
+    public static final class LongField extends Field {
+        LongField(Descriptors.FieldDescriptor descriptor) {
+            super(descriptor);
+        }
+
+        public long get(MessageOrBuilder message) {
+            return (Long) message.getField(descriptor);
+        }
+
+        public void set(Message.Builder builder, long value) {
+            builder.setField(descriptor, value);
+        }
+    }
+
+    public static final class DoubleField extends Field {
+        DoubleField(Descriptors.FieldDescriptor descriptor) {
+            super(descriptor);
+        }
+
+        public double get(MessageOrBuilder message) {
+            return (Double) message.getField(descriptor);
+        }
+
+        public void set(Message.Builder builder, double value) {
+            builder.setField(descriptor, value);
+        }
+    }
+
+    public static final class BoolField extends Field {
+        BoolField(Descriptors.FieldDescriptor descriptor) {
+            super(descriptor);
+        }
+
+        public boolean get(MessageOrBuilder message) {
+            return (Boolean) message.getField(descriptor);
+        }
+
+        public void set(Message.Builder builder, boolean value) {
+            builder.setField(descriptor, value);
+        }
+    }
+
+    public static final class StringField extends Field {
+        StringField(Descriptors.FieldDescriptor descriptor) {
+            super(descriptor);
+        }
+
+        public String get(MessageOrBuilder message) {
+            return (String) message.getField(descriptor);
+        }
+
+        public void set(Message.Builder builder, String value) {
+            builder.setField(descriptor, value);
+        }
+    }
+
+    public static final class MessageField extends Field {
+        private final MessageBinder binder;
+
+        MessageField(Descriptors.FieldDescriptor descriptor) {
+            super(descriptor);
+            this.binder = new MessageBinder(descriptor.getMessageType());
+        }
+
+        /**
+         * 嵌套消息类型的绑定器
+         */
+        public MessageBinder binder() {
+            return binder;
+        }
+
+        public Message get(MessageOrBuilder message) {
+            return (Message) message.getField(descriptor);
+        }
+
+        public void set(Message.Builder builder, Message value) {
+            builder.setField(descriptor, value);
+        }
+    }
+
+    public static final class RepeatedMessageField extends Field {
+        private final MessageBinder binder;
+
+        RepeatedMessageField(Descriptors.FieldDescriptor descriptor) {
+            super(descriptor);
+            this.binder = new MessageBinder(descriptor.getMessageType());
+        }
+
+        /**
+         * 元素消息类型的绑定器
+         */
+        public MessageBinder binder() {
+            return binder;
+        }
+
+        @Override
+        public boolean has(MessageOrBuilder message) {
+            return count(message) > 0;
+        }
+
+        public int count(MessageOrBuilder message) {
+            return message.getRepeatedFieldCount(descriptor);
+        }
+
+        public Message get(MessageOrBuilder message, int index) {
+            return (Message) message.getRepeatedField(descriptor, index);
+        }
+
+        public void add(Message.Builder builder, Message value) {
+            builder.addRepeatedField(descriptor, value);
+        }
+    }
+}
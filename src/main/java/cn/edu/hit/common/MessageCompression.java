@@ -0,0 +1,169 @@
+package cn.edu.hit.common;
+
+import io.grpc.Codec;
+import io.grpc.CompressorRegistry;
+import io.grpc.DecompressorRegistry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 按方法配置的消息压缩：每个方法使用的编码和最小压缩字节数，序列化后小于该字节数的消息不压缩
+ * 支持gzip（默认压缩级别，压缩率较高）和deflate（zlib格式，BEST_SPEED级别，CPU开销较低）
+ * 服务端和客户端都需要在CompressorRegistry/DecompressorRegistry中注册deflate，NettyTransport创建的builder已注册
+ */
+public class MessageCompression {
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+    public static final String IDENTITY = "identity";
+
+    private static final Codec DEFLATE_CODEC = new FastDeflateCodec();
+    private static final CompressorRegistry COMPRESSORS = newCompressorRegistry();
+    private static final DecompressorRegistry DECOMPRESSORS =
+            DecompressorRegistry.getDefaultInstance().with(DEFLATE_CODEC, true);
+
+    // 完整方法名 -> 压缩设置
+    private final Map<String, Setting> methods = new ConcurrentHashMap<>();
+    private volatile Setting defaultSetting;
+
+    /**
+     * 方法的压缩设置
+     */
+    public static final class Setting {
+        private final String encoding;
+        private final int minBytes;
+
+        Setting(String encoding, int minBytes) {
+            this.encoding = encoding;
+            this.minBytes = minBytes;
+        }
+
+        public String getEncoding() {
+            return encoding;
+        }
+
+        /**
+         * 消息序列化后的字节数达到该值时才压缩
+         */
+        public int getMinBytes() {
+            return minBytes;
+        }
+
+        public boolean shouldCompress(long messageBytes) {
+            return messageBytes >= minBytes;
+        }
+    }
+
+    /**
+     * 设置方法的压缩编码，encoding为identity时该方法不压缩（即使设置了默认编码）
+     *
+     * @param fullMethodName 完整方法名，如user.UserService/ListUsers
+     */
+    public void setCompression(String fullMethodName, String encoding, int minBytes) {
+        methods.put(fullMethodName, newSetting(encoding, minBytes));
+    }
+
+    /**
+     * 取消方法的压缩设置，之后使用默认设置
+     */
+    public void clearCompression(String fullMethodName) {
+        methods.remove(fullMethodName);
+    }
+
+    /**
+     * 未单独设置的方法使用的压缩编码，encoding为null时不压缩
+     */
+    public void setDefaultCompression(String encoding, int minBytes) {
+        defaultSetting = encoding == null ? null : newSetting(encoding, minBytes);
+    }
+
+    /**
+     * 方法的压缩设置，不压缩时返回null
+     */
+    public Setting getSetting(String fullMethodName) {
+        Setting setting = methods.isEmpty() ? null : methods.get(fullMethodName);
+        if (setting == null) {
+            setting = defaultSetting;
+        }
+        return setting == null || setting.encoding.equals(IDENTITY) ? null : setting;
+    }
+
+    private static Setting newSetting(String encoding, int minBytes) {
+        if (!encoding.equals(IDENTITY) && COMPRESSORS.lookupCompressor(encoding) == null) {
+            throw new IllegalArgumentException("Unsupported compression: " + encoding);
+        }
+        if (minBytes < 0) {
+            throw new IllegalArgumentException("Invalid min bytes: " + minBytes);
+        }
+        return new Setting(encoding, minBytes);
+    }
+
+    /**
+     * 包含gzip和deflate的压缩器注册表
+     */
+    public static CompressorRegistry compressorRegistry() {
+        return COMPRESSORS;
+    }
+
+    /**
+     * 包含gzip和deflate的解压器注册表，两者都在grpc-accept-encoding中声明
+     */
+    public static DecompressorRegistry decompressorRegistry() {
+        return DECOMPRESSORS;
+    }
+
+    private static CompressorRegistry newCompressorRegistry() {
+        CompressorRegistry registry = CompressorRegistry.newEmptyInstance();
+        registry.register(new Codec.Gzip());
+        registry.register(Codec.Identity.NONE);
+        registry.register(DEFLATE_CODEC);
+        return registry;
+    }
+
+    /**
+     * zlib格式的deflate编码，压缩使用BEST_SPEED级别，Deflater/Inflater在流关闭时释放本地内存
+     */
+    private static final class FastDeflateCodec implements Codec {
+        @Override
+        public String getMessageEncoding() {
+            return DEFLATE;
+        }
+
+        @Override
+        public OutputStream compress(OutputStream os) throws IOException {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            return new DeflaterOutputStream(os, deflater, 8192) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        deflater.end();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public InputStream decompress(InputStream is) throws IOException {
+            Inflater inflater = new Inflater();
+            return new InflaterInputStream(is, inflater, 8192) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            };
+        }
+    }
+}
@@ -1,9 +1,15 @@
 package cn.edu.hit.common;
 
+import com.google.protobuf.ByteString;
 import com.google.protobuf.Descriptors;
 import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.UnsafeByteOperations;
+import io.grpc.KnownLength;
 import io.grpc.MethodDescriptor;
-import io.grpc.protobuf.ProtoUtils;
+import io.grpc.Status;
+
+import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * 方法描述符辅助类，用于创建gRPC方法描述符
@@ -12,7 +18,7 @@ public class MethodDescriptorHelper {
     
     /**
      * 创建gRPC方法描述符
-     * 使用DynamicMessage，运行时处理任意消息类型
+     * 使用DynamicMessage，运行时处理任意消息类型，序列化复用线程缓冲区，反序列化与ProtoUtils相同（见DynamicMessageMarshaller）
      */
     public static MethodDescriptor<DynamicMessage, DynamicMessage> createMethodDescriptor(
             Descriptors.ServiceDescriptor serviceDescriptor,
@@ -26,19 +32,47 @@ public class MethodDescriptorHelper {
         return MethodDescriptor.<DynamicMessage, DynamicMessage>newBuilder()
             .setType(getMethodType(methodDescriptor))
             .setFullMethodName(fullMethodName)
-            .setRequestMarshaller(ProtoUtils.marshaller(
-                DynamicMessage.getDefaultInstance(methodDescriptor.getInputType())
-            ))
-            .setResponseMarshaller(ProtoUtils.marshaller(
-                DynamicMessage.getDefaultInstance(methodDescriptor.getOutputType())
-            ))
+            .setRequestMarshaller(new DynamicMessageMarshaller(methodDescriptor.getInputType()))
+            .setResponseMarshaller(new DynamicMessageMarshaller(methodDescriptor.getOutputType()))
+            .build();
+    }
+
+    /**
+     * 创建请求和响应延迟解析的gRPC方法描述符
+     * 收到的消息只保存原始字节，需要时才解析，适合只转发消息的代理
+     */
+    public static MethodDescriptor<LazyMessage, LazyMessage> createLazyMethodDescriptor(
+            Descriptors.ServiceDescriptor serviceDescriptor,
+            Descriptors.MethodDescriptor methodDescriptor) {
+
+        return MethodDescriptor.<LazyMessage, LazyMessage>newBuilder()
+            .setType(getMethodType(methodDescriptor))
+            .setFullMethodName(generateFullMethodName(serviceDescriptor.getFullName(), methodDescriptor.getName()))
+            .setRequestMarshaller(LazyMessage.marshaller(methodDescriptor.getInputType()))
+            .setResponseMarshaller(LazyMessage.marshaller(methodDescriptor.getOutputType()))
+            .build();
+    }
+    
+    /**
+     * 创建以protobuf二进制数据为请求和响应的gRPC方法描述符
+     * 序列化由调用方完成（例如JsonTranscoder），不经过DynamicMessage
+     */
+    public static MethodDescriptor<byte[], byte[]> createRawMethodDescriptor(
+            Descriptors.ServiceDescriptor serviceDescriptor,
+            Descriptors.MethodDescriptor methodDescriptor) {
+
+        return MethodDescriptor.<byte[], byte[]>newBuilder()
+            .setType(getMethodType(methodDescriptor))
+            .setFullMethodName(generateFullMethodName(serviceDescriptor.getFullName(), methodDescriptor.getName()))
+            .setRequestMarshaller(ByteArrayMarshaller.INSTANCE)
+            .setResponseMarshaller(ByteArrayMarshaller.INSTANCE)
             .build();
     }
     
     /**
      * 生成完整方法名
      */
-    private static String generateFullMethodName(String serviceName, String methodName) {
+    public static String generateFullMethodName(String serviceName, String methodName) {
         return serviceName + "/" + methodName;
     }
     
@@ -56,4 +90,32 @@ public class MethodDescriptorHelper {
             return MethodDescriptor.MethodType.UNARY;
         }
     }
-} 
\ No newline at end of file
+    
+    /**
+     * 直接传递protobuf二进制数据的序列化器
+     * 发送时gRPC直接拷贝数组（Drainable），接收时按KnownLength给出的长度只分配一次数组
+     */
+    private static final class ByteArrayMarshaller implements MethodDescriptor.Marshaller<byte[]> {
+        static final ByteArrayMarshaller INSTANCE = new ByteArrayMarshaller();
+
+        @Override
+        public InputStream stream(byte[] value) {
+            return new ByteStringStream(UnsafeByteOperations.unsafeWrap(value));
+        }
+
+        @Override
+        public byte[] parse(InputStream stream) {
+            try {
+                if (stream instanceof KnownLength) {
+                    byte[] message = new byte[stream.available()];
+                    DynamicMessageMarshaller.readFully(stream, message, message.length);
+                    return message;
+                }
+                return ByteString.readFrom(stream).toByteArray();
+            } catch (IOException e) {
+                throw Status.INTERNAL.withDescription("Failed to read message bytes").withCause(e)
+                        .asRuntimeException();
+            }
+        }
+    }
+}
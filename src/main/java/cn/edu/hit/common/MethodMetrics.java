@@ -0,0 +1,204 @@
+package cn.edu.hit.common;
+
+import com.google.protobuf.MessageLite;
+import io.grpc.Status;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一个方法的调用统计：调用数、进行中的调用数、各状态码的调用数、消息数和字节数、延迟分布
+ * 计数使用LongAdder，延迟记录在LatencyHistogram中，记录时不分配对象
+ */
+public final class MethodMetrics implements MethodMetricsMXBean {
+    private static final Status.Code[] CODES = Status.Code.values();
+
+    private final String methodName;
+    private final LongAdder started = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder requestMessages = new LongAdder();
+    private final LongAdder responseMessages = new LongAdder();
+    private final LongAdder requestBytes = new LongAdder();
+    private final LongAdder responseBytes = new LongAdder();
+    // 按Status.Code.value()索引
+    private final LongAdder[] statusCounts = new LongAdder[CODES.length];
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    MethodMetrics(String methodName) {
+        this.methodName = methodName;
+        for (int i = 0; i < statusCounts.length; i++) {
+            statusCounts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * 调用开始
+     */
+    public void callStarted() {
+        started.increment();
+        inFlight.increment();
+    }
+
+    /**
+     * 客户端发往服务端的一条消息
+     */
+    public void requestMessage(long bytes) {
+        requestMessages.increment();
+        requestBytes.add(bytes);
+    }
+
+    /**
+     * 服务端发往客户端的一条消息
+     */
+    public void responseMessage(long bytes) {
+        responseMessages.increment();
+        responseBytes.add(bytes);
+    }
+
+    /**
+     * 调用结束，每个调用只能调用一次
+     */
+    public void callClosed(Status.Code code, long latencyNanos) {
+        inFlight.decrement();
+        statusCounts[code.value()].increment();
+        latency.record(latencyNanos);
+    }
+
+    /**
+     * 消息序列化后的字节数，无法确定时为0
+     */
+    public static long sizeOf(Object message) {
+        if (message instanceof byte[]) {
+            return ((byte[]) message).length;
+        }
+        if (message instanceof LazyMessage) {
+            return ((LazyMessage) message).getSerializedSize();
+        }
+        if (message instanceof MessageLite) {
+            // DynamicMessage会缓存序列化大小，序列化时不重复计算
+            return ((MessageLite) message).getSerializedSize();
+        }
+        return 0;
+    }
+
+    @Override
+    public String getMethodName() {
+        return methodName;
+    }
+
+    @Override
+    public long getStarted() {
+        return started.sum();
+    }
+
+    @Override
+    public long getInFlight() {
+        return inFlight.sum();
+    }
+
+    @Override
+    public long getCompleted() {
+        long completed = 0;
+        for (LongAdder count : statusCounts) {
+            completed += count.sum();
+        }
+        return completed;
+    }
+
+    public long getStatusCount(Status.Code code) {
+        return statusCounts[code.value()].sum();
+    }
+
+    @Override
+    public long getRequestMessages() {
+        return requestMessages.sum();
+    }
+
+    @Override
+    public long getResponseMessages() {
+        return responseMessages.sum();
+    }
+
+    @Override
+    public long getRequestBytes() {
+        return requestBytes.sum();
+    }
+
+    @Override
+    public long getResponseBytes() {
+        return responseBytes.sum();
+    }
+
+    /**
+     * 延迟分布，单位为纳秒
+     */
+    public LatencyHistogram.Snapshot getLatency() {
+        return latency.snapshot();
+    }
+
+    @Override
+    public double getLatencyMeanMillis() {
+        return latency.snapshot().getMean() / 1e6;
+    }
+
+    @Override
+    public double getLatencyP50Millis() {
+        return latency.snapshot().getValueAtPercentile(50) / 1e6;
+    }
+
+    @Override
+    public double getLatencyP99Millis() {
+        return latency.snapshot().getValueAtPercentile(99) / 1e6;
+    }
+
+    @Override
+    public double getLatencyP999Millis() {
+        return latency.snapshot().getValueAtPercentile(99.9) / 1e6;
+    }
+
+    @Override
+    public double getLatencyMaxMillis() {
+        return latency.snapshot().getMax() / 1e6;
+    }
+
+    @Override
+    public Map<String, Long> getStatusCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Status.Code code : CODES) {
+            long count = statusCounts[code.value()].sum();
+            if (count > 0) {
+                counts.put(code.name(), count);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 清空统计，进行中的调用数不清零
+     */
+    @Override
+    public void reset() {
+        started.reset();
+        requestMessages.reset();
+        responseMessages.reset();
+        requestBytes.reset();
+        responseBytes.reset();
+        for (LongAdder count : statusCounts) {
+            count.reset();
+        }
+        latency.reset();
+    }
+
+    @Override
+    public String toString() {
+        LatencyHistogram.Snapshot snapshot = latency.snapshot();
+        return String.format("%s: started %d, in flight %d, status %s, messages %d/%d, bytes %d/%d, "
+                        + "latency (ms) mean %.3f, p50 %.3f, p99 %.3f, p99.9 %.3f, max %.3f",
+                methodName, getStarted(), getInFlight(), getStatusCounts(),
+                getRequestMessages(), getResponseMessages(), getRequestBytes(), getResponseBytes(),
+                snapshot.getMean() / 1e6, snapshot.getValueAtPercentile(50) / 1e6,
+                snapshot.getValueAtPercentile(99) / 1e6, snapshot.getValueAtPercentile(99.9) / 1e6,
+                snapshot.getMax() / 1e6);
+    }
+}
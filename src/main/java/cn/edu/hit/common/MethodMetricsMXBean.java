@@ -0,0 +1,41 @@
+package cn.edu.hit.common;
+
+import java.util.Map;
+
+/**
+ * 一个方法的调用统计，通过JMX查看，延迟单位为毫秒
+ */
+public interface MethodMetricsMXBean {
+    String getMethodName();
+
+    long getStarted();
+
+    long getInFlight();
+
+    long getCompleted();
+
+    long getRequestMessages();
+
+    long getResponseMessages();
+
+    long getRequestBytes();
+
+    long getResponseBytes();
+
+    double getLatencyMeanMillis();
+
+    double getLatencyP50Millis();
+
+    double getLatencyP99Millis();
+
+    double getLatencyP999Millis();
+
+    double getLatencyMaxMillis();
+
+    /**
+     * 各状态码的调用数，只包含出现过的状态码
+     */
+    Map<String, Long> getStatusCounts();
+
+    void reset();
+}
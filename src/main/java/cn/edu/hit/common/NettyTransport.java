@@ -0,0 +1,214 @@
+package cn.edu.hit.common;
+
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.netty.shaded.io.netty.buffer.PooledByteBufAllocator;
+import io.grpc.netty.shaded.io.netty.channel.ChannelOption;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.Epoll;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioSocketChannel;
+import io.grpc.netty.shaded.io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Netty传输层配置，服务端和客户端共用
+ * 可用时使用native epoll，否则使用NIO；事件循环线程组由本对象创建，同一对象创建的服务器和连接共用，close时关闭
+ * 配置需在第一次创建builder之前设置完成
+ */
+public class NettyTransport implements Closeable {
+    private boolean epoll = true;
+    private int bossThreads = 1;
+    private int workerThreads;
+    private int flowControlWindow = 1024 * 1024;
+    private int maxConcurrentCallsPerConnection = Integer.MAX_VALUE;
+    private int maxInboundMessageSize = 4 * 1024 * 1024;
+    private long keepAliveTimeMillis;
+    private long keepAliveTimeoutMillis = TimeUnit.SECONDS.toMillis(20);
+    private boolean pooledDirectBuffers = true;
+
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private boolean useEpoll;
+
+    /**
+     * 是否在可用时使用native epoll（默认开启）
+     */
+    public NettyTransport epoll(boolean epoll) {
+        this.epoll = epoll;
+        return this;
+    }
+
+    /**
+     * 服务端接受连接的线程数（默认1）
+     */
+    public NettyTransport bossThreads(int bossThreads) {
+        this.bossThreads = checkPositive("bossThreads", bossThreads);
+        return this;
+    }
+
+    /**
+     * 处理连接读写的事件循环线程数，0表示使用Netty默认值（CPU核数的2倍）
+     */
+    public NettyTransport workerThreads(int workerThreads) {
+        if (workerThreads < 0) {
+            throw new IllegalArgumentException("Invalid workerThreads: " + workerThreads);
+        }
+        this.workerThreads = workerThreads;
+        return this;
+    }
+
+    /**
+     * HTTP/2初始流控窗口字节数（默认1MiB），大消息较多时调大可减少等待WINDOW_UPDATE
+     */
+    public NettyTransport flowControlWindow(int bytes) {
+        this.flowControlWindow = checkPositive("flowControlWindow", bytes);
+        return this;
+    }
+
+    /**
+     * 服务端每个连接允许的最大并发流数（默认不限制）
+     */
+    public NettyTransport maxConcurrentCallsPerConnection(int maxCalls) {
+        this.maxConcurrentCallsPerConnection = checkPositive("maxConcurrentCallsPerConnection", maxCalls);
+        return this;
+    }
+
+    /**
+     * 允许接收的最大消息字节数（默认4MiB）
+     */
+    public NettyTransport maxInboundMessageSize(int bytes) {
+        this.maxInboundMessageSize = checkPositive("maxInboundMessageSize", bytes);
+        return this;
+    }
+
+    /**
+     * 连接空闲time后发送keepalive ping，timeout内未收到回应则关闭连接；time为0时不发送（默认）
+     * 服务端同时允许客户端以不短于time的间隔发送ping
+     */
+    public NettyTransport keepAlive(long time, long timeout, TimeUnit unit) {
+        if (time < 0 || timeout <= 0) {
+            throw new IllegalArgumentException("Invalid keepalive: " + time + ", timeout: " + timeout);
+        }
+        this.keepAliveTimeMillis = unit.toMillis(time);
+        this.keepAliveTimeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * 是否使用池化的直接内存ByteBuf（默认开启）
+     */
+    public NettyTransport pooledDirectBuffers(boolean pooledDirectBuffers) {
+        this.pooledDirectBuffers = pooledDirectBuffers;
+        return this;
+    }
+
+    /**
+     * 创建监听port端口的服务端builder
+     */
+    public synchronized NettyServerBuilder newServerBuilder(int port) {
+        initEventLoops();
+        if (bossGroup == null) {
+            bossGroup = newEventLoopGroup(bossThreads, "grpc-boss");
+        }
+
+        NettyServerBuilder builder = NettyServerBuilder.forPort(port)
+                .bossEventLoopGroup(bossGroup)
+                .workerEventLoopGroup(workerGroup)
+                .channelType(useEpoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class)
+                .flowControlWindow(flowControlWindow)
+                .maxConcurrentCallsPerConnection(maxConcurrentCallsPerConnection)
+                .maxInboundMessageSize(maxInboundMessageSize)
+                .compressorRegistry(MessageCompression.compressorRegistry())
+                .decompressorRegistry(MessageCompression.decompressorRegistry());
+        if (keepAliveTimeMillis > 0) {
+            builder.keepAliveTime(keepAliveTimeMillis, TimeUnit.MILLISECONDS)
+                    .keepAliveTimeout(keepAliveTimeoutMillis, TimeUnit.MILLISECONDS)
+                    .permitKeepAliveTime(keepAliveTimeMillis, TimeUnit.MILLISECONDS);
+        }
+        if (pooledDirectBuffers) {
+            builder.withChildOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+        }
+        return builder;
+    }
+
+    /**
+     * 创建连接target（host:port）的明文客户端builder
+     */
+    public synchronized NettyChannelBuilder newChannelBuilder(String target) {
+        initEventLoops();
+
+        NettyChannelBuilder builder = NettyChannelBuilder.forTarget(target)
+                .usePlaintext()
+                .eventLoopGroup(workerGroup)
+                .channelType(useEpoll ? EpollSocketChannel.class : NioSocketChannel.class)
+                .flowControlWindow(flowControlWindow)
+                .maxInboundMessageSize(maxInboundMessageSize)
+                .compressorRegistry(MessageCompression.compressorRegistry())
+                .decompressorRegistry(MessageCompression.decompressorRegistry());
+        if (keepAliveTimeMillis > 0) {
+            builder.keepAliveTime(keepAliveTimeMillis, TimeUnit.MILLISECONDS)
+                    .keepAliveTimeout(keepAliveTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        if (pooledDirectBuffers) {
+            builder.withOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+        }
+        return builder;
+    }
+
+    /**
+     * 是否正在使用native epoll，创建builder之后才能确定
+     */
+    public synchronized boolean isEpoll() {
+        return useEpoll;
+    }
+
+    // 调用方持有this的锁
+    private void initEventLoops() {
+        if (workerGroup == null) {
+            useEpoll = epoll && Epoll.isAvailable();
+            workerGroup = newEventLoopGroup(workerThreads, "grpc-worker");
+        }
+    }
+
+    private EventLoopGroup newEventLoopGroup(int threads, String name) {
+        DefaultThreadFactory threadFactory = new DefaultThreadFactory(name, true);
+        return useEpoll ? new EpollEventLoopGroup(threads, threadFactory) : new NioEventLoopGroup(threads, threadFactory);
+    }
+
+    private static int checkPositive(String name, int value) {
+        if (value <= 0) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+        return value;
+    }
+
+    /**
+     * 关闭事件循环线程组，应在使用本对象创建的服务器和连接都关闭之后调用
+     */
+    @Override
+    public synchronized void close() {
+        if (bossGroup != null) {
+            bossGroup.shutdownGracefully(0, 5, TimeUnit.SECONDS);
+            bossGroup = null;
+        }
+        if (workerGroup != null) {
+            workerGroup.shutdownGracefully(0, 5, TimeUnit.SECONDS);
+            workerGroup = null;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "NettyTransport{epoll=" + epoll + ", bossThreads=" + bossThreads + ", workerThreads=" + workerThreads
+                + ", flowControlWindow=" + flowControlWindow + ", maxConcurrentCallsPerConnection="
+                + maxConcurrentCallsPerConnection + ", maxInboundMessageSize=" + maxInboundMessageSize
+                + ", keepAliveTimeMillis=" + keepAliveTimeMillis + ", pooledDirectBuffers=" + pooledDirectBuffers + "}";
+    }
+}
@@ -4,16 +4,50 @@ import com.google.protobuf.DescriptorProtos;
 import com.google.protobuf.Descriptors;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Proto文件管理器，负责动态编译和加载proto文件
+ * 加载结果以不可变快照发布，支持监听proto目录并增量重新加载
+ * 也可以直接加载预编译的FileDescriptorSet，无需protoc
  */
 public class ProtoFileManager {
-    private final Map<String, Descriptors.FileDescriptor> fileDescriptors = new HashMap<>();
-    private final Map<String, Descriptors.ServiceDescriptor> serviceDescriptors = new HashMap<>();
+    /**
+     * 构建时由protobuf-maven-plugin生成的描述符集在classpath中的位置
+     */
+    public static final String PRECOMPILED_DESCRIPTOR_SET = "proto/descriptors.desc";
+
+    // 合并编辑器保存文件时产生的连续事件
+    private static final long WATCH_DEBOUNCE_MILLIS = 200;
+
+    private volatile DescriptorSnapshot snapshot = DescriptorSnapshot.EMPTY;
+    private final List<Runnable> reloadListeners = new CopyOnWriteArrayList<>();
+
+    private volatile File protoDir;
+    private volatile File cacheDir = defaultCacheDir();
+    private WatchService watchService;
+    private Thread watchThread;
 
     // 添加 protoc 可执行文件路径配置
     private String protocPath = "protoc"; // 默认从系统路径查找
@@ -22,10 +56,37 @@ public class ProtoFileManager {
         this.protocPath = protocPath;
     }
 
+    /**
+     * 注册重新加载监听器，每次proto文件加载完成后回调，用于让依赖描述符的缓存失效
+     */
+    public void addReloadListener(Runnable listener) {
+        reloadListeners.add(listener);
+    }
+
+    /**
+     * 默认描述符缓存目录：$XDG_CACHE_HOME/grpc-dynamic，未设置时为~/.cache/grpc-dynamic
+     * 缓存文件名是proto内容的哈希，可以被预测，因此不使用所有用户共享的临时目录
+     */
+    private static File defaultCacheDir() {
+        String xdgCache = System.getenv("XDG_CACHE_HOME");
+        File base = xdgCache != null && !xdgCache.isEmpty()
+                ? new File(xdgCache) : new File(System.getProperty("user.home"), ".cache");
+        return new File(base, "grpc-dynamic");
+    }
+
+    /**
+     * 设置描述符缓存目录，为null时禁用缓存
+     * 目录不存在时创建为只有当前用户可访问，同组或其他用户可写的目录不会被使用
+     */
+    public void setCacheDir(File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
     /**
      * 加载并编译proto文件
+     * 编译结果按proto文件内容的哈希缓存在磁盘上，内容未变化时不再调用protoc
      */
-    public void loadProtoFiles(String protoDir) throws Exception {
+    public synchronized void loadProtoFiles(String protoDir) throws Exception {
         File dir = new File(protoDir);
         if (!dir.exists() || !dir.isDirectory()) {
             throw new IllegalArgumentException("Proto directory not found: " + protoDir);
@@ -37,125 +98,460 @@ public class ProtoFileManager {
             throw new IllegalArgumentException("No proto files found in: " + protoDir);
         }
 
-        // 创建临时目录用于存放编译结果
-        Path tempDir = Files.createTempDirectory("grpc-dynamic");
+        List<String> fileNames = new ArrayList<>();
+        for (File protoFile : protoFiles) {
+            fileNames.add(protoFile.getName());
+        }
+        Collections.sort(fileNames);
+
+        DescriptorProtos.FileDescriptorSet descriptorSet = loadCachedOrCompile(fileNames, dir);
+        this.protoDir = dir;
+        publish(descriptorSet);
+    }
+
+    /**
+     * 加载proto文件，目录不存在时（例如以jar方式运行）使用构建时预编译的描述符集
+     */
+    public void loadProtoFiles(String protoDir, String precompiledResource) throws Exception {
+        if (new File(protoDir).isDirectory()) {
+            loadProtoFiles(protoDir);
+        } else {
+            System.out.println("Proto directory not found, loading precompiled descriptors: " + precompiledResource);
+            loadDescriptorSetResource(precompiledResource);
+        }
+    }
+
+    /**
+     * 从classpath加载预编译的FileDescriptorSet，不需要protoc，不支持监听目录
+     */
+    public synchronized void loadDescriptorSetResource(String resource) throws Exception {
+        ClassLoader classLoader = ProtoFileManager.class.getClassLoader();
+        try (InputStream in = classLoader.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalArgumentException("Descriptor set resource not found: " + resource);
+            }
+            protoDir = null;
+            publish(DescriptorProtos.FileDescriptorSet.parseFrom(in));
+        }
+    }
+
+    /**
+     * 从文件加载预编译的FileDescriptorSet（内存映射读取），不需要protoc，不支持监听目录
+     */
+    public synchronized void loadDescriptorSetFile(String descriptorFile) throws Exception {
+        DescriptorProtos.FileDescriptorSet descriptorSet = readDescriptorSet(Paths.get(descriptorFile));
+        protoDir = null;
+        publish(descriptorSet);
+    }
+
+    private void publish(DescriptorProtos.FileDescriptorSet descriptorSet)
+            throws Descriptors.DescriptorValidationException {
+        Map<String, DescriptorProtos.FileDescriptorProto> protos = new LinkedHashMap<>();
+        for (DescriptorProtos.FileDescriptorProto fdp : descriptorSet.getFileList()) {
+            protos.put(fdp.getName(), fdp);
+        }
+        publish(protos, DescriptorSnapshot.EMPTY, protos.keySet());
+    }
+
+    /**
+     * 优先从磁盘缓存读取编译结果，其次使用与目录内容一致的预编译描述符集，都未命中时调用protoc编译
+     */
+    private DescriptorProtos.FileDescriptorSet loadCachedOrCompile(List<String> fileNames, File dir)
+            throws Exception {
+        File cache = cacheDir;
+        if (cache == null) {
+            return compileProtoFiles(fileNames, dir);
+        }
+
+        String hash = hashProtoFiles(fileNames, name -> Files.readAllBytes(new File(dir, name).toPath()));
+        if (!isPrivateDir(cache.toPath())) {
+            System.err.println("Ignoring descriptor cache writable by other users: " + cache);
+            DescriptorProtos.FileDescriptorSet precompiled = loadPrecompiledIfMatching(fileNames, hash);
+            return precompiled != null ? precompiled : compileProtoFiles(fileNames, dir);
+        }
+        Path cacheFile = new File(cache, hash + ".desc").toPath();
+        if (Files.isRegularFile(cacheFile)) {
+            try {
+                return readDescriptorSet(cacheFile);
+            } catch (IOException e) {
+                System.err.println("Ignoring unreadable descriptor cache " + cacheFile + ": " + e.getMessage());
+            }
+        }
+
+        DescriptorProtos.FileDescriptorSet descriptorSet = loadPrecompiledIfMatching(fileNames, hash);
+        if (descriptorSet == null) {
+            descriptorSet = compileProtoFiles(fileNames, dir);
+
+            // 编译期间文件被修改时不写缓存，避免缓存内容与哈希不一致
+            if (!hash.equals(hashProtoFiles(fileNames, name -> Files.readAllBytes(new File(dir, name).toPath())))) {
+                return descriptorSet;
+            }
+        }
 
         try {
-            // 编译proto文件为descriptor
-            compileProtoFiles(protoFiles, tempDir.toString(), dir.getAbsolutePath());
+            writeDescriptorSet(cacheFile, descriptorSet);
+        } catch (IOException e) {
+            System.err.println("Failed to write descriptor cache " + cacheFile + ": " + e.getMessage());
+        }
+        return descriptorSet;
+    }
 
-            // 加载descriptor
-            loadDescriptors(tempDir.toString());
+    /**
+     * 构建时proto源文件会和预编译描述符集一起复制到classpath，
+     * 两者内容哈希一致时说明预编译结果与目录中的proto文件对应，可以直接使用
+     */
+    private DescriptorProtos.FileDescriptorSet loadPrecompiledIfMatching(List<String> fileNames, String hash)
+            throws Exception {
+        ClassLoader classLoader = ProtoFileManager.class.getClassLoader();
+        String resourceDir = PRECOMPILED_DESCRIPTOR_SET.substring(0, PRECOMPILED_DESCRIPTOR_SET.lastIndexOf('/') + 1);
 
-        } finally {
-            // 清理临时文件
-            deleteDirectory(tempDir.toFile());
+        String precompiledHash = hashProtoFiles(fileNames, name -> {
+            try (InputStream in = classLoader.getResourceAsStream(resourceDir + name)) {
+                return in == null ? null : readFully(in);
+            }
+        });
+        if (!hash.equals(precompiledHash)) {
+            return null;
+        }
+
+        try (InputStream in = classLoader.getResourceAsStream(PRECOMPILED_DESCRIPTOR_SET)) {
+            return in == null ? null : DescriptorProtos.FileDescriptorSet.parseFrom(in);
         }
     }
 
     /**
-     * 批量编译proto文件
+     * 读取proto源文件内容，文件不存在时返回null
      */
-    private void compileProtoFiles(File[] protoFiles, String outputDir, String protoDir) throws Exception {
-        String outputPath = outputDir + File.separator + "all.desc";
+    private interface SourceReader {
+        byte[] read(String fileName) throws IOException;
+    }
 
-        // 构建protoc命令
-        List<String> command = new ArrayList<>();
-        command.add(protocPath); // protoc可执行文件
-        command.add("--descriptor_set_out=" + outputPath); // 输出descriptor文件
-        command.add("--include_imports"); // 包含依赖的proto
-        command.add("--include_source_info"); // 包含源码信息
-        command.add("--proto_path=" + protoDir); // proto文件搜索路径
-        
-        // 添加所有proto文件
-        for (File protoFile : protoFiles) {
-            command.add(protoFile.getName());
+    /**
+     * 计算proto文件内容的SHA-256（文件名和内容都参与计算），任一文件不存在时返回null
+     */
+    private static String hashProtoFiles(List<String> fileNames, SourceReader reader) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        for (String name : fileNames) {
+            byte[] content = reader.read(name);
+            if (content == null) {
+                return null;
+            }
+            digest.update(name.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(ByteBuffer.allocate(4).putInt(content.length).array());
+            digest.update(content);
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 内存映射读取FileDescriptorSet文件
+     */
+    private static DescriptorProtos.FileDescriptorSet readDescriptorSet(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return DescriptorProtos.FileDescriptorSet.parseFrom(buffer);
+        }
+    }
+
+    /**
+     * 目录不存在，或者（支持POSIX权限时）同组和其他用户都不可写
+     */
+    private static boolean isPrivateDir(Path dir) throws IOException {
+        PosixFileAttributeView view = Files.getFileAttributeView(dir, PosixFileAttributeView.class);
+        if (view == null || !Files.isDirectory(dir)) {
+            return true;
         }
+        Set<PosixFilePermission> permissions = view.readAttributes().permissions();
+        return !permissions.contains(PosixFilePermission.GROUP_WRITE)
+                && !permissions.contains(PosixFilePermission.OTHERS_WRITE);
+    }
 
-        System.out.println("Executing protoc command: " + String.join(" ", command));
-        System.out.println("Working directory: " + protoDir);
+    /**
+     * 先写临时文件再原子重命名，并发启动的进程不会读到写了一半的缓存
+     * 缓存目录创建为只有当前用户可访问
+     */
+    private static void writeDescriptorSet(Path file, DescriptorProtos.FileDescriptorSet descriptorSet)
+            throws IOException {
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createDirectories(file.getParent(),
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        } else {
+            Files.createDirectories(file.getParent());
+        }
+        Path tempFile = Files.createTempFile(file.getParent(), "descriptors", ".tmp");
+        try {
+            Files.write(tempFile, descriptorSet.toByteArray());
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
 
-        // 使用 ProcessBuilder 执行命令
-        ProcessBuilder processBuilder = new ProcessBuilder(command);
-        processBuilder.directory(new File(protoDir));
-        processBuilder.redirectErrorStream(true); // 将错误流重定向到标准输出
+    /**
+     * 增量重新加载：只重新编译发生变化的文件，未受影响的FileDescriptor直接复用
+     * 失败时保留当前快照
+     */
+    public synchronized void reload(Collection<String> changedFiles, Collection<String> deletedFiles)
+            throws Exception {
+        if (protoDir == null) {
+            throw new IllegalStateException("Proto files not loaded from a directory");
+        }
+
+        DescriptorSnapshot current = snapshot;
+        Map<String, DescriptorProtos.FileDescriptorProto> protos = new LinkedHashMap<>(current.getFileProtos());
+        Set<String> changed = new HashSet<>();
+
+        for (String name : deletedFiles) {
+            if (protos.remove(name) != null) {
+                changed.add(name);
+            }
+        }
 
-        Process process = processBuilder.start();
+        List<String> toCompile = new ArrayList<>();
+        for (String name : changedFiles) {
+            if (new File(protoDir, name).isFile()) {
+                toCompile.add(name);
+            } else if (protos.remove(name) != null) {
+                changed.add(name);
+            }
+        }
 
-        // 读取输出
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                System.out.println("protoc output: " + line);
+        if (!toCompile.isEmpty()) {
+            for (DescriptorProtos.FileDescriptorProto fdp : compileProtoFiles(toCompile, protoDir).getFileList()) {
+                DescriptorProtos.FileDescriptorProto previous = protos.put(fdp.getName(), fdp);
+                if (!fdp.equals(previous)) {
+                    changed.add(fdp.getName());
+                }
             }
         }
 
-        int exitCode = process.waitFor();
-        if (exitCode != 0) {
-            throw new RuntimeException("Failed to compile proto files, exit code: " + exitCode);
+        if (changed.isEmpty()) {
+            return;
+        }
+        System.out.println("Reloading proto files: " + changed);
+        publish(protos, current, changed);
+    }
+
+    /**
+     * 构建新快照并替换当前快照，然后通知监听器
+     */
+    private void publish(Map<String, DescriptorProtos.FileDescriptorProto> protos,
+                         DescriptorSnapshot previous, Set<String> changed)
+            throws Descriptors.DescriptorValidationException {
+        Map<String, Descriptors.FileDescriptor> fileDescriptors =
+                new FileDescriptorGraph(protos).build(previous, changed);
+
+        snapshot = new DescriptorSnapshot(previous.getVersion() + 1, protos, fileDescriptors);
+        fireReloaded();
+    }
+
+    /**
+     * 通知所有监听器描述符已更新
+     */
+    private void fireReloaded() {
+        for (Runnable listener : reloadListeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * 是否从proto目录加载（从预编译描述符集加载时不能监听目录）
+     */
+    public boolean isLoadedFromDirectory() {
+        return protoDir != null;
+    }
+
+    /**
+     * 开始监听proto目录，文件变化后自动增量重新加载
+     */
+    public synchronized void startWatching() throws IOException {
+        if (watchThread != null) {
+            return;
         }
+        if (protoDir == null) {
+            throw new IllegalStateException("Proto files not loaded from a directory");
+        }
+
+        watchService = FileSystems.getDefault().newWatchService();
+        protoDir.toPath().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+
+        WatchService ws = watchService;
+        watchThread = new Thread(() -> watchLoop(ws), "proto-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+        System.out.println("Watching proto directory: " + protoDir.getAbsolutePath());
     }
 
     /**
-     * 加载编译后的descriptor文件
+     * 停止监听proto目录
      */
-    private void loadDescriptors(String descriptorDir) throws Exception {
-        File dir = new File(descriptorDir);
-        File[] descFiles = dir.listFiles((d, name) -> name.endsWith(".desc"));
+    public synchronized void stopWatching() throws IOException {
+        if (watchThread == null) {
+            return;
+        }
+        watchService.close();
+        watchThread.interrupt();
+        watchThread = null;
+        watchService = null;
+    }
 
-        if (descFiles == null) return;
+    private void watchLoop(WatchService ws) {
+        try {
+            while (true) {
+                Set<String> changed = new LinkedHashSet<>();
+                Set<String> deleted = new LinkedHashSet<>();
 
-        for (File descFile : descFiles) {
-            try (FileInputStream fis = new FileInputStream(descFile)) {
-                DescriptorProtos.FileDescriptorSet descriptorSet =
-                        DescriptorProtos.FileDescriptorSet.parseFrom(fis);
+                collectEvents(ws.take(), changed, deleted);
+                WatchKey more;
+                while ((more = ws.poll(WATCH_DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    collectEvents(more, changed, deleted);
+                }
 
-                for (DescriptorProtos.FileDescriptorProto fdp : descriptorSet.getFileList()) {
-                    Descriptors.FileDescriptor fd = buildFileDescriptor(fdp);
-                    fileDescriptors.put(fd.getFullName(), fd);
+                if (changed.isEmpty() && deleted.isEmpty()) {
+                    continue;
+                }
+                try {
+                    reload(changed, deleted);
+                } catch (Exception e) {
+                    System.err.println("Failed to reload proto files, keeping previous version: " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // 停止监听
+        }
+    }
 
-                    // 提取服务描述符
-                    for (Descriptors.ServiceDescriptor sd : fd.getServices()) {
-                        serviceDescriptors.put(sd.getFullName(), sd);
+    private void collectEvents(WatchKey key, Set<String> changed, Set<String> deleted) {
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // 事件丢失，重新检查全部文件
+                File[] files = protoDir.listFiles((d, name) -> name.endsWith(".proto"));
+                if (files != null) {
+                    for (File file : files) {
+                        changed.add(file.getName());
                     }
                 }
+                deleted.addAll(snapshot.getFileProtos().keySet());
+                deleted.removeAll(changed);
+                continue;
+            }
+
+            String name = ((Path) event.context()).toString();
+            if (!name.endsWith(".proto")) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                changed.remove(name);
+                deleted.add(name);
+            } else {
+                deleted.remove(name);
+                changed.add(name);
             }
         }
+        key.reset();
     }
 
     /**
-     * 构建FileDescriptor
+     * 批量编译proto文件，返回包含依赖的FileDescriptorSet
      */
-    private Descriptors.FileDescriptor buildFileDescriptor(DescriptorProtos.FileDescriptorProto fdp)
-            throws Descriptors.DescriptorValidationException {
+    private DescriptorProtos.FileDescriptorSet compileProtoFiles(Collection<String> fileNames, File protoDir)
+            throws Exception {
+        // 创建临时目录用于存放编译结果
+        Path tempDir = Files.createTempDirectory("grpc-dynamic");
+
+        try {
+            String outputPath = tempDir.toString() + File.separator + "all.desc";
+
+            // 构建protoc命令
+            List<String> command = new ArrayList<>();
+            command.add(protocPath); // protoc可执行文件
+            command.add("--descriptor_set_out=" + outputPath); // 输出descriptor文件
+            command.add("--include_imports"); // 包含依赖的proto
+            command.add("--include_source_info"); // 包含源码信息
+            command.add("--proto_path=" + protoDir.getAbsolutePath()); // proto文件搜索路径
 
-        List<Descriptors.FileDescriptor> dependencies = new ArrayList<>();
+            // 添加所有proto文件
+            command.addAll(fileNames);
 
-        for (String depName : fdp.getDependencyList()) {
-            Descriptors.FileDescriptor dep = fileDescriptors.get(depName);
-            if (dep != null) {
-                dependencies.add(dep);
+            System.out.println("Executing protoc command: " + String.join(" ", command));
+            System.out.println("Working directory: " + protoDir.getAbsolutePath());
+
+            // 使用 ProcessBuilder 执行命令
+            ProcessBuilder processBuilder = new ProcessBuilder(command);
+            processBuilder.directory(protoDir);
+            processBuilder.redirectErrorStream(true); // 将错误流重定向到标准输出
+
+            Process process = processBuilder.start();
+
+            // 读取输出
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    System.out.println("protoc output: " + line);
+                }
+            }
+
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                throw new RuntimeException("Failed to compile proto files, exit code: " + exitCode);
             }
+
+            // 加载descriptor
+            try (FileInputStream fis = new FileInputStream(outputPath)) {
+                return DescriptorProtos.FileDescriptorSet.parseFrom(fis);
+            }
+
+        } finally {
+            // 清理临时文件
+            deleteDirectory(tempDir.toFile());
         }
+    }
 
-        return Descriptors.FileDescriptor.buildFrom(
-                fdp,
-                dependencies.toArray(new Descriptors.FileDescriptor[0])
-        );
+    /**
+     * 获取当前描述符快照
+     */
+    public DescriptorSnapshot getSnapshot() {
+        return snapshot;
     }
 
     /**
      * 获取服务描述符
      */
     public Descriptors.ServiceDescriptor getServiceDescriptor(String serviceName) {
-        return serviceDescriptors.get(serviceName);
+        return snapshot.findService(serviceName);
+    }
+
+    /**
+     * 按完整方法名（package.Service/Method）获取方法描述符
+     */
+    public Descriptors.MethodDescriptor getMethodDescriptor(String fullMethodName) {
+        return snapshot.findMethod(fullMethodName);
     }
 
     /**
-     * 获取所有服务名称
+     * 获取所有服务名称（当前快照的不可修改视图）
      */
     public Set<String> getAllServiceNames() {
-        return new HashSet<>(serviceDescriptors.keySet());
+        return snapshot.getServiceDescriptors().keySet();
     }
 
     /**
@@ -172,4 +568,4 @@ public class ProtoFileManager {
         }
         dir.delete();
     }
-}
\ No newline at end of file
+}
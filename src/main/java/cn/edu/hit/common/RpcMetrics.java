@@ -0,0 +1,138 @@
+package cn.edu.hit.common;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按完整方法名（如user.UserService/GetUser）保存的调用统计
+ * 每个方法的MethodMetrics只在第一次出现时创建，之后的调用只做一次不分配对象的查找
+ * registerMBeans之后每个方法注册为JMX MBean：cn.edu.hit:type=RpcMetrics,scope=<scope>,method="<方法名>"
+ * 同一进程中scope应唯一，名称已被其他实例注册时记录警告并跳过，注销时只注销本实例注册的MBean
+ */
+public class RpcMetrics {
+    private static final AsyncLogger log = AsyncLogger.getLogger(RpcMetrics.class);
+
+    private final String scope;
+    private final ConcurrentHashMap<String, MethodMetrics> methods = new ConcurrentHashMap<>();
+    private final Set<ObjectName> registered = ConcurrentHashMap.newKeySet();
+    private volatile MBeanServer mbeanServer;
+
+    /**
+     * @param scope 区分同一进程中的多组统计，如server-50051、client-localhost:50051
+     */
+    public RpcMetrics(String scope) {
+        this.scope = scope;
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    /**
+     * 获取方法的统计，不存在时创建
+     */
+    public MethodMetrics forMethod(String fullMethodName) {
+        MethodMetrics metrics = methods.get(fullMethodName);
+        if (metrics == null) {
+            metrics = methods.computeIfAbsent(fullMethodName, name -> {
+                MethodMetrics created = new MethodMetrics(name);
+                MBeanServer server = mbeanServer;
+                if (server != null) {
+                    register(server, created);
+                }
+                return created;
+            });
+        }
+        return metrics;
+    }
+
+    /**
+     * 所有方法的统计，按方法名排序
+     */
+    public List<MethodMetrics> getMethods() {
+        List<MethodMetrics> list = new ArrayList<>(methods.values());
+        list.sort((a, b) -> a.getMethodName().compareTo(b.getMethodName()));
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * 把已有和之后出现的方法注册到平台MBeanServer
+     */
+    public synchronized void registerMBeans() {
+        if (mbeanServer != null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        mbeanServer = server;
+        for (MethodMetrics metrics : methods.values()) {
+            register(server, metrics);
+        }
+    }
+
+    /**
+     * 注销已注册的MBean
+     */
+    public synchronized void unregisterMBeans() {
+        MBeanServer server = mbeanServer;
+        if (server == null) {
+            return;
+        }
+        mbeanServer = null;
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                log.warn("Failed to unregister metrics MBean {}: {}", name, e.getMessage());
+            }
+        }
+        registered.clear();
+    }
+
+    private void register(MBeanServer server, MethodMetrics metrics) {
+        ObjectName name = null;
+        try {
+            name = objectName(metrics);
+            server.registerMBean(metrics, name);
+            registered.add(name);
+        } catch (InstanceAlreadyExistsException e) {
+            log.warn("Metrics MBean {} is already registered by another RpcMetrics, scope {} is not unique",
+                    name, scope);
+        } catch (JMException e) {
+            log.warn("Failed to register metrics MBean {}: {}", name, e.getMessage());
+        }
+    }
+
+    private ObjectName objectName(MethodMetrics metrics) throws JMException {
+        return new ObjectName("cn.edu.hit:type=RpcMetrics,scope=" + ObjectName.quote(scope)
+                + ",method=" + ObjectName.quote(metrics.getMethodName()));
+    }
+
+    /**
+     * 清空所有方法的统计
+     */
+    public void reset() {
+        for (MethodMetrics metrics : methods.values()) {
+            metrics.reset();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (MethodMetrics metrics : getMethods()) {
+            if (sb.length() > 0) {
+                sb.append(System.lineSeparator());
+            }
+            sb.append(metrics);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,88 @@
+package cn.edu.hit.common;
+
+import io.grpc.Status;
+import io.grpc.stub.CallStreamObserver;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 流控感知的消息泵，将Iterator中的消息写入流
+ * 只在传输层可写（isReady）时发送，不可写时暂停，等待onReadyHandler回调后继续
+ * 客户端流和服务端流通用
+ */
+public final class StreamPump<T> implements Runnable {
+    private final CallStreamObserver<T> observer;
+    private final Iterator<? extends T> source;
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicBoolean done = new AtomicBoolean();
+
+    private StreamPump(CallStreamObserver<T> observer, Iterator<? extends T> source) {
+        this.observer = observer;
+        this.source = source;
+    }
+
+    /**
+     * 注册onReadyHandler，由首次onReady回调开始发送
+     * 客户端在ClientResponseObserver.beforeStart中使用
+     */
+    public static <T> StreamPump<T> attach(CallStreamObserver<T> observer, Iterator<? extends T> source) {
+        StreamPump<T> pump = new StreamPump<>(observer, source);
+        observer.setOnReadyHandler(pump);
+        return pump;
+    }
+
+    /**
+     * 注册onReadyHandler并立即尝试发送
+     * 服务端在处理方法中使用（此时流可能已经可写，不会再收到首次onReady回调）
+     */
+    public static <T> StreamPump<T> start(CallStreamObserver<T> observer, Iterator<? extends T> source) {
+        StreamPump<T> pump = attach(observer, source);
+        pump.run();
+        return pump;
+    }
+
+    /**
+     * 停止发送，用于对端取消时
+     */
+    public void cancel() {
+        done.set(true);
+    }
+
+    public boolean isDone() {
+        return done.get();
+    }
+
+    @Override
+    public void run() {
+        // onReady回调与首次调用可能并发，只允许一个线程发送
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            drain();
+        } while (wip.decrementAndGet() != 0);
+    }
+
+    private void drain() {
+        if (done.get()) {
+            return;
+        }
+        try {
+            while (observer.isReady() && source.hasNext()) {
+                observer.onNext(source.next());
+            }
+            if (!source.hasNext() && done.compareAndSet(false, true)) {
+                observer.onCompleted();
+            }
+        } catch (RuntimeException e) {
+            if (done.compareAndSet(false, true)) {
+                observer.onError(Status.INTERNAL
+                        .withDescription("Stream source failed: " + e.getMessage())
+                        .withCause(e)
+                        .asRuntimeException());
+            }
+        }
+    }
+}
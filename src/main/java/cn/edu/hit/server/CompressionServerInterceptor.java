@@ -0,0 +1,38 @@
+package cn.edu.hit.server;
+
+import cn.edu.hit.common.MessageCompression;
+import cn.edu.hit.common.MethodMetrics;
+import io.grpc.ForwardingServerCall;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+
+/**
+ * 按方法设置压缩响应消息，序列化后小于最小字节数的消息不压缩
+ * 客户端在grpc-accept-encoding中没有声明该编码时gRPC不压缩响应
+ */
+public class CompressionServerInterceptor implements ServerInterceptor {
+    private final MessageCompression compression;
+
+    public CompressionServerInterceptor(MessageCompression compression) {
+        this.compression = compression;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+            ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        MessageCompression.Setting setting = compression.getSetting(call.getMethodDescriptor().getFullMethodName());
+        if (setting == null) {
+            return next.startCall(call, headers);
+        }
+        call.setCompression(setting.getEncoding());
+        return next.startCall(new ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT>(call) {
+            @Override
+            public void sendMessage(RespT message) {
+                super.setMessageCompression(setting.shouldCompress(MethodMetrics.sizeOf(message)));
+                super.sendMessage(message);
+            }
+        }, headers);
+    }
+}
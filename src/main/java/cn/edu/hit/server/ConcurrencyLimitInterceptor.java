@@ -0,0 +1,284 @@
+package cn.edu.hit.server;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import io.grpc.Context;
+import io.grpc.Deadline;
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallExecutorSupplier;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 自适应并发限制：进行中的一元调用数达到限制时，新调用直接以RESOURCE_EXHAUSTED拒绝，不进入执行器排队
+ * 拦截器在调用切换到处理器执行器之后才执行，因此准入判断由admissionControl包装的ServerCallExecutorSupplier
+ * 在传输层线程中完成：被拒绝的调用使用directExecutor，在传输层线程中由拦截器立即关闭；
+ * 调用的延迟从准入（流创建）时开始计算，包含在执行器中排队的时间。没有使用admissionControl时在拦截器中准入
+ * 限制按延迟梯度调整：每个采样窗口结束时比较窗口内的平均延迟与长期平均延迟，
+ * 延迟上升（排队）时按比例降低限制，延迟平稳且调用数接近限制时增加约sqrt(limit)
+ * 开始处理时deadline已过期的调用以DEADLINE_EXCEEDED拒绝；流式调用持续时间与负载无关，不受限制也不参与采样
+ */
+public class ConcurrencyLimitInterceptor implements ServerInterceptor {
+    // 准入结果从ServerCallExecutorSupplier传给拦截器，值为准入时的System.nanoTime()或REJECTED；
+    // 收到的同名请求头在准入前丢弃，客户端无法伪造
+    private static final Metadata.Key<String> ADMISSION_KEY =
+            Metadata.Key.of("x-cn-edu-hit-admission", Metadata.ASCII_STRING_MARSHALLER);
+    private static final String REJECTED = "rejected";
+
+    private static final long SAMPLE_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int MIN_WINDOW_SAMPLES = 10;
+    // 长期平均延迟的平滑系数，约20个窗口
+    private static final double LONG_RTT_ALPHA = 0.05;
+    // 限制变化的平滑系数
+    private static final double SMOOTHING = 0.2;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private volatile boolean enabled = true;
+    private volatile double limit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+
+    // 当前采样窗口
+    private final LongAdder windowRttSum = new LongAdder();
+    private final LongAdder windowSamples = new LongAdder();
+    private final AtomicLong windowEnd = new AtomicLong(System.nanoTime() + SAMPLE_WINDOW_NANOS);
+    private volatile int windowMaxInFlight;
+    // 只由赢得窗口结束CAS的线程更新
+    private volatile double longRttNanos;
+
+    /**
+     * 初始限制为100，在10~1000之间调整
+     */
+    public ConcurrencyLimitInterceptor() {
+        this(100, 10, 1000);
+    }
+
+    public ConcurrencyLimitInterceptor(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit <= 0 || initialLimit < minLimit || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("Invalid concurrency limit: initial " + initialLimit
+                    + ", min " + minLimit + ", max " + maxLimit);
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * 关闭后不再拒绝调用，限制保持不变
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * 因超出限制或deadline已过期被拒绝的调用数
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * 在传输层线程中对一元调用做准入判断，准入的调用交给delegate选择的执行器，被拒绝的调用不进入执行器
+     * 服务器需要同时添加本拦截器
+     */
+    public ServerCallExecutorSupplier admissionControl(ServerCallExecutorSupplier delegate) {
+        return new ServerCallExecutorSupplier() {
+            @Override
+            public <ReqT, RespT> Executor getExecutor(ServerCall<ReqT, RespT> call, Metadata headers) {
+                headers.discardAll(ADMISSION_KEY);
+                if (!enabled || call.getMethodDescriptor().getType() != MethodDescriptor.MethodType.UNARY) {
+                    return delegate.getExecutor(call, headers);
+                }
+                long now = System.nanoTime();
+                if (!tryAcquire()) {
+                    headers.put(ADMISSION_KEY, REJECTED);
+                    return MoreExecutors.directExecutor();
+                }
+                headers.put(ADMISSION_KEY, Long.toString(now));
+                try {
+                    return delegate.getExecutor(call, headers);
+                } catch (RuntimeException e) {
+                    inFlight.decrementAndGet();
+                    throw e;
+                }
+            }
+        };
+    }
+
+    /**
+     * 进行中的调用数加一，超过限制时撤销并计入拒绝数
+     */
+    private boolean tryAcquire() {
+        int current = inFlight.incrementAndGet();
+        if (current > (int) limit) {
+            inFlight.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+        if (current > windowMaxInFlight) {
+            windowMaxInFlight = current;
+        }
+        return true;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+            ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        long startNanos;
+        String admission = headers.get(ADMISSION_KEY);
+        if (admission != null) {
+            // 已在admissionControl中准入或拒绝
+            headers.discardAll(ADMISSION_KEY);
+            if (admission.equals(REJECTED)) {
+                return reject(call, Status.RESOURCE_EXHAUSTED
+                        .withDescription("Server concurrency limit reached: " + (int) limit));
+            }
+            startNanos = Long.parseLong(admission);
+        } else {
+            if (!enabled || call.getMethodDescriptor().getType() != MethodDescriptor.MethodType.UNARY) {
+                return next.startCall(call, headers);
+            }
+            startNanos = System.nanoTime();
+            if (!tryAcquire()) {
+                return reject(call, Status.RESOURCE_EXHAUSTED
+                        .withDescription("Server concurrency limit reached: " + (int) limit));
+            }
+        }
+
+        LimitedCall<ReqT, RespT> limitedCall = new LimitedCall<>(call, this, startNanos);
+        // 在执行器中排队期间deadline已过期的调用不再处理
+        Deadline deadline = Context.current().getDeadline();
+        if (deadline != null && deadline.isExpired()) {
+            rejected.increment();
+            limitedCall.release(false);
+            return reject(call, Status.DEADLINE_EXCEEDED.withDescription("Deadline expired before the call started"));
+        }
+
+        ServerCall.Listener<ReqT> listener;
+        try {
+            listener = next.startCall(limitedCall, headers);
+        } catch (RuntimeException e) {
+            limitedCall.release(false);
+            throw e;
+        }
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(listener) {
+            @Override
+            public void onCancel() {
+                limitedCall.release(false);
+                super.onCancel();
+            }
+        };
+    }
+
+    private static <ReqT> ServerCall.Listener<ReqT> reject(ServerCall<ReqT, ?> call, Status status) {
+        call.close(status, new Metadata());
+        return new ServerCall.Listener<ReqT>() {
+        };
+    }
+
+    /**
+     * 一个调用结束，sample为true时延迟计入采样
+     */
+    private void onComplete(long rttNanos, boolean sample) {
+        inFlight.decrementAndGet();
+        if (sample) {
+            windowRttSum.add(rttNanos);
+            windowSamples.increment();
+        }
+
+        long now = System.nanoTime();
+        long end = windowEnd.get();
+        if (now - end >= 0 && windowSamples.sum() >= MIN_WINDOW_SAMPLES
+                && windowEnd.compareAndSet(end, now + SAMPLE_WINDOW_NANOS)) {
+            long samples = windowSamples.sumThenReset();
+            long rttSum = windowRttSum.sumThenReset();
+            int maxInFlight = windowMaxInFlight;
+            windowMaxInFlight = inFlight.get();
+            if (samples > 0) {
+                updateLimit((double) rttSum / samples, maxInFlight);
+            }
+        }
+    }
+
+    // 同一时刻只有一个线程调用
+    private void updateLimit(double shortRtt, int maxInFlight) {
+        if (longRttNanos == 0) {
+            longRttNanos = shortRtt;
+        } else {
+            longRttNanos = longRttNanos * (1 - LONG_RTT_ALPHA) + shortRtt * LONG_RTT_ALPHA;
+        }
+        // 负载下降后长期平均值较快地跟上新的低延迟
+        if (longRttNanos > shortRtt * 2) {
+            longRttNanos *= 0.95;
+        }
+
+        double current = limit;
+        // 调用数远低于限制时限制不起作用，延迟的波动不能说明限制是否合适
+        if (maxInFlight < current / 2) {
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, longRttNanos / shortRtt));
+        double target = current * gradient + Math.sqrt(current);
+        double next = current * (1 - SMOOTHING) + target * SMOOTHING;
+        limit = Math.max(minLimit, Math.min(maxLimit, next));
+    }
+
+    private static final class LimitedCall<ReqT, RespT>
+            extends ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT> {
+        private static final AtomicIntegerFieldUpdater<? super LimitedCall<?, ?>> RELEASED =
+                AtomicIntegerFieldUpdater.newUpdater(LimitedCall.class, "released");
+
+        private final ConcurrencyLimitInterceptor limiter;
+        private final long startNanos;
+        private volatile int released;
+
+        LimitedCall(ServerCall<ReqT, RespT> call, ConcurrencyLimitInterceptor limiter, long startNanos) {
+            super(call);
+            this.limiter = limiter;
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public void close(Status status, Metadata trailers) {
+            // 只有正常完成的调用反映服务端的处理延迟
+            release(status.isOk());
+            super.close(status, trailers);
+        }
+
+        void release(boolean sample) {
+            if (RELEASED.compareAndSet(this, 0, 1)) {
+                limiter.onComplete(System.nanoTime() - startNanos, sample);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ConcurrencyLimit{limit=" + getLimit() + ", inFlight=" + getInFlight()
+                + ", rejected=" + getRejectedCount() + ", enabled=" + enabled + "}";
+    }
+}
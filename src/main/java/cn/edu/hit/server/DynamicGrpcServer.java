@@ -1,13 +1,16 @@
 package cn.edu.hit.server;
 
+import cn.edu.hit.common.MessageCompression;
+import cn.edu.hit.common.NettyTransport;
 import cn.edu.hit.common.ProtoFileManager;
-import com.google.protobuf.Descriptors;
-import com.google.protobuf.DynamicMessage;
+import cn.edu.hit.common.RpcMetrics;
 import io.grpc.*;
-import io.grpc.protobuf.ProtoUtils;
-import io.grpc.stub.ServerCalls;
+import io.grpc.util.MutableHandlerRegistry;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -17,32 +20,158 @@ public class DynamicGrpcServer {
     private final Server server;
     private final ProtoFileManager protoManager;
     private final ServiceImplementation serviceImpl;
+    private final OrderServiceImplementation orderServiceImpl;
+    private final UserPersistence persistence;
+    private final ServerExecutors executors;
+    private final NettyTransport transport;
+    // transport由本服务器创建时在stop时关闭
+    private final boolean ownsTransport;
+    private final MethodHandlerRegistry handlerRegistry;
+    private final MutableHandlerRegistry serviceRegistry;
+    private final RpcMetrics metrics;
+    private final ConcurrencyLimitInterceptor concurrencyLimit = new ConcurrencyLimitInterceptor();
+    private final MessageCompression compression = new MessageCompression();
 
     public DynamicGrpcServer(int port) throws Exception {
+        this(port, UserPersistence.NONE);
+    }
+
+    /**
+     * 使用指定的用户持久化方式，启动时从中恢复用户数据
+     */
+    public DynamicGrpcServer(int port, UserPersistence persistence) throws Exception {
+        this(port, persistence, new ServerExecutors());
+    }
+
+    /**
+     * 使用指定的用户持久化方式和处理器执行方式
+     */
+    public DynamicGrpcServer(int port, UserPersistence persistence, ServerExecutors executors) throws Exception {
+        this(port, persistence, executors, new NettyTransport(), true);
+    }
+
+    /**
+     * 使用指定的传输层配置，transport由调用方关闭
+     */
+    public DynamicGrpcServer(int port, UserPersistence persistence, ServerExecutors executors,
+                             NettyTransport transport) throws Exception {
+        this(port, persistence, executors, transport, false);
+    }
+
+    private DynamicGrpcServer(int port, UserPersistence persistence, ServerExecutors executors,
+                              NettyTransport transport, boolean ownsTransport) throws Exception {
         this.protoManager = new ProtoFileManager();
-        this.serviceImpl = new ServiceImplementation();
+        // 同一进程中的多个服务器按端口区分MBean
+        this.metrics = new RpcMetrics("server-" + port);
+        this.transport = transport;
+        this.ownsTransport = ownsTransport;
+        this.persistence = persistence;
+        this.executors = executors;
+        this.serviceImpl = new ServiceImplementation(persistence,
+                executors.callbackExecutor(ServiceImplementation.CREATE_USER));
+        this.orderServiceImpl = new OrderServiceImplementation();
+        this.handlerRegistry = new MethodHandlerRegistry();
+        this.serviceRegistry = new MutableHandlerRegistry();
 
         // 加载proto文件
-        protoManager.loadProtoFiles("src/main/resources/proto");
-
-        // 创建服务器
-        this.server = ServerBuilder.forPort(port)
-                .addService(new DynamicServiceHandler())
+        protoManager.loadProtoFiles("src/main/resources/proto", ProtoFileManager.PRECOMPILED_DESCRIPTOR_SET);
+
+        // 注册方法处理器
+        serviceImpl.registerHandlers(handlerRegistry);
+        orderServiceImpl.registerHandlers(handlerRegistry);
+
+        // proto中定义的所有服务都会被注册，proto重新加载后自动更新
+        bindServices();
+        protoManager.addReloadListener(this::bindServices);
+
+        // 创建服务器，处理器在各方法对应的执行器中运行；并发限制在切换执行器之前准入，被拒绝的调用不排队
+        this.server = transport.newServerBuilder(port)
+                .directExecutor()
+                .callExecutor(concurrencyLimit.admissionControl(executors))
+                // 后添加的拦截器先执行，被拒绝的调用也计入统计
+                .intercept(new CompressionServerInterceptor(compression))
+                .intercept(concurrencyLimit)
+                .intercept(new MetricsServerInterceptor(metrics))
+                .fallbackHandlerRegistry(serviceRegistry)
                 .build();
     }
 
+    /**
+     * 根据当前描述符快照更新服务绑定
+     * 进行中的调用继续使用旧的方法定义完成，新调用使用新的方法定义
+     */
+    private synchronized void bindServices() {
+        Set<String> bound = new HashSet<>();
+        for (ServerServiceDefinition service : handlerRegistry.bindServices(protoManager.getSnapshot())) {
+            serviceRegistry.addService(service);
+            bound.add(service.getServiceDescriptor().getName());
+            // 预先创建各方法的统计，没有调用的方法也能在JMX中看到
+            for (ServerMethodDefinition<?, ?> method : service.getMethods()) {
+                metrics.forMethod(method.getMethodDescriptor().getFullMethodName());
+            }
+        }
+
+        for (ServerServiceDefinition service : serviceRegistry.getServices()) {
+            if (!bound.contains(service.getServiceDescriptor().getName())) {
+                serviceRegistry.removeService(service);
+            }
+        }
+    }
+
+    /**
+     * 处理器执行方式，可按方法设置
+     */
+    public ServerExecutors getExecutors() {
+        return executors;
+    }
+
+    /**
+     * 各方法的调用统计，服务器启动后注册为JMX MBean
+     */
+    public RpcMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 一元调用的自适应并发限制，可通过setEnabled(false)关闭
+     */
+    public ConcurrencyLimitInterceptor getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    /**
+     * 响应消息的压缩设置，可按方法设置编码和最小压缩字节数，对之后开始的调用生效
+     */
+    public MessageCompression getCompression() {
+        return compression;
+    }
+
+    /**
+     * 监听proto目录，文件修改后无需重启即可生效
+     */
+    public void watchProtoFiles() throws IOException {
+        if (!protoManager.isLoadedFromDirectory()) {
+            System.out.println("Proto files loaded from precompiled descriptors, hot reload disabled");
+            return;
+        }
+        protoManager.startWatching();
+    }
+
     /**
      * 启动服务器
      */
     public void start() throws IOException {
         server.start();
-        System.out.println("Server started, listening on port " + server.getPort());
+        metrics.registerMBeans();
+        System.out.println("Server started, listening on port " + server.getPort()
+                + (transport.isEpoll() ? " (epoll)" : " (nio)"));
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.err.println("*** shutting down gRPC server since JVM is shutting down");
             try {
+                protoManager.stopWatching();
                 DynamicGrpcServer.this.stop();
-            } catch (InterruptedException e) {
+            } catch (InterruptedException | IOException e) {
                 e.printStackTrace(System.err);
             }
             System.err.println("*** server shut down");
@@ -56,6 +185,17 @@ public class DynamicGrpcServer {
         if (server != null) {
             server.shutdown().awaitTermination(30, TimeUnit.SECONDS);
         }
+        metrics.unregisterMBeans();
+        executors.shutdown();
+        executors.awaitTermination(5, TimeUnit.SECONDS);
+        if (ownsTransport) {
+            transport.close();
+        }
+        try {
+            persistence.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close user persistence: " + e.getMessage());
+        }
     }
 
     /**
@@ -67,76 +207,6 @@ public class DynamicGrpcServer {
         }
     }
 
-    /**
-     * 动态服务处理器
-     */
-    private class DynamicServiceHandler implements BindableService {
-
-        @Override
-        public ServerServiceDefinition bindService() {
-            ServerServiceDefinition.Builder serviceBuilder =
-                    ServerServiceDefinition.builder("user.UserService");
-
-            // 注册UserService的方法
-            registerUserServiceMethods(serviceBuilder);
-
-            return serviceBuilder.build();
-        }
-
-        private void registerUserServiceMethods(ServerServiceDefinition.Builder serviceBuilder) {
-            Descriptors.ServiceDescriptor userService =
-                    protoManager.getServiceDescriptor("user.UserService");
-
-            if (userService == null) {
-                System.err.println("UserService not found!");
-                return;
-            }
-
-            // 注册GetUser方法
-            Descriptors.MethodDescriptor getUserMethod =
-                    userService.findMethodByName("GetUser");
-            if (getUserMethod != null) {
-                MethodDescriptor<DynamicMessage, DynamicMessage> methodDescriptor =
-                        createMethodDescriptor(userService, getUserMethod);
-
-                serviceBuilder.addMethod(methodDescriptor,
-                        ServerCalls.asyncUnaryCall(
-                                serviceImpl::getUser
-                        ));
-            }
-
-            // 注册CreateUser方法
-            Descriptors.MethodDescriptor createUserMethod =
-                    userService.findMethodByName("CreateUser");
-            if (createUserMethod != null) {
-                MethodDescriptor<DynamicMessage, DynamicMessage> methodDescriptor =
-                        createMethodDescriptor(userService, createUserMethod);
-
-                serviceBuilder.addMethod(methodDescriptor,
-                        ServerCalls.asyncUnaryCall(
-                                serviceImpl::createUser
-                        ));
-            }
-        }
-
-        private MethodDescriptor<DynamicMessage, DynamicMessage> createMethodDescriptor(
-                Descriptors.ServiceDescriptor serviceDescriptor,
-                Descriptors.MethodDescriptor methodDescriptor) {
-            String fullMethodName = serviceDescriptor.getFullName() + "/" + methodDescriptor.getName();
-
-            return MethodDescriptor.<DynamicMessage, DynamicMessage>newBuilder()
-                    .setType(MethodDescriptor.MethodType.UNARY)
-                    .setFullMethodName(fullMethodName)
-                    .setRequestMarshaller(ProtoUtils.marshaller(
-                            DynamicMessage.getDefaultInstance(methodDescriptor.getInputType())
-                    ))
-                    .setResponseMarshaller(ProtoUtils.marshaller(
-                            DynamicMessage.getDefaultInstance(methodDescriptor.getOutputType())
-                    ))
-                    .build();
-        }
-    }
-
     /**
      * 主函数
      */
@@ -145,9 +215,21 @@ public class DynamicGrpcServer {
         if (args.length > 0) {
             port = Integer.parseInt(args[0]);
         }
+        // 第二个参数为数据目录，指定后用户数据写入预写日志和快照，重启后恢复；为-时只保存在内存中
+        UserPersistence persistence = UserPersistence.NONE;
+        if (args.length > 1 && !args[1].equals("-")) {
+            persistence = new WalUserPersistence(new File(args[1]));
+        }
+        // 第三个参数为处理器默认执行方式：direct、fork_join、virtual或cached
+        ServerExecutors executors = new ServerExecutors();
+        if (args.length > 2) {
+            executors = new ServerExecutors(ServerExecutors.Mode.parse(args[2]),
+                    Runtime.getRuntime().availableProcessors());
+        }
 
-        DynamicGrpcServer server = new DynamicGrpcServer(port);
+        DynamicGrpcServer server = new DynamicGrpcServer(port, persistence, executors);
         server.start();
+        server.watchProtoFiles();
         server.blockUntilShutdown();
     }
 }
\ No newline at end of file
@@ -0,0 +1,123 @@
+package cn.edu.hit.server;
+
+/**
+ * 以int为键和值的开放寻址哈希表（线性探测），键和值保存在基本类型数组中，不装箱
+ * 非线程安全，由调用方加锁；键和值数组放在同一个Table对象中，扩容时整体替换，
+ * 乐观读（StampedLock.tryOptimisticRead）在扩容过程中读到的也总是一对长度相同的数组
+ */
+final class IntIntHashMap {
+    // 0不能作为键时用于标记空槽位，键0单独保存
+    private static final int EMPTY = 0;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private Table table;
+    private boolean hasZeroKey;
+    private int zeroValue;
+    private int size;
+    private final int missingValue;
+
+    IntIntHashMap(int initialCapacity, int missingValue) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (initialCapacity / LOAD_FACTOR)) - 1) << 1;
+        this.table = new Table(capacity);
+        this.missingValue = missingValue;
+    }
+
+    /**
+     * 获取键对应的值，不存在时返回missingValue
+     */
+    int get(int key) {
+        if (key == EMPTY) {
+            return hasZeroKey ? zeroValue : missingValue;
+        }
+        Table t = table;
+        int mask = t.keys.length - 1;
+        int index = mix(key) & mask;
+        for (int probes = 0; probes <= mask; probes++) {
+            int k = t.keys[index];
+            if (k == key) {
+                return t.values[index];
+            }
+            if (k == EMPTY) {
+                return missingValue;
+            }
+            index = (index + 1) & mask;
+        }
+        return missingValue;
+    }
+
+    boolean containsKey(int key) {
+        return get(key) != missingValue;
+    }
+
+    /**
+     * 写入键值对，返回旧值，不存在时返回missingValue
+     */
+    int put(int key, int value) {
+        if (key == EMPTY) {
+            int previous = hasZeroKey ? zeroValue : missingValue;
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroValue = value;
+            return previous;
+        }
+        int previous = insert(table, key, value);
+        if (previous == missingValue) {
+            size++;
+            if (size > table.keys.length * LOAD_FACTOR) {
+                resize();
+            }
+        }
+        return previous;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int insert(Table t, int key, int value) {
+        int mask = t.keys.length - 1;
+        int index = mix(key) & mask;
+        while (true) {
+            int k = t.keys[index];
+            if (k == EMPTY) {
+                t.values[index] = value;
+                t.keys[index] = key;
+                return missingValue;
+            }
+            if (k == key) {
+                int previous = t.values[index];
+                t.values[index] = value;
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    private void resize() {
+        Table old = table;
+        Table resized = new Table(old.keys.length << 1);
+        for (int i = 0; i < old.keys.length; i++) {
+            if (old.keys[i] != EMPTY) {
+                insert(resized, old.keys[i], old.values[i]);
+            }
+        }
+        table = resized;
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Table {
+        final int[] keys;
+        final int[] values;
+
+        Table(int capacity) {
+            this.keys = new int[capacity];
+            this.values = new int[capacity];
+        }
+    }
+}
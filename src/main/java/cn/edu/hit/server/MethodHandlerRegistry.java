@@ -0,0 +1,127 @@
+package cn.edu.hit.server;
+
+import cn.edu.hit.common.DescriptorSnapshot;
+import cn.edu.hit.common.MethodDescriptorHelper;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.stub.ServerCalls;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 方法处理器注册表，按完整方法名（package.Service/Method）注册处理器
+ * 根据proto中的服务描述符生成服务定义，服务本身无需在服务器中硬编码
+ */
+public class MethodHandlerRegistry {
+    private final Map<String, ServerCallHandler<DynamicMessage, DynamicMessage>> handlers =
+            new ConcurrentHashMap<>();
+
+    /**
+     * 注册处理器
+     */
+    public void register(String fullMethodName, ServerCallHandler<DynamicMessage, DynamicMessage> handler) {
+        handlers.put(fullMethodName, handler);
+    }
+
+    /**
+     * 注册一元方法
+     */
+    public void registerUnary(String fullMethodName,
+                              ServerCalls.UnaryMethod<DynamicMessage, DynamicMessage> method) {
+        register(fullMethodName, ServerCalls.asyncUnaryCall(method));
+    }
+
+    /**
+     * 注册服务端流方法
+     */
+    public void registerServerStreaming(String fullMethodName,
+                                        ServerCalls.ServerStreamingMethod<DynamicMessage, DynamicMessage> method) {
+        register(fullMethodName, ServerCalls.asyncServerStreamingCall(method));
+    }
+
+    /**
+     * 注册客户端流方法
+     */
+    public void registerClientStreaming(String fullMethodName,
+                                        ServerCalls.ClientStreamingMethod<DynamicMessage, DynamicMessage> method) {
+        register(fullMethodName, ServerCalls.asyncClientStreamingCall(method));
+    }
+
+    /**
+     * 注册双向流方法
+     */
+    public void registerBidiStreaming(String fullMethodName,
+                                      ServerCalls.BidiStreamingMethod<DynamicMessage, DynamicMessage> method) {
+        register(fullMethodName, ServerCalls.asyncBidiStreamingCall(method));
+    }
+
+    /**
+     * 获取处理器，未注册时返回null
+     */
+    public ServerCallHandler<DynamicMessage, DynamicMessage> lookup(String fullMethodName) {
+        return handlers.get(fullMethodName);
+    }
+
+    /**
+     * 遍历描述符快照中的所有服务生成服务定义
+     * 每个方法的gRPC方法描述符只在此处创建一次，没有处理器的方法直接返回UNIMPLEMENTED
+     */
+    public List<ServerServiceDefinition> bindServices(DescriptorSnapshot snapshot) {
+        List<ServerServiceDefinition> definitions = new ArrayList<>();
+        Set<String> bound = new HashSet<>();
+
+        for (Descriptors.ServiceDescriptor serviceDescriptor : snapshot.getServiceDescriptors().values()) {
+            definitions.add(bindService(serviceDescriptor, bound));
+        }
+
+        for (String fullMethodName : handlers.keySet()) {
+            if (!bound.contains(fullMethodName)) {
+                System.err.println("Handler registered for unknown method: " + fullMethodName);
+            }
+        }
+        return definitions;
+    }
+
+    private ServerServiceDefinition bindService(Descriptors.ServiceDescriptor serviceDescriptor, Set<String> bound) {
+        ServerServiceDefinition.Builder serviceBuilder =
+                ServerServiceDefinition.builder(serviceDescriptor.getFullName());
+
+        for (Descriptors.MethodDescriptor method : serviceDescriptor.getMethods()) {
+            MethodDescriptor<DynamicMessage, DynamicMessage> methodDescriptor =
+                    MethodDescriptorHelper.createMethodDescriptor(serviceDescriptor, method);
+            String fullMethodName = methodDescriptor.getFullMethodName();
+
+            ServerCallHandler<DynamicMessage, DynamicMessage> handler = handlers.get(fullMethodName);
+            if (handler == null) {
+                handler = unimplemented(fullMethodName);
+            } else {
+                bound.add(fullMethodName);
+            }
+            serviceBuilder.addMethod(methodDescriptor, handler);
+        }
+        return serviceBuilder.build();
+    }
+
+    /**
+     * 未实现的方法，调用开始时立即以UNIMPLEMENTED关闭，不读取请求消息
+     */
+    private static ServerCallHandler<DynamicMessage, DynamicMessage> unimplemented(String fullMethodName) {
+        Status status = Status.UNIMPLEMENTED.withDescription("Method not implemented: " + fullMethodName);
+        return (call, headers) -> {
+            call.close(status, new Metadata());
+            return new ServerCall.Listener<DynamicMessage>() {
+            };
+        };
+    }
+}
@@ -0,0 +1,89 @@
+package cn.edu.hit.server;
+
+import cn.edu.hit.common.MethodMetrics;
+import cn.edu.hit.common.RpcMetrics;
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * 记录服务端每个方法的调用数、进行中的调用数、状态码、消息字节数和延迟
+ * 延迟从调用到达拦截器开始，到服务端关闭调用或客户端取消为止
+ */
+public class MetricsServerInterceptor implements ServerInterceptor {
+    private final RpcMetrics metrics;
+
+    public MetricsServerInterceptor(RpcMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+            ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        MethodMetrics method = metrics.forMethod(call.getMethodDescriptor().getFullMethodName());
+        MetricsCall<ReqT, RespT> metricsCall = new MetricsCall<>(call, method);
+        method.callStarted();
+        ServerCall.Listener<ReqT> listener;
+        try {
+            listener = next.startCall(metricsCall, headers);
+        } catch (RuntimeException e) {
+            metricsCall.finish(Status.Code.UNKNOWN);
+            throw e;
+        }
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(listener) {
+            @Override
+            public void onMessage(ReqT message) {
+                method.requestMessage(MethodMetrics.sizeOf(message));
+                super.onMessage(message);
+            }
+
+            @Override
+            public void onCancel() {
+                metricsCall.finish(Status.Code.CANCELLED);
+                super.onCancel();
+            }
+        };
+    }
+
+    private static final class MetricsCall<ReqT, RespT>
+            extends ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT> {
+        private static final AtomicIntegerFieldUpdater<? super MetricsCall<?, ?>> FINISHED =
+                AtomicIntegerFieldUpdater.newUpdater(MetricsCall.class, "finished");
+
+        private final MethodMetrics method;
+        private final long startNanos = System.nanoTime();
+        private volatile int finished;
+
+        MetricsCall(ServerCall<ReqT, RespT> call, MethodMetrics method) {
+            super(call);
+            this.method = method;
+        }
+
+        @Override
+        public void sendMessage(RespT message) {
+            method.responseMessage(MethodMetrics.sizeOf(message));
+            super.sendMessage(message);
+        }
+
+        @Override
+        public void close(Status status, Metadata trailers) {
+            finish(status.getCode());
+            super.close(status, trailers);
+        }
+
+        /**
+         * 关闭和取消可能先后发生，只记录第一次
+         */
+        void finish(Status.Code code) {
+            if (FINISHED.compareAndSet(this, 0, 1)) {
+                method.callClosed(code, System.nanoTime() - startNanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package cn.edu.hit.server;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 订单引擎，保存订单并维护按用户的订单索引
+ * 订单号由OrderIdGenerator无竞争地生成；订单表和用户索引都是ConcurrentHashMap，按订单号或用户查找为O(1)，
+ * 每个用户的订单按创建顺序追加在数组中，读取时不加锁
+ */
+public class OrderEngine {
+    public static final String STATUS_CREATED = "CREATED";
+
+    private final OrderIdGenerator idGenerator = new OrderIdGenerator();
+    private final ConcurrentHashMap<String, OrderRecord> orders;
+    private final ConcurrentHashMap<Integer, UserOrders> ordersByUser;
+    private final AtomicInteger size = new AtomicInteger();
+
+    public OrderEngine() {
+        this(1024);
+    }
+
+    /**
+     * @param expectedOrders 预计的订单数量，用于预先分配哈希表容量，避免订单增长时反复扩容
+     */
+    public OrderEngine(int expectedOrders) {
+        this.orders = new ConcurrentHashMap<>(expectedOrders);
+        this.ordersByUser = new ConcurrentHashMap<>(Math.max(16, expectedOrders / 8));
+    }
+
+    /**
+     * 创建订单，订单项以并列数组传入，总金额为各项数量与单价乘积之和
+     */
+    public OrderRecord create(int userId, String[] productIds, String[] productNames, int[] quantities,
+                              double[] prices, long createdTime) {
+        int count = quantities.length;
+        if (productIds.length != count || productNames.length != count || prices.length != count) {
+            throw new IllegalArgumentException("Order item columns have different lengths");
+        }
+        double totalAmount = 0;
+        for (int i = 0; i < count; i++) {
+            totalAmount += quantities[i] * prices[i];
+        }
+
+        OrderRecord order = new OrderRecord(idGenerator.nextId(), userId, productIds, productNames, quantities,
+                prices, totalAmount, createdTime, STATUS_CREATED);
+        orders.put(order.getId(), order);
+        ordersByUser.computeIfAbsent(userId, id -> new UserOrders()).add(order);
+        size.incrementAndGet();
+        return order;
+    }
+
+    /**
+     * 按订单号查找订单，不存在时返回null
+     */
+    public OrderRecord get(String orderId) {
+        return orders.get(orderId);
+    }
+
+    /**
+     * 用户的全部订单，按创建顺序排列
+     */
+    public List<OrderRecord> ordersOf(int userId) {
+        UserOrders userOrders = ordersByUser.get(userId);
+        return userOrders == null ? Collections.<OrderRecord>emptyList() : userOrders.snapshot();
+    }
+
+    /**
+     * 用户的订单数量
+     */
+    public int countOf(int userId) {
+        UserOrders userOrders = ordersByUser.get(userId);
+        return userOrders == null ? 0 : userOrders.count;
+    }
+
+    /**
+     * 订单总数
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * 一个用户的订单，写入时加锁追加
+     * 先写入元素（扩容时先发布新数组）再发布count，读取方先读count再读数组，不加锁也能看到完整的前count个订单
+     */
+    private static final class UserOrders {
+        private volatile OrderRecord[] orders = new OrderRecord[4];
+        private volatile int count;
+
+        synchronized void add(OrderRecord order) {
+            OrderRecord[] current = orders;
+            int n = count;
+            if (n == current.length) {
+                current = Arrays.copyOf(current, n << 1);
+                current[n] = order;
+                orders = current;
+            } else {
+                current[n] = order;
+            }
+            count = n + 1;
+        }
+
+        List<OrderRecord> snapshot() {
+            int n = count;
+            return Collections.unmodifiableList(Arrays.asList(orders).subList(0, n));
+        }
+    }
+}
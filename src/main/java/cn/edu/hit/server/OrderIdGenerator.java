@@ -0,0 +1,74 @@
+package cn.edu.hit.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按时间排序的订单号生成器
+ * 64位编号由毫秒时间戳（41位）、分段号（6位）和段内序号（13位）组成，编码为13位Crockford base32字符串，
+ * 字符串顺序与生成时间顺序一致
+ * 每个线程固定使用一个分段，分段内用CAS递增，不同线程之间基本没有竞争；
+ * 同一毫秒内序号用完时借用下一毫秒，编号仍然唯一且单调递增
+ */
+public final class OrderIdGenerator {
+    // 2024-01-01T00:00:00Z
+    private static final long EPOCH = 1704067200000L;
+    private static final int STRIPE_BITS = 6;
+    private static final int SEQUENCE_BITS = 13;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+    private static final int LENGTH = 13;
+
+    private final AtomicLong[] stripes = new AtomicLong[STRIPES];
+    private final AtomicInteger nextStripe = new AtomicInteger();
+    private final ThreadLocal<Integer> threadStripe =
+            ThreadLocal.withInitial(() -> nextStripe.getAndIncrement() & (STRIPES - 1));
+
+    public OrderIdGenerator() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new AtomicLong();
+        }
+    }
+
+    /**
+     * 生成下一个订单号
+     */
+    public String nextId() {
+        return encode(next());
+    }
+
+    /**
+     * 生成下一个64位编号
+     */
+    public long next() {
+        int stripe = threadStripe.get();
+        AtomicLong state = stripes[stripe];
+        long now = (System.currentTimeMillis() - EPOCH) << SEQUENCE_BITS;
+        long previous;
+        long value;
+        do {
+            previous = state.get();
+            value = Math.max(previous + 1, now);
+        } while (!state.compareAndSet(previous, value));
+
+        long millis = value >>> SEQUENCE_BITS;
+        return (millis << (STRIPE_BITS + SEQUENCE_BITS)) | ((long) stripe << SEQUENCE_BITS) | (value & SEQUENCE_MASK);
+    }
+
+    /**
+     * 编号的生成时间（毫秒时间戳）
+     */
+    public static long timestampOf(long id) {
+        return (id >>> (STRIPE_BITS + SEQUENCE_BITS)) + EPOCH;
+    }
+
+    static String encode(long id) {
+        char[] chars = new char[LENGTH];
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            chars[i] = ALPHABET[(int) (id & 31)];
+            id >>>= 5;
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,69 @@
+package cn.edu.hit.server;
+
+/**
+ * 订单数据，订单项按列保存在数组中
+ */
+public final class OrderRecord {
+    private final String id;
+    private final int userId;
+    private final String[] productIds;
+    private final String[] productNames;
+    private final int[] quantities;
+    private final double[] prices;
+    private final double totalAmount;
+    private final long createdTime;
+    private final String status;
+
+    OrderRecord(String id, int userId, String[] productIds, String[] productNames, int[] quantities,
+                double[] prices, double totalAmount, long createdTime, String status) {
+        this.id = id;
+        this.userId = userId;
+        this.productIds = productIds;
+        this.productNames = productNames;
+        this.quantities = quantities;
+        this.prices = prices;
+        this.totalAmount = totalAmount;
+        this.createdTime = createdTime;
+        this.status = status;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public int getItemCount() {
+        return quantities.length;
+    }
+
+    public String getProductId(int item) {
+        return productIds[item];
+    }
+
+    public String getProductName(int item) {
+        return productNames[item];
+    }
+
+    public int getQuantity(int item) {
+        return quantities[item];
+    }
+
+    public double getPrice(int item) {
+        return prices[item];
+    }
+
+    public double getTotalAmount() {
+        return totalAmount;
+    }
+
+    public long getCreatedTime() {
+        return createdTime;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+}
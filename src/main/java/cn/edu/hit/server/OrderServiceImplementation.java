@@ -0,0 +1,195 @@
+package cn.edu.hit.server;
+
+import cn.edu.hit.common.MessageBinder;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.Message;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * 订单服务实现（order.OrderService），订单数据由OrderEngine保存
+ */
+public class OrderServiceImplementation {
+    private final OrderEngine engine;
+    private volatile OrderSchema schema;
+
+    public OrderServiceImplementation() {
+        this(new OrderEngine());
+    }
+
+    public OrderServiceImplementation(OrderEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * 向注册表注册本类实现的方法
+     */
+    public void registerHandlers(MethodHandlerRegistry registry) {
+        registry.registerUnary("order.OrderService/CreateOrder", this::createOrder);
+        registry.registerUnary("order.OrderService/GetOrder", this::getOrder);
+    }
+
+    /**
+     * 处理CreateOrder请求
+     * 订单项逐个读入并列的基本类型数组，总金额在OrderEngine中用double累加
+     */
+    public void createOrder(DynamicMessage request, StreamObserver<DynamicMessage> responseObserver) {
+        try {
+            OrderSchema schema = schemaFor(request);
+            int userId = schema.createOrderUserId.get(request);
+            int count = schema.createOrderItems.count(request);
+
+            DynamicMessage.Builder responseBuilder = schema.createOrderResponse.newBuilder();
+            if (userId <= 0 || count == 0) {
+                schema.createOrderSuccess.set(responseBuilder, false);
+                schema.createOrderMessage.set(responseBuilder,
+                    userId <= 0 ? "Invalid user_id: " + userId : "Order has no items");
+                responseObserver.onNext(responseBuilder.build());
+                responseObserver.onCompleted();
+                return;
+            }
+
+            String[] productIds = new String[count];
+            String[] productNames = new String[count];
+            int[] quantities = new int[count];
+            double[] prices = new double[count];
+            for (int i = 0; i < count; i++) {
+                Message item = schema.createOrderItems.get(request, i);
+                productIds[i] = schema.itemProductId.get(item);
+                productNames[i] = schema.itemProductName.get(item);
+                quantities[i] = schema.itemQuantity.get(item);
+                prices[i] = schema.itemPrice.get(item);
+            }
+
+            OrderRecord order = engine.create(userId, productIds, productNames, quantities, prices,
+                System.currentTimeMillis());
+
+            schema.createOrderResponseOrder.set(responseBuilder, buildOrder(schema, order));
+            schema.createOrderSuccess.set(responseBuilder, true);
+            schema.createOrderMessage.set(responseBuilder, "Order created successfully");
+
+            responseObserver.onNext(responseBuilder.build());
+            responseObserver.onCompleted();
+
+        } catch (Exception e) {
+            responseObserver.onError(e);
+        }
+    }
+
+    /**
+     * 处理GetOrder请求，订单不存在时返回空的GetOrderResponse
+     */
+    public void getOrder(DynamicMessage request, StreamObserver<DynamicMessage> responseObserver) {
+        try {
+            OrderSchema schema = schemaFor(request);
+            OrderRecord order = engine.get(schema.getOrderId.get(request));
+
+            DynamicMessage.Builder responseBuilder = schema.getOrderResponse.newBuilder();
+            if (order != null) {
+                schema.getOrderResponseOrder.set(responseBuilder, buildOrder(schema, order));
+            }
+
+            responseObserver.onNext(responseBuilder.build());
+            responseObserver.onCompleted();
+
+        } catch (Exception e) {
+            responseObserver.onError(e);
+        }
+    }
+
+    /**
+     * 构建Order消息
+     */
+    private DynamicMessage buildOrder(OrderSchema schema, OrderRecord order) {
+        DynamicMessage.Builder orderBuilder = schema.order.newBuilder();
+        schema.orderId.set(orderBuilder, order.getId());
+        schema.orderUserId.set(orderBuilder, order.getUserId());
+        for (int i = 0; i < order.getItemCount(); i++) {
+            DynamicMessage.Builder itemBuilder = schema.item.newBuilder();
+            schema.itemProductId.set(itemBuilder, order.getProductId(i));
+            schema.itemProductName.set(itemBuilder, order.getProductName(i));
+            schema.itemQuantity.set(itemBuilder, order.getQuantity(i));
+            schema.itemPrice.set(itemBuilder, order.getPrice(i));
+            schema.orderItems.add(orderBuilder, itemBuilder.build());
+        }
+        schema.orderTotalAmount.set(orderBuilder, order.getTotalAmount());
+        schema.orderCreatedTime.set(orderBuilder, order.getCreatedTime());
+        schema.orderStatus.set(orderBuilder, order.getStatus());
+        return orderBuilder.build();
+    }
+
+    /**
+     * 获取请求所属proto文件对应的字段绑定，proto重新加载后描述符被替换时重新绑定
+     */
+    private OrderSchema schemaFor(DynamicMessage request) {
+        Descriptors.FileDescriptor file = request.getDescriptorForType().getFile();
+        OrderSchema current = schema;
+        if (current == null || current.file != file) {
+            current = new OrderSchema(file);
+            schema = current;
+        }
+        return current;
+    }
+
+    /**
+     * order.proto中各消息的字段绑定，每个FileDescriptor只解析一次
+     */
+    private static final class OrderSchema {
+        final Descriptors.FileDescriptor file;
+
+        final MessageBinder.IntField createOrderUserId;
+        final MessageBinder.RepeatedMessageField createOrderItems;
+        final MessageBinder createOrderResponse;
+        final MessageBinder.MessageField createOrderResponseOrder;
+        final MessageBinder.BoolField createOrderSuccess;
+        final MessageBinder.StringField createOrderMessage;
+
+        final MessageBinder.StringField getOrderId;
+        final MessageBinder getOrderResponse;
+        final MessageBinder.MessageField getOrderResponseOrder;
+
+        final MessageBinder order;
+        final MessageBinder.StringField orderId;
+        final MessageBinder.IntField orderUserId;
+        final MessageBinder.RepeatedMessageField orderItems;
+        final MessageBinder.DoubleField orderTotalAmount;
+        final MessageBinder.LongField orderCreatedTime;
+        final MessageBinder.StringField orderStatus;
+
+        final MessageBinder item;
+        final MessageBinder.StringField itemProductId;
+        final MessageBinder.StringField itemProductName;
+        final MessageBinder.IntField itemQuantity;
+        final MessageBinder.DoubleField itemPrice;
+
+        OrderSchema(Descriptors.FileDescriptor file) {
+            this.file = file;
+
+            MessageBinder createOrderRequest = MessageBinder.of(file, "CreateOrderRequest");
+            createOrderUserId = createOrderRequest.intField("user_id");
+            createOrderItems = createOrderRequest.repeatedMessageField("items");
+            createOrderResponse = MessageBinder.of(file, "CreateOrderResponse");
+            createOrderResponseOrder = createOrderResponse.messageField("order");
+            createOrderSuccess = createOrderResponse.boolField("success");
+            createOrderMessage = createOrderResponse.stringField("message");
+
+            getOrderId = MessageBinder.of(file, "GetOrderRequest").stringField("order_id");
+            getOrderResponse = MessageBinder.of(file, "GetOrderResponse");
+            getOrderResponseOrder = getOrderResponse.messageField("order");
+
+            order = MessageBinder.of(file, "Order");
+            orderId = order.stringField("id");
+            orderUserId = order.intField("user_id");
+            orderItems = order.repeatedMessageField("items");
+            orderTotalAmount = order.doubleField("total_amount");
+            orderCreatedTime = order.longField("created_time");
+            orderStatus = order.stringField("status");
+
+            item = MessageBinder.of(file, "OrderItem");
+            itemProductId = item.stringField("product_id");
+            itemProductName = item.stringField("product_name");
+            itemQuantity = item.intField("quantity");
+            itemPrice = item.doubleField("price");
+        }
+    }
+}
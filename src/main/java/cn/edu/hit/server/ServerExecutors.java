@@ -0,0 +1,203 @@
+package cn.edu.hit.server;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallExecutorSupplier;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按方法选择服务端处理器的执行方式
+ * 服务器本身使用directExecutor，每个调用开始时通过ServerCallExecutorSupplier切换到方法对应的执行器
+ */
+public class ServerExecutors implements ServerCallExecutorSupplier {
+    /**
+     * 执行方式
+     */
+    public enum Mode {
+        /** 在传输层（Netty事件循环）线程中直接执行，只适用于不阻塞的处理器 */
+        DIRECT,
+        /** 固定并行度的ForkJoinPool，线程数不随突发流量增长 */
+        FORK_JOIN,
+        /** 每个任务一个虚拟线程，需要JDK 21及以上，较低版本上使用FORK_JOIN */
+        VIRTUAL,
+        /** gRPC默认的无界缓存线程池 */
+        CACHED;
+
+        /**
+         * 按名称解析，不区分大小写，允许forkjoin这样省略下划线
+         */
+        public static Mode parse(String name) {
+            String normalized = name.trim().toUpperCase().replace("-", "_");
+            for (Mode mode : values()) {
+                if (mode.name().equals(normalized) || mode.name().replace("_", "").equals(normalized)) {
+                    return mode;
+                }
+            }
+            throw new IllegalArgumentException("Unknown executor mode: " + name);
+        }
+    }
+
+    // JDK 21的Executors.newVirtualThreadPerTaskExecutor，不可用时为null
+    private static final Method VIRTUAL_THREAD_FACTORY = findVirtualThreadFactory();
+
+    private final Mode defaultMode;
+    private final int parallelism;
+    private final Map<String, Mode> methodModes = new ConcurrentHashMap<>();
+    private final Map<Mode, Executor> executors = new ConcurrentHashMap<>();
+
+    /**
+     * 默认使用gRPC的缓存线程池，ForkJoinPool的并行度为CPU核数
+     */
+    public ServerExecutors() {
+        this(Mode.CACHED, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param defaultMode 未单独设置的方法使用的执行方式，JDK 21以下的VIRTUAL按FORK_JOIN处理
+     * @param parallelism FORK_JOIN执行器的并行度
+     */
+    public ServerExecutors(Mode defaultMode, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+        }
+        this.defaultMode = checkSupported(defaultMode);
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * 设置方法的执行方式，对之后开始的调用生效
+     *
+     * @param fullMethodName 完整方法名，如user.UserService/GetUser
+     */
+    public void setMode(String fullMethodName, Mode mode) {
+        methodModes.put(fullMethodName, checkSupported(mode));
+    }
+
+    private static Mode checkSupported(Mode mode) {
+        if (mode == Mode.VIRTUAL && VIRTUAL_THREAD_FACTORY == null) {
+            System.err.println("Virtual threads require JDK 21+, using FORK_JOIN executor");
+            return Mode.FORK_JOIN;
+        }
+        return mode;
+    }
+
+    public Mode getMode(String fullMethodName) {
+        return methodModes.getOrDefault(fullMethodName, defaultMode);
+    }
+
+    @Override
+    public <ReqT, RespT> Executor getExecutor(ServerCall<ReqT, RespT> call, Metadata headers) {
+        return executor(getMode(call.getMethodDescriptor().getFullMethodName()));
+    }
+
+    /**
+     * 方法处理器发起的异步操作完成后执行回调（如持久化完成后发送响应）的执行器，按调用时方法的执行方式选择
+     * DIRECT时使用FORK_JOIN，回调不在完成异步操作的线程（如WAL写线程）中执行
+     */
+    public Executor callbackExecutor(String fullMethodName) {
+        return task -> {
+            Mode mode = getMode(fullMethodName);
+            executor(mode == Mode.DIRECT ? Mode.FORK_JOIN : mode).execute(task);
+        };
+    }
+
+    /**
+     * 获取执行方式对应的执行器，线程池在第一次使用时创建
+     */
+    public Executor executor(Mode mode) {
+        Executor executor = executors.get(mode);
+        if (executor == null) {
+            executor = executors.computeIfAbsent(mode, this::create);
+        }
+        return executor;
+    }
+
+    private Executor create(Mode mode) {
+        switch (mode) {
+            case DIRECT:
+                return MoreExecutors.directExecutor();
+            case FORK_JOIN:
+                return newForkJoinPool(parallelism);
+            case VIRTUAL:
+                try {
+                    return (ExecutorService) VIRTUAL_THREAD_FACTORY.invoke(null);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("Cannot create virtual thread executor", e);
+                }
+            default:
+                return Executors.newCachedThreadPool(daemonThreads("grpc-handler-"));
+        }
+    }
+
+    /**
+     * 关闭已创建的线程池
+     */
+    public void shutdown() {
+        for (Executor executor : executors.values()) {
+            if (executor instanceof ExecutorService) {
+                ((ExecutorService) executor).shutdown();
+            }
+        }
+    }
+
+    /**
+     * 等待线程池中的任务执行完毕
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Executor executor : executors.values()) {
+            if (executor instanceof ExecutorService) {
+                long remaining = Math.max(deadline - System.nanoTime(), 0);
+                if (!((ExecutorService) executor).awaitTermination(remaining, TimeUnit.NANOSECONDS)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * asyncMode的ForkJoinPool按FIFO顺序执行提交的任务，适合gRPC这种事件式的回调
+     */
+    private static ForkJoinPool newForkJoinPool(int parallelism) {
+        AtomicInteger counter = new AtomicInteger();
+        return new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("grpc-fj-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, null, true);
+    }
+
+    /**
+     * 构建目标为Java 8，运行在JDK 21及以上时通过反射使用虚拟线程
+     */
+    private static Method findVirtualThreadFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -1,39 +1,109 @@
 package cn.edu.hit.server;
 
+import cn.edu.hit.common.MessageBinder;
+import cn.edu.hit.common.StreamPump;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.Descriptors;
 import com.google.protobuf.DynamicMessage;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 模拟服务实现，用于演示动态gRPC调用
  */
 public class ServiceImplementation {
-    private final Map<Integer, Map<String, Object>> users = new HashMap<>();
-    private final AtomicInteger userIdCounter = new AtomicInteger(1);
+    static final String CREATE_USER = "user.UserService/CreateUser";
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAX_PAGE_SIZE = 1000;
+    
+    private final UserStore users = new UserStore();
+    private final UserPersistence persistence;
+    // 保证id分配顺序与persistence.append的顺序一致
+    private final Object createLock = new Object();
+    // persistence完成后发送响应的执行器，不占用完成写入的线程
+    private final Executor callbackExecutor;
+    // 按persistence完成的顺序（即id顺序）将用户加入users，在callbackExecutor中依次执行
+    private final Executor publishExecutor;
+    private volatile UserSchema schema;
     
     public ServiceImplementation() {
+        this.persistence = UserPersistence.NONE;
+        this.callbackExecutor = ForkJoinPool.commonPool();
+        this.publishExecutor = MoreExecutors.newSequentialExecutor(callbackExecutor);
         // 初始化一些测试数据
         initTestData();
     }
     
+    /**
+     * 从persistence中恢复用户，新建用户写入persistence；没有已保存的用户时初始化测试数据
+     * 写入完成后的处理在公共ForkJoinPool中执行
+     */
+    public ServiceImplementation(UserPersistence persistence) throws IOException {
+        this(persistence, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * @param callbackExecutor 写入完成后加入用户、构建并发送CreateUser响应的执行器，
+     *                         persistence的future在其写线程中完成，这些处理不在写线程中执行
+     */
+    public ServiceImplementation(UserPersistence persistence, Executor callbackExecutor) throws IOException {
+        this.persistence = persistence;
+        this.callbackExecutor = callbackExecutor;
+        this.publishExecutor = MoreExecutors.newSequentialExecutor(callbackExecutor);
+        persistence.recover(users);
+        if (users.size() == 0) {
+            initTestData();
+        }
+    }
+    
     private void initTestData() {
         addUser("Alice", "alice@example.com", 25);
         addUser("Bob", "bob@example.com", 30);
         addUser("Charlie", "charlie@example.com", 35);
     }
     
+    /**
+     * 向注册表注册本类实现的方法
+     */
+    public void registerHandlers(MethodHandlerRegistry registry) {
+        registry.registerUnary("user.UserService/GetUser", this::getUser);
+        registry.registerUnary(CREATE_USER, this::createUser);
+        registry.registerUnary("user.UserService/ListUsers", this::listUsers);
+        registry.registerServerStreaming("user.UserService/StreamUsers", this::streamUsers);
+        registry.registerBidiStreaming("user.UserService/GetUserStream", this::getUserStream);
+    }
+    
+    /**
+     * 添加测试用户，等待写入完成，写入失败时启动失败
+     */
     private void addUser(String name, String email, int age) {
-        int id = userIdCounter.getAndIncrement();
-        Map<String, Object> user = new HashMap<>();
-        user.put("id", id);
-        user.put("name", name);
-        user.put("email", email);
-        user.put("age", age);
-        user.put("created_time", System.currentTimeMillis());
-        users.put(id, user);
+        persistUser(name, email, age).join();
+    }
+    
+    /**
+     * 分配id并写入persistence，写入成功后才加入users；写入失败时用户不可见，分配的id不再使用
+     * id分配和append在同一把锁内进行，persistence按append的顺序完成，完成时只向顺序执行器提交加入users的任务，
+     * 因此用户按id顺序加入users，写线程不执行加入和之后的处理
+     */
+    private CompletableFuture<UserRecord> persistUser(String name, String email, int age) {
+        synchronized (createLock) {
+            UserRecord user = new UserRecord(users.reserveId(), name, email, age, System.currentTimeMillis());
+            // 已完成的future（如不做持久化时）在锁内提交，同样保持id顺序
+            return persistence.append(user).thenApplyAsync(ignored -> {
+                users.add(user);
+                return user;
+            }, publishExecutor);
+        }
     }
     
     /**
@@ -41,42 +111,98 @@ public class ServiceImplementation {
      */
     public void getUser(DynamicMessage request, StreamObserver<DynamicMessage> responseObserver) {
         try {
-            int userId = (Integer) request.getField(
-                request.getDescriptorForType().findFieldByName("user_id"));
-            
-            Map<String, Object> userData = users.get(userId);
-            
-            DynamicMessage.Builder responseBuilder = DynamicMessage.newBuilder(
-                request.getDescriptorForType()
-                    .getFile()
-                    .findMessageTypeByName("GetUserResponse"));
-            
-            if (userData != null) {
-                // 构建User消息
-                DynamicMessage.Builder userBuilder = DynamicMessage.newBuilder(
-                    request.getDescriptorForType()
-                        .getFile()
-                        .findMessageTypeByName("User"));
-                
-                userBuilder.setField(
-                    userBuilder.getDescriptorForType().findFieldByName("id"), 
-                    userData.get("id"));
-                userBuilder.setField(
-                    userBuilder.getDescriptorForType().findFieldByName("name"), 
-                    userData.get("name"));
-                userBuilder.setField(
-                    userBuilder.getDescriptorForType().findFieldByName("email"), 
-                    userData.get("email"));
-                userBuilder.setField(
-                    userBuilder.getDescriptorForType().findFieldByName("age"), 
-                    userData.get("age"));
-                userBuilder.setField(
-                    userBuilder.getDescriptorForType().findFieldByName("created_time"), 
-                    userData.get("created_time"));
-                
-                responseBuilder.setField(
-                    responseBuilder.getDescriptorForType().findFieldByName("user"), 
-                    userBuilder.build());
+            responseObserver.onNext(buildGetUserResponse(request));
+            responseObserver.onCompleted();
+            
+        } catch (Exception e) {
+            responseObserver.onError(e);
+        }
+    }
+    
+    /**
+     * 根据GetUserRequest构建GetUserResponse
+     */
+    private DynamicMessage buildGetUserResponse(DynamicMessage request) {
+        UserSchema schema = schemaFor(request);
+        int userId = schema.getUserId.get(request);
+        
+        UserRecord user = users.get(userId);
+        
+        DynamicMessage.Builder responseBuilder = schema.getUserResponse.newBuilder();
+        if (user != null) {
+            schema.getUserResponseUser.set(responseBuilder, buildUser(schema, user));
+        }
+        
+        return responseBuilder.build();
+    }
+    
+    /**
+     * 构建User消息
+     */
+    private DynamicMessage buildUser(UserSchema schema, UserRecord user) {
+        DynamicMessage.Builder userBuilder = schema.user.newBuilder();
+        schema.userId.set(userBuilder, user.getId());
+        schema.userName.set(userBuilder, user.getName());
+        schema.userEmail.set(userBuilder, user.getEmail());
+        schema.userAge.set(userBuilder, user.getAge());
+        schema.userCreatedTime.set(userBuilder, user.getCreatedTime());
+        return userBuilder.build();
+    }
+    
+    /**
+     * 游标为上一页最后一个用户id的36进制表示，客户端应将其视为不透明字符串
+     */
+    private static String formatCursor(int lastId) {
+        return Integer.toString(lastId, Character.MAX_RADIX);
+    }
+    
+    private static int parseCursor(String cursor) {
+        try {
+            return Integer.parseInt(cursor, Character.MAX_RADIX);
+        } catch (NumberFormatException e) {
+            throw Status.INVALID_ARGUMENT.withDescription("Invalid cursor: " + cursor).asRuntimeException();
+        }
+    }
+    
+    /**
+     * 获取请求所属proto文件对应的字段绑定，proto重新加载后描述符被替换时重新绑定
+     */
+    private UserSchema schemaFor(DynamicMessage request) {
+        Descriptors.FileDescriptor file = request.getDescriptorForType().getFile();
+        UserSchema current = schema;
+        if (current == null || current.file != file) {
+            current = new UserSchema(file);
+            schema = current;
+        }
+        return current;
+    }
+    
+    /**
+     * 处理ListUsers请求
+     * 按id顺序分页，设置cursor时从游标之后继续（不受分页期间新建用户的影响），否则按page定位；
+     * 两种方式都直接定位到起始行，不扫描之前的用户
+     */
+    public void listUsers(DynamicMessage request, StreamObserver<DynamicMessage> responseObserver) {
+        try {
+            UserSchema schema = schemaFor(request);
+            int size = schema.listUsersSize.get(request);
+            if (size <= 0) {
+                size = DEFAULT_PAGE_SIZE;
+            }
+            size = Math.min(size, MAX_PAGE_SIZE);
+            
+            String cursor = schema.listUsersCursor.get(request);
+            List<UserRecord> page = cursor.isEmpty()
+                ? users.page(Math.max(0, schema.listUsersPage.get(request)), size)
+                : users.pageAfter(parseCursor(cursor), size);
+            
+            DynamicMessage.Builder responseBuilder = schema.listUsersResponse.newBuilder();
+            for (UserRecord user : page) {
+                schema.listUsersResponseUsers.add(responseBuilder, buildUser(schema, user));
+            }
+            schema.listUsersTotal.set(responseBuilder, users.size());
+            if (page.size() == size) {
+                schema.listUsersNextCursor.set(responseBuilder, formatCursor(page.get(page.size() - 1).getId()));
             }
             
             responseObserver.onNext(responseBuilder.build());
@@ -87,66 +213,178 @@ public class ServiceImplementation {
         }
     }
     
+    /**
+     * 处理StreamUsers请求（服务端流）
+     * 按流控逐条发送用户，设置cursor时从游标之后开始，size大于0时最多发送size条
+     * 用户在发送时才逐个读取和构建，不会在内存中生成完整的用户列表
+     */
+    public void streamUsers(DynamicMessage request, StreamObserver<DynamicMessage> responseObserver) {
+        try {
+            UserSchema schema = schemaFor(request);
+            int size = schema.listUsersSize.get(request);
+            String cursor = schema.listUsersCursor.get(request);
+            
+            Iterator<UserRecord> source = users.iteratorAfter(cursor.isEmpty() ? 0 : parseCursor(cursor), size);
+            
+            ServerCallStreamObserver<DynamicMessage> serverObserver =
+                (ServerCallStreamObserver<DynamicMessage>) responseObserver;
+            StreamPump<DynamicMessage> pump = StreamPump.start(serverObserver, new Iterator<DynamicMessage>() {
+                @Override
+                public boolean hasNext() {
+                    return source.hasNext();
+                }
+                
+                @Override
+                public DynamicMessage next() {
+                    return buildUser(schema, source.next());
+                }
+            });
+            serverObserver.setOnCancelHandler(pump::cancel);
+            
+        } catch (Exception e) {
+            responseObserver.onError(e);
+        }
+    }
+    
+    /**
+     * 处理GetUserStream请求（双向流）
+     * 关闭自动请求，只有在响应流可写时才请求下一条请求消息，避免响应积压在内存中
+     */
+    public StreamObserver<DynamicMessage> getUserStream(StreamObserver<DynamicMessage> responseObserver) {
+        ServerCallStreamObserver<DynamicMessage> serverObserver =
+            (ServerCallStreamObserver<DynamicMessage>) responseObserver;
+        serverObserver.disableAutoRequest();
+        
+        AtomicBoolean wasReady = new AtomicBoolean(false);
+        serverObserver.setOnReadyHandler(() -> {
+            if (serverObserver.isReady() && wasReady.compareAndSet(false, true)) {
+                serverObserver.request(1);
+            }
+        });
+        
+        return new StreamObserver<DynamicMessage>() {
+            @Override
+            public void onNext(DynamicMessage request) {
+                try {
+                    serverObserver.onNext(buildGetUserResponse(request));
+                    if (serverObserver.isReady()) {
+                        serverObserver.request(1);
+                    } else {
+                        wasReady.set(false);
+                    }
+                } catch (Exception e) {
+                    serverObserver.onError(e);
+                }
+            }
+            
+            @Override
+            public void onError(Throwable t) {
+                // 客户端取消或出错，无需响应
+            }
+            
+            @Override
+            public void onCompleted() {
+                serverObserver.onCompleted();
+            }
+        };
+    }
+    
     /**
      * 处理CreateUser请求
      */
     public void createUser(DynamicMessage request, StreamObserver<DynamicMessage> responseObserver) {
         try {
-            String name = (String) request.getField(
-                request.getDescriptorForType().findFieldByName("name"));
-            String email = (String) request.getField(
-                request.getDescriptorForType().findFieldByName("email"));
-            int age = (Integer) request.getField(
-                request.getDescriptorForType().findFieldByName("age"));
-            
-            // 创建新用户
-            int id = userIdCounter.getAndIncrement();
-            Map<String, Object> userData = new HashMap<>();
-            userData.put("id", id);
-            userData.put("name", name);
-            userData.put("email", email);
-            userData.put("age", age);
-            userData.put("created_time", System.currentTimeMillis());
-            users.put(id, userData);
-            
-            // 构建响应
-            DynamicMessage.Builder responseBuilder = DynamicMessage.newBuilder(
-                request.getDescriptorForType()
-                    .getFile()
-                    .findMessageTypeByName("CreateUserResponse"));
-            
-            // 构建User消息
-            DynamicMessage.Builder userBuilder = DynamicMessage.newBuilder(
-                request.getDescriptorForType()
-                    .getFile()
-                    .findMessageTypeByName("User"));
-            
-            userBuilder.setField(
-                userBuilder.getDescriptorForType().findFieldByName("id"), id);
-            userBuilder.setField(
-                userBuilder.getDescriptorForType().findFieldByName("name"), name);
-            userBuilder.setField(
-                userBuilder.getDescriptorForType().findFieldByName("email"), email);
-            userBuilder.setField(
-                userBuilder.getDescriptorForType().findFieldByName("age"), age);
-            userBuilder.setField(
-                userBuilder.getDescriptorForType().findFieldByName("created_time"), 
-                userData.get("created_time"));
-            
-            responseBuilder.setField(
-                responseBuilder.getDescriptorForType().findFieldByName("user"), 
-                userBuilder.build());
-            responseBuilder.setField(
-                responseBuilder.getDescriptorForType().findFieldByName("success"), true);
-            responseBuilder.setField(
-                responseBuilder.getDescriptorForType().findFieldByName("message"), 
-                "User created successfully");
+            UserSchema schema = schemaFor(request);
+            String name = schema.createUserName.get(request);
+            String email = schema.createUserEmail.get(request);
+            int age = schema.createUserAge.get(request);
             
-            responseObserver.onNext(responseBuilder.build());
-            responseObserver.onCompleted();
+            // 处理线程不等待写盘，记录所在批次落盘、用户加入存储后在callbackExecutor中构建并发送响应
+            persistUser(name, email, age).whenCompleteAsync((user, error) -> {
+                if (error != null) {
+                    responseObserver.onError(Status.INTERNAL
+                        .withDescription("Failed to persist user " + email)
+                        .withCause(error instanceof CompletionException ? error.getCause() : error)
+                        .asRuntimeException());
+                    return;
+                }
+                DynamicMessage.Builder responseBuilder = schema.createUserResponse.newBuilder();
+                schema.createUserResponseUser.set(responseBuilder, buildUser(schema, user));
+                schema.createUserSuccess.set(responseBuilder, true);
+                schema.createUserMessage.set(responseBuilder, "User created successfully");
+                responseObserver.onNext(responseBuilder.build());
+                responseObserver.onCompleted();
+            }, callbackExecutor);
             
         } catch (Exception e) {
             responseObserver.onError(e);
         }
     }
-} 
\ No newline at end of file
+    
+    /**
+     * user.proto中各消息的字段绑定，每个FileDescriptor只解析一次
+     */
+    private static final class UserSchema {
+        final Descriptors.FileDescriptor file;
+        
+        final MessageBinder.IntField getUserId;
+        final MessageBinder getUserResponse;
+        final MessageBinder.MessageField getUserResponseUser;
+        
+        final MessageBinder.StringField createUserName;
+        final MessageBinder.StringField createUserEmail;
+        final MessageBinder.IntField createUserAge;
+        final MessageBinder createUserResponse;
+        final MessageBinder.MessageField createUserResponseUser;
+        final MessageBinder.BoolField createUserSuccess;
+        final MessageBinder.StringField createUserMessage;
+        
+        final MessageBinder.IntField listUsersPage;
+        final MessageBinder.IntField listUsersSize;
+        final MessageBinder.StringField listUsersCursor;
+        final MessageBinder listUsersResponse;
+        final MessageBinder.RepeatedMessageField listUsersResponseUsers;
+        final MessageBinder.IntField listUsersTotal;
+        final MessageBinder.StringField listUsersNextCursor;
+        
+        final MessageBinder user;
+        final MessageBinder.IntField userId;
+        final MessageBinder.StringField userName;
+        final MessageBinder.StringField userEmail;
+        final MessageBinder.IntField userAge;
+        final MessageBinder.LongField userCreatedTime;
+        
+        UserSchema(Descriptors.FileDescriptor file) {
+            this.file = file;
+            
+            getUserId = MessageBinder.of(file, "GetUserRequest").intField("user_id");
+            getUserResponse = MessageBinder.of(file, "GetUserResponse");
+            getUserResponseUser = getUserResponse.messageField("user");
+            
+            MessageBinder createUserRequest = MessageBinder.of(file, "CreateUserRequest");
+            createUserName = createUserRequest.stringField("name");
+            createUserEmail = createUserRequest.stringField("email");
+            createUserAge = createUserRequest.intField("age");
+            createUserResponse = MessageBinder.of(file, "CreateUserResponse");
+            createUserResponseUser = createUserResponse.messageField("user");
+            createUserSuccess = createUserResponse.boolField("success");
+            createUserMessage = createUserResponse.stringField("message");
+            
+            MessageBinder listUsersRequest = MessageBinder.of(file, "ListUsersRequest");
+            listUsersPage = listUsersRequest.intField("page");
+            listUsersSize = listUsersRequest.intField("size");
+            listUsersCursor = listUsersRequest.stringField("cursor");
+            listUsersResponse = MessageBinder.of(file, "ListUsersResponse");
+            listUsersResponseUsers = listUsersResponse.repeatedMessageField("users");
+            listUsersTotal = listUsersResponse.intField("total");
+            listUsersNextCursor = listUsersResponse.stringField("next_cursor");
+            
+            user = MessageBinder.of(file, "User");
+            userId = user.intField("id");
+            userName = user.stringField("name");
+            userEmail = user.stringField("email");
+            userAge = user.intField("age");
+            userCreatedTime = user.longField("created_time");
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package cn.edu.hit.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 用户数据的持久化方式
+ * 启动时由recover将已保存的用户恢复到UserStore，之后每个新建用户调用一次append
+ */
+public interface UserPersistence extends Closeable {
+
+    /**
+     * 不做持久化，数据只保存在内存中
+     */
+    UserPersistence NONE = new UserPersistence() {
+        private final CompletableFuture<Void> done = CompletableFuture.completedFuture(null);
+
+        @Override
+        public void recover(UserStore store) {
+        }
+
+        @Override
+        public CompletableFuture<Void> append(UserRecord user) {
+            return done;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    /**
+     * 将已保存的用户按id顺序恢复到store
+     */
+    void recover(UserStore store) throws IOException;
+
+    /**
+     * 保存新建的用户，不阻塞调用线程，返回的future在数据写入磁盘后完成
+     * 各次调用返回的future按调用顺序成功完成，调用方据此按id顺序发布用户
+     */
+    CompletableFuture<Void> append(UserRecord user);
+}
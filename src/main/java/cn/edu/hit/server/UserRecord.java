@@ -0,0 +1,40 @@
+package cn.edu.hit.server;
+
+/**
+ * 从UserStore中读出的一行用户数据
+ */
+public final class UserRecord {
+    private final int id;
+    private final String name;
+    private final String email;
+    private final int age;
+    private final long createdTime;
+
+    public UserRecord(int id, String name, String email, int age, long createdTime) {
+        this.id = id;
+        this.name = name;
+        this.email = email;
+        this.age = age;
+        this.createdTime = createdTime;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public int getAge() {
+        return age;
+    }
+
+    public long getCreatedTime() {
+        return createdTime;
+    }
+}
@@ -0,0 +1,86 @@
+package cn.edu.hit.server;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+import java.io.IOException;
+
+/**
+ * UserRecord与user.proto中User消息二进制格式之间的转换
+ * 持久化数据与网络上的User消息格式相同，但不依赖运行时加载的描述符
+ */
+final class UserRecordCodec {
+    private static final int ID = 1;
+    private static final int NAME = 2;
+    private static final int EMAIL = 3;
+    private static final int AGE = 4;
+    private static final int CREATED_TIME = 5;
+
+    private UserRecordCodec() {
+    }
+
+    static int encodedSize(UserRecord user) {
+        return CodedOutputStream.computeInt32Size(ID, user.getId())
+                + CodedOutputStream.computeStringSize(NAME, user.getName())
+                + CodedOutputStream.computeStringSize(EMAIL, user.getEmail())
+                + CodedOutputStream.computeInt32Size(AGE, user.getAge())
+                + CodedOutputStream.computeInt64Size(CREATED_TIME, user.getCreatedTime());
+    }
+
+    static void encode(UserRecord user, CodedOutputStream out) throws IOException {
+        out.writeInt32(ID, user.getId());
+        out.writeString(NAME, user.getName());
+        out.writeString(EMAIL, user.getEmail());
+        out.writeInt32(AGE, user.getAge());
+        out.writeInt64(CREATED_TIME, user.getCreatedTime());
+    }
+
+    static byte[] encode(UserRecord user) {
+        byte[] bytes = new byte[encodedSize(user)];
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        try {
+            encode(user, out);
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to encode user " + user.getId(), e);
+        }
+        return bytes;
+    }
+
+    /**
+     * 读取一个User消息直到输入结束（调用方用pushLimit限定消息长度）
+     */
+    static UserRecord decode(CodedInputStream in) throws IOException {
+        int id = 0;
+        String name = "";
+        String email = "";
+        int age = 0;
+        long createdTime = 0;
+
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case ID:
+                    id = in.readInt32();
+                    break;
+                case NAME:
+                    name = in.readStringRequireUtf8();
+                    break;
+                case EMAIL:
+                    email = in.readStringRequireUtf8();
+                    break;
+                case AGE:
+                    age = in.readInt32();
+                    break;
+                case CREATED_TIME:
+                    createdTime = in.readInt64();
+                    break;
+                default:
+                    in.skipField(tag);
+                    break;
+            }
+        }
+        return new UserRecord(id, name, email, age, createdTime);
+    }
+}
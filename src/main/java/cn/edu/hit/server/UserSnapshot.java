@@ -0,0 +1,133 @@
+package cn.edu.hit.server;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+/**
+ * 用户快照文件，通过内存映射读写
+ * 格式为固定长度的文件头加上按id顺序排列、以varint长度为前缀的User消息
+ * 文件头记录快照之后的第一个WAL段序号，恢复时只需重放该段及之后的日志
+ * 大文件按窗口分段映射，一条记录不会跨越窗口
+ */
+final class UserSnapshot {
+    private static final int MAGIC = 0x55534E50;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int WINDOW_SIZE = 64 << 20;
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+
+    final long walSequence;
+    final int count;
+    final int lastId;
+
+    private UserSnapshot(long walSequence, int count, int lastId) {
+        this.walSequence = walSequence;
+        this.count = count;
+        this.lastId = lastId;
+    }
+
+    /**
+     * 写入快照并落盘，调用方负责写入临时文件后再重命名
+     */
+    static UserSnapshot write(File file, long walSequence, Iterator<UserRecord> users) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long position = HEADER_SIZE;
+            MappedByteBuffer window = null;
+            byte[] scratch = new byte[256];
+            int count = 0;
+            int lastId = 0;
+
+            while (users.hasNext()) {
+                UserRecord user = users.next();
+                int size = UserRecordCodec.encodedSize(user);
+                if (size > MAX_RECORD_SIZE) {
+                    throw new IOException("User record too large: " + size + " bytes");
+                }
+                int total = CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+                if (scratch.length < total) {
+                    scratch = new byte[Integer.highestOneBit(total) << 1];
+                }
+                CodedOutputStream out = CodedOutputStream.newInstance(scratch, 0, total);
+                out.writeUInt32NoTag(size);
+                UserRecordCodec.encode(user, out);
+
+                if (window == null || window.remaining() < total) {
+                    if (window != null) {
+                        window.force();
+                    }
+                    window = channel.map(FileChannel.MapMode.READ_WRITE, position, WINDOW_SIZE);
+                }
+                window.put(scratch, 0, total);
+                position += total;
+                count++;
+                lastId = user.getId();
+            }
+            if (window != null) {
+                window.force();
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(walSequence).putInt(count).putInt(lastId);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, HEADER_SIZE - header.remaining());
+            }
+            // 映射窗口可能超出实际数据
+            channel.truncate(position);
+            channel.force(true);
+            return new UserSnapshot(walSequence, count, lastId);
+        }
+    }
+
+    /**
+     * 按顺序读取快照中的全部用户
+     */
+    static UserSnapshot read(File file, Consumer<UserRecord> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new IOException("Truncated snapshot header: " + file);
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a user snapshot: " + file);
+            }
+            UserSnapshot snapshot = new UserSnapshot(header.getLong(), header.getInt(), header.getInt());
+
+            long position = HEADER_SIZE;
+            int remaining = snapshot.count;
+            while (remaining > 0) {
+                long length = Math.min(WINDOW_SIZE, fileSize - position);
+                if (length <= 0) {
+                    throw new IOException("Truncated snapshot: " + file);
+                }
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                // 映射内存上直接解码，不复制到堆中
+                CodedInputStream in = CodedInputStream.newInstance(window);
+                boolean lastWindow = position + length == fileSize;
+                while (remaining > 0 && (lastWindow || length - in.getTotalBytesRead() >= MAX_RECORD_SIZE + 5)) {
+                    int size = in.readRawVarint32();
+                    int limit = in.pushLimit(size);
+                    consumer.accept(UserRecordCodec.decode(in));
+                    in.popLimit(limit);
+                    remaining--;
+                }
+                position += in.getTotalBytesRead();
+            }
+            return snapshot;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package cn.edu.hit.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 线程安全的用户存储
+ * 按列保存在分段的基本类型数组中（字符串保存为UTF-8字节数组），每个用户不再是一个装箱的HashMap
+ * 行只追加不修改，id单调递增（可以有间隔），因此行号顺序即id顺序，分页直接按行号定位，不需要排序也不需要全表扫描
+ * 写入由StampedLock串行化；读取通过volatile的size发布的行不加锁，id和email索引使用乐观读
+ */
+public class UserStore {
+    private static final int SEGMENT_SHIFT = 12;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    private static final int NO_ROW = -1;
+    private static final int[] NO_ROWS = new int[0];
+
+    private final StampedLock lock = new StampedLock();
+    // id -> 行号
+    private final IntIntHashMap idIndex = new IntIntHashMap(1024, NO_ROW);
+    // email哈希值 -> 最后写入的行号，哈希冲突或email相同的行通过Segment.emailNext串成链表
+    private final IntIntHashMap emailIndex = new IntIntHashMap(1024, NO_ROW);
+    private volatile Segment[] segments = new Segment[0];
+    private volatile int size;
+    // 下一个分配的id，和已加入的最大id（两者之间是已分配、尚未加入或已放弃的id）
+    private int nextId = 1;
+    private int lastId;
+
+    /**
+     * 创建用户并分配id，立即可见；需要先持久化再发布的用户使用reserveId和add，两种方式不能混用
+     */
+    public UserRecord create(String name, String email, int age, long createdTime) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        byte[] emailBytes = email.getBytes(StandardCharsets.UTF_8);
+        int emailHash = email.hashCode();
+
+        long stamp = lock.writeLock();
+        try {
+            int id = nextId++;
+            append(id, nameBytes, emailBytes, emailHash, age, createdTime);
+            return new UserRecord(id, name, email, age, createdTime);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 分配一个id但不创建行，用户持久化成功后再通过add加入；分配后没有加入的id不会再使用
+     */
+    public int reserveId() {
+        long stamp = lock.writeLock();
+        try {
+            return nextId++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 加入由reserveId分配id的用户，必须按id顺序加入
+     */
+    public void add(UserRecord user) {
+        insert(user, false);
+    }
+
+    /**
+     * 按原有id恢复用户（从持久化数据加载时使用），id必须大于已有的所有id
+     */
+    public void restore(UserRecord user) {
+        insert(user, true);
+    }
+
+    private void insert(UserRecord user, boolean restoring) {
+        byte[] nameBytes = user.getName().getBytes(StandardCharsets.UTF_8);
+        byte[] emailBytes = user.getEmail().getBytes(StandardCharsets.UTF_8);
+        int emailHash = user.getEmail().hashCode();
+
+        long stamp = lock.writeLock();
+        try {
+            if (user.getId() <= lastId) {
+                throw new IllegalStateException("User id " + user.getId() + " is not after " + lastId);
+            }
+            if (restoring) {
+                nextId = Math.max(nextId, user.getId() + 1);
+            } else if (user.getId() >= nextId) {
+                throw new IllegalStateException("User id " + user.getId() + " was not reserved");
+            }
+            append(user.getId(), nameBytes, emailBytes, emailHash, user.getAge(), user.getCreatedTime());
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 按id查找用户，不存在时返回null
+     */
+    public UserRecord get(int id) {
+        long stamp = lock.tryOptimisticRead();
+        int row = idIndex.get(id);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                row = idIndex.get(id);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return row == NO_ROW ? null : read(row);
+    }
+
+    /**
+     * 按email查找用户，email不要求唯一，按id顺序返回所有匹配的用户，不存在时返回空列表
+     */
+    public List<UserRecord> findByEmail(String email) {
+        byte[] emailBytes = email.getBytes(StandardCharsets.UTF_8);
+        int emailHash = email.hashCode();
+
+        long stamp = lock.tryOptimisticRead();
+        int[] rows = findEmailRows(emailHash, emailBytes);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                rows = findEmailRows(emailHash, emailBytes);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        if (rows.length == 0) {
+            return Collections.emptyList();
+        }
+        // 链表中的行号从新到旧，反向读取即为id顺序
+        List<UserRecord> matches = new ArrayList<>(rows.length);
+        for (int i = rows.length - 1; i >= 0; i--) {
+            matches.add(read(rows[i]));
+        }
+        return matches;
+    }
+
+    /**
+     * 用户总数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 按id顺序分页，page从0开始
+     */
+    public List<UserRecord> page(int page, int pageSize) {
+        if (page < 0 || pageSize <= 0) {
+            throw new IllegalArgumentException("Invalid page: " + page + ", size: " + pageSize);
+        }
+        int count = size;
+        long from = (long) page * pageSize;
+        if (from >= count) {
+            return Collections.emptyList();
+        }
+        int to = (int) Math.min(count, from + pageSize);
+        List<UserRecord> users = new ArrayList<>(to - (int) from);
+        for (int row = (int) from; row < to; row++) {
+            users.add(read(row));
+        }
+        return users;
+    }
+
+    /**
+     * 按id顺序返回id大于afterId的最多limit个用户，用于基于游标的分页
+     * 游标是上一页最后一个用户的id，分页期间新建的用户不会导致已返回的用户重复或被跳过
+     */
+    public List<UserRecord> pageAfter(int afterId, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Invalid limit: " + limit);
+        }
+        int count = size;
+        int from = firstRowAfter(afterId, count);
+        int to = (int) Math.min(count, (long) from + limit);
+        List<UserRecord> users = new ArrayList<>(to - from);
+        for (int row = from; row < to; row++) {
+            users.add(read(row));
+        }
+        return users;
+    }
+
+    /**
+     * 按id顺序遍历调用时已存在的用户，limit大于0时最多返回limit个
+     * 遍历时逐行读取，不复制整个存储
+     */
+    public Iterator<UserRecord> iterator(int limit) {
+        return iteratorAfter(0, limit);
+    }
+
+    /**
+     * 按id顺序遍历调用时已存在的、id大于afterId的用户，limit大于0时最多返回limit个
+     */
+    public Iterator<UserRecord> iteratorAfter(int afterId, int limit) {
+        int count = size;
+        int start = firstRowAfter(afterId, count);
+        int end = limit > 0 ? (int) Math.min(count, (long) start + limit) : count;
+        return new Iterator<UserRecord>() {
+            private int row = start;
+
+            @Override
+            public boolean hasNext() {
+                return row < end;
+            }
+
+            @Override
+            public UserRecord next() {
+                if (row >= end) {
+                    throw new NoSuchElementException();
+                }
+                return read(row++);
+            }
+        };
+    }
+
+    /**
+     * 在前count行中二分查找第一个id大于afterId的行，行号顺序即id顺序
+     */
+    private int firstRowAfter(int afterId, int count) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (idAt(mid) <= afterId) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int idAt(int row) {
+        return segments[row >>> SEGMENT_SHIFT].ids[row & SEGMENT_MASK];
+    }
+
+    // 调用方持有写锁
+    private void append(int id, byte[] name, byte[] email, int emailHash, int age, long createdTime) {
+        int row = size;
+        Segment[] current = segments;
+        int segmentIndex = row >>> SEGMENT_SHIFT;
+        if (segmentIndex == current.length) {
+            current = Arrays.copyOf(current, current.length + 1);
+            current[segmentIndex] = new Segment();
+            segments = current;
+        }
+
+        Segment segment = current[segmentIndex];
+        int offset = row & SEGMENT_MASK;
+        segment.ids[offset] = id;
+        segment.names[offset] = name;
+        segment.emails[offset] = email;
+        segment.ages[offset] = age;
+        segment.createdTimes[offset] = createdTime;
+        segment.emailNext[offset] = emailIndex.get(emailHash);
+        lastId = id;
+
+        // 先写入行再发布size和索引，读取方看到的行总是完整的
+        size = row + 1;
+        idIndex.put(id, row);
+        emailIndex.put(emailHash, row);
+    }
+
+    /**
+     * 哈希链上email相同的所有行，从新到旧
+     */
+    private int[] findEmailRows(int emailHash, byte[] email) {
+        int[] rows = NO_ROWS;
+        int count = 0;
+        int row = emailIndex.get(emailHash);
+        // 乐观读时索引可能与size不一致，超出size的行还没有发布，由validate失败后加锁重试
+        while (row != NO_ROW && row < size) {
+            Segment segment = segments[row >>> SEGMENT_SHIFT];
+            int offset = row & SEGMENT_MASK;
+            if (Arrays.equals(segment.emails[offset], email)) {
+                if (count == rows.length) {
+                    rows = Arrays.copyOf(rows, Math.max(4, count * 2));
+                }
+                rows[count++] = row;
+            }
+            int next = segment.emailNext[offset];
+            if (next >= row) {
+                // 链表中的行号严格递减，否则是乐观读时读到的未发布数据
+                break;
+            }
+            row = next;
+        }
+        return count == rows.length ? rows : Arrays.copyOf(rows, count);
+    }
+
+    private UserRecord read(int row) {
+        Segment segment = segments[row >>> SEGMENT_SHIFT];
+        int offset = row & SEGMENT_MASK;
+        return new UserRecord(
+                segment.ids[offset],
+                new String(segment.names[offset], StandardCharsets.UTF_8),
+                new String(segment.emails[offset], StandardCharsets.UTF_8),
+                segment.ages[offset],
+                segment.createdTimes[offset]);
+    }
+
+    /**
+     * 一段连续的行，各列分别保存
+     */
+    private static final class Segment {
+        final int[] ids = new int[SEGMENT_SIZE];
+        final byte[][] names = new byte[SEGMENT_SIZE][];
+        final byte[][] emails = new byte[SEGMENT_SIZE][];
+        final int[] ages = new int[SEGMENT_SIZE];
+        final long[] createdTimes = new long[SEGMENT_SIZE];
+        final int[] emailNext = new int[SEGMENT_SIZE];
+    }
+}
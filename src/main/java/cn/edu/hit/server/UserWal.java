@@ -0,0 +1,355 @@
+package cn.edu.hit.server;
+
+import com.google.protobuf.CodedInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * 用户预写日志，按段文件（wal-序号.log）保存新建的用户
+ * 记录格式为[长度 int][CRC32 int][User消息]，段末尾不完整或校验失败的记录视为崩溃时未写完，恢复时忽略
+ * 所有写入由一个后台线程完成：每次取出队列中积压的全部记录一起写入并只调用一次force，
+ * 并发的append共享同一次fsync（组提交），调用线程只负责编码和入队
+ * 写入或fsync失败后不再接受记录：失败后段文件中已写入的内容是否落盘无法确定，之后的append全部失败直到重启，
+ * 重启时按段中完整且校验通过的记录恢复
+ */
+final class UserWal implements Closeable {
+    private static final String PREFIX = "wal-";
+    private static final String SUFFIX = ".log";
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_BATCH = 4096;
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+
+    private final File dir;
+    private final boolean fsync;
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong appended = new AtomicLong();
+    private final Thread writer;
+    // 由this保护，与入队在同一把锁下修改，close之后不会再有记录进入队列
+    private boolean closed;
+
+    // 以下字段只由写线程访问
+    private FileChannel channel;
+    private long sequence;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+    private final CRC32 crc = new CRC32();
+    private final List<CompletableFuture<Void>> unsynced = new ArrayList<>();
+    private IOException failure;
+
+    /**
+     * 打开新的段文件开始写入，sequence应大于已有的所有段序号
+     */
+    UserWal(File dir, long sequence, boolean fsync) throws IOException {
+        this.dir = dir;
+        this.fsync = fsync;
+        openSegment(sequence);
+        this.writer = new Thread(this::run, "user-wal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * 追加一条记录，返回的future在记录写入（fsync开启时为落盘）后完成
+     */
+    CompletableFuture<Void> append(UserRecord user) {
+        byte[] payload = UserRecordCodec.encode(user);
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (payload.length > MAX_RECORD_SIZE) {
+            future.completeExceptionally(new IOException("User record too large: " + payload.length + " bytes"));
+            return future;
+        }
+        enqueue(new Entry(Entry.RECORD, payload, future));
+        appended.incrementAndGet();
+        return future;
+    }
+
+    /**
+     * 切换到新的段文件，返回新段的序号
+     * future完成时，此前append的记录都已写入旧段并落盘
+     */
+    CompletableFuture<Long> rotate() {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        enqueue(new Entry(Entry.ROTATE, null, future));
+        return future;
+    }
+
+    /**
+     * 累计追加的记录数
+     */
+    long getAppendedCount() {
+        return appended.get();
+    }
+
+    /**
+     * 删除序号小于sequence的段（已被快照覆盖）
+     */
+    void deleteSegmentsBefore(long sequence) throws IOException {
+        for (long segment : listSegments(dir)) {
+            if (segment < sequence) {
+                Files.deleteIfExists(segmentFile(dir, segment).toPath());
+            }
+        }
+    }
+
+    /**
+     * 写完队列中的记录后关闭
+     */
+    @Override
+    public void close() throws IOException {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.add(new Entry(Entry.CLOSE, null, done));
+        }
+        try {
+            writer.join();
+            done.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing WAL", e);
+        } catch (RuntimeException e) {
+            throw new IOException("Failed to close WAL", e.getCause());
+        }
+    }
+
+    private void enqueue(Entry entry) {
+        synchronized (this) {
+            if (!closed) {
+                queue.add(entry);
+                return;
+            }
+        }
+        entry.future.completeExceptionally(new IOException("WAL is closed"));
+    }
+
+    // ---------------------------------------------------------------- 写线程
+
+    private void run() {
+        List<Entry> batch = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            for (Entry entry : batch) {
+                if (running) {
+                    running = process(entry);
+                } else {
+                    entry.future.completeExceptionally(new IOException("WAL is closed"));
+                }
+            }
+            batch.clear();
+            sync();
+        }
+
+        // CLOSE是最后入队的条目，此时队列应为空，仍有条目时同样失败而不是永远不完成
+        for (Entry entry : queue) {
+            entry.future.completeExceptionally(new IOException("WAL is closed"));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean process(Entry entry) {
+        switch (entry.kind) {
+            case Entry.RECORD:
+                if (failure != null) {
+                    entry.future.completeExceptionally(failure);
+                    return true;
+                }
+                try {
+                    write(entry.payload);
+                    unsynced.add((CompletableFuture<Void>) entry.future);
+                } catch (IOException e) {
+                    failure = e;
+                    entry.future.completeExceptionally(e);
+                }
+                return true;
+
+            case Entry.ROTATE:
+                sync();
+                try {
+                    if (failure != null) {
+                        throw failure;
+                    }
+                    channel.close();
+                    openSegment(sequence + 1);
+                    ((CompletableFuture<Long>) entry.future).complete(sequence);
+                } catch (IOException e) {
+                    failure = e;
+                    entry.future.completeExceptionally(e);
+                }
+                return true;
+
+            default:
+                sync();
+                try {
+                    channel.close();
+                    ((CompletableFuture<Void>) entry.future).complete(null);
+                } catch (IOException e) {
+                    entry.future.completeExceptionally(e);
+                }
+                return false;
+        }
+    }
+
+    private void write(byte[] payload) throws IOException {
+        int size = HEADER_SIZE + payload.length;
+        if (buffer.remaining() < size) {
+            flush();
+            if (buffer.capacity() < size) {
+                buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(size) << 1);
+            }
+        }
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        buffer.putInt(payload.length);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(payload);
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * 写出缓冲区并落盘，完成这一批记录的future
+     */
+    private void sync() {
+        if (unsynced.isEmpty()) {
+            return;
+        }
+        try {
+            if (failure == null) {
+                flush();
+                if (fsync) {
+                    channel.force(false);
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+        for (CompletableFuture<Void> future : unsynced) {
+            if (failure == null) {
+                future.complete(null);
+            } else {
+                future.completeExceptionally(failure);
+            }
+        }
+        unsynced.clear();
+    }
+
+    private void openSegment(long sequence) throws IOException {
+        this.channel = FileChannel.open(segmentFile(dir, sequence).toPath(),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        this.sequence = sequence;
+    }
+
+    // ---------------------------------------------------------------- 恢复
+
+    /**
+     * 按序号从小到大列出目录中的段
+     */
+    static List<Long> listSegments(File dir) {
+        List<Long> segments = new ArrayList<>();
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return segments;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+                try {
+                    segments.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // 不是段文件
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    static File segmentFile(File dir, long sequence) {
+        return new File(dir, String.format("%s%016d%s", PREFIX, sequence, SUFFIX));
+    }
+
+    /**
+     * 读取一个段中的全部完整记录
+     */
+    static void replay(File segment, Consumer<UserRecord> consumer) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(segment), 64 * 1024))) {
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length;
+                int checksum;
+                byte[] payload;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if (length < 0 || length > MAX_RECORD_SIZE) {
+                        return;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    return;
+                }
+
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    return;
+                }
+                consumer.accept(UserRecordCodec.decode(CodedInputStream.newInstance(payload)));
+            }
+        }
+    }
+
+    /**
+     * 写线程队列中的条目
+     */
+    private static final class Entry {
+        static final int RECORD = 0;
+        static final int ROTATE = 1;
+        static final int CLOSE = 2;
+
+        final int kind;
+        final byte[] payload;
+        final CompletableFuture<?> future;
+
+        Entry(int kind, byte[] payload, CompletableFuture<?> future) {
+            this.kind = kind;
+            this.payload = payload;
+            this.future = future;
+        }
+    }
+}
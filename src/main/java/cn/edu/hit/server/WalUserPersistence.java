@@ -0,0 +1,175 @@
+package cn.edu.hit.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于预写日志和快照的用户持久化
+ * 新建用户追加到UserWal，由后台线程组提交；定期写入内存映射的快照并删除已被快照覆盖的日志段，
+ * 启动时加载快照后只重放之后的日志
+ * createUser的处理线程不等待磁盘，响应在所在批次落盘后发送
+ */
+public class WalUserPersistence implements UserPersistence {
+    private static final String SNAPSHOT_FILE = "users.snapshot";
+    private static final long DEFAULT_SNAPSHOT_INTERVAL_SECONDS = 60;
+
+    private final File dir;
+    private final long snapshotIntervalSeconds;
+    private final boolean fsync;
+    private volatile UserWal wal;
+    private UserStore store;
+    private ScheduledExecutorService scheduler;
+    private long snapshotAppendedCount;
+
+    public WalUserPersistence(File dir) {
+        this(dir, DEFAULT_SNAPSHOT_INTERVAL_SECONDS, true);
+    }
+
+    /**
+     * @param snapshotIntervalSeconds 快照间隔，不大于0时只在close时写快照
+     * @param fsync                   是否在每批记录写入后调用fsync，关闭后只保证写入操作系统缓存
+     */
+    public WalUserPersistence(File dir, long snapshotIntervalSeconds, boolean fsync) {
+        this.dir = dir;
+        this.snapshotIntervalSeconds = snapshotIntervalSeconds;
+        this.fsync = fsync;
+    }
+
+    @Override
+    public synchronized void recover(UserStore store) throws IOException {
+        if (wal != null) {
+            throw new IllegalStateException("Already recovered");
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create data directory: " + dir);
+        }
+
+        long start = System.currentTimeMillis();
+        File snapshotFile = new File(dir, SNAPSHOT_FILE);
+        long walStart = 0;
+        int lastId = 0;
+        int snapshotCount = 0;
+        if (snapshotFile.isFile()) {
+            UserSnapshot snapshot = UserSnapshot.read(snapshotFile, store::restore);
+            walStart = snapshot.walSequence;
+            lastId = snapshot.lastId;
+            snapshotCount = snapshot.count;
+        }
+
+        // 同一批中的记录可能不按id顺序写入，排序后再恢复
+        List<UserRecord> tail = new ArrayList<>();
+        List<Long> segments = UserWal.listSegments(dir);
+        for (long segment : segments) {
+            if (segment >= walStart) {
+                UserWal.replay(UserWal.segmentFile(dir, segment), tail::add);
+            }
+        }
+        tail.sort(Comparator.comparingInt(UserRecord::getId));
+        int replayed = 0;
+        for (UserRecord user : tail) {
+            if (user.getId() > lastId) {
+                store.restore(user);
+                lastId = user.getId();
+                replayed++;
+            }
+        }
+
+        long nextSegment = segments.isEmpty() ? walStart : Math.max(walStart, segments.get(segments.size() - 1) + 1);
+        this.wal = new UserWal(dir, nextSegment, fsync);
+        this.store = store;
+        // 重放过日志时，第一次定期快照即使没有新记录也要写入，下次启动不必再重放
+        this.snapshotAppendedCount = replayed > 0 ? -1 : 0;
+        // 上次写快照后可能在删除日志段之前退出
+        wal.deleteSegmentsBefore(walStart);
+
+        System.out.println("Recovered " + (snapshotCount + replayed) + " users (" + snapshotCount
+                + " from snapshot, " + replayed + " from WAL) in " + (System.currentTimeMillis() - start) + " ms");
+
+        if (snapshotIntervalSeconds > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "user-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    snapshot();
+                } catch (Exception e) {
+                    System.err.println("Failed to write user snapshot: " + e.getMessage());
+                }
+            }, snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> append(UserRecord user) {
+        UserWal current = wal;
+        if (current == null) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalStateException("User persistence is not open"));
+            return failed;
+        }
+        return current.append(user);
+    }
+
+    /**
+     * 写入快照，之前的日志段随后删除；上次快照后没有新记录时跳过
+     */
+    public synchronized void snapshot() throws IOException {
+        if (wal == null) {
+            throw new IllegalStateException("User persistence is not open");
+        }
+        long appended = wal.getAppendedCount();
+        if (appended == snapshotAppendedCount) {
+            return;
+        }
+
+        // 切换日志段后，旧段中的记录都已落盘，但用户在append的future完成后才加入store，可能还不在快照中；
+        // 因此保留刚切换出的旧段，快照从旧段开始覆盖，恢复时重放其中id大于快照的记录
+        long walSequence;
+        try {
+            walSequence = wal.rotate().get() - 1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rotating WAL", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to rotate WAL", e.getCause());
+        }
+
+        File tmp = new File(dir, SNAPSHOT_FILE + ".tmp");
+        UserSnapshot.write(tmp, walSequence, store.iterator(0));
+        Files.move(tmp.toPath(), new File(dir, SNAPSHOT_FILE).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        wal.deleteSegmentsBefore(walSequence);
+        snapshotAppendedCount = appended;
+    }
+
+    /**
+     * 停止定期快照，写入最后一次快照后关闭日志
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (wal == null) {
+            return;
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        try {
+            snapshot();
+        } finally {
+            wal.close();
+            wal = null;
+        }
+    }
+}
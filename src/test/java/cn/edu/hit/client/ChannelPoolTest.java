@@ -0,0 +1,132 @@
+package cn.edu.hit.client;
+
+import cn.edu.hit.common.MessageCompression;
+import cn.edu.hit.server.DynamicGrpcServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 启动3个本地服务器，验证ChannelPool在一个服务器停止时摘除其连接、调用分散到其余服务器，服务器恢复后重新参与选择，
+ * 以及默认创建的连接支持deflate压缩
+ */
+public class ChannelPoolTest {
+    private static final String GET_USER = "user.UserService/GetUser";
+    private static final int SERVERS = 3;
+
+    private final int[] ports = new int[SERVERS];
+    private final DynamicGrpcServer[] servers = new DynamicGrpcServer[SERVERS];
+    private ChannelPool pool;
+    private DynamicGrpcClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        List<String> targets = new ArrayList<>();
+        for (int i = 0; i < SERVERS; i++) {
+            ports[i] = freePort();
+            servers[i] = startServer(ports[i]);
+            targets.add("localhost:" + ports[i]);
+        }
+        pool = new ChannelPool(targets, 1, ChannelPool.Policy.ROUND_ROBIN);
+        client = new DynamicGrpcClient(pool);
+        client.loadProtoFiles("src/main/resources/proto");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (client != null) {
+            client.shutdown();
+        }
+        for (DynamicGrpcServer server : servers) {
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    @Test
+    public void roundRobinSpreadsCallsAcrossServers() throws Exception {
+        for (int i = 0; i < 3 * SERVERS; i++) {
+            getUser();
+        }
+        for (int i = 0; i < SERVERS; i++) {
+            assertEquals("calls on server " + i, 3, calls(i));
+        }
+    }
+
+    @Test
+    public void defaultChannelsSupportDeflate() throws Exception {
+        client.enableCompression("user.UserService", "GetUser", MessageCompression.DEFLATE, 0);
+        for (int i = 0; i < SERVERS; i++) {
+            getUser();
+        }
+        for (int i = 0; i < SERVERS; i++) {
+            assertEquals("calls on server " + i, 1, calls(i));
+        }
+    }
+
+    @Test
+    public void stoppedServerIsEjectedAndReadmittedAfterRecovery() throws Exception {
+        for (int i = 0; i < SERVERS; i++) {
+            getUser();
+        }
+
+        servers[2].stop();
+        servers[2] = null;
+        long before = calls(0) + calls(1);
+        int failures = 0;
+        int succeeded = 0;
+        boolean ejected = false;
+        for (int i = 0; i < 30; i++) {
+            try {
+                getUser();
+                succeeded++;
+            } catch (Exception e) {
+                failures++;
+            }
+            ejected |= pool.ejectedCount() == 1;
+        }
+        // 连接失败后立即被摘除，之后的调用全部由其余服务器处理
+        assertTrue("stopped server not ejected", ejected);
+        assertTrue("failed calls: " + failures, failures <= 1);
+        assertEquals("calls redistributed to remaining servers", before + succeeded, calls(0) + calls(1));
+
+        servers[2] = startServer(ports[2]);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (calls(2) == 0 && System.nanoTime() - deadline < 0) {
+            getUser();
+            Thread.sleep(50);
+        }
+        assertTrue("restarted server not re-admitted", calls(2) > 0);
+        assertEquals(0, pool.ejectedCount());
+    }
+
+    private void getUser() throws Exception {
+        client.callMethod("user.UserService", "GetUser", "{\"user_id\": 1}");
+    }
+
+    private long calls(int server) {
+        return servers[server].getMetrics().forMethod(GET_USER).getStarted();
+    }
+
+    private static DynamicGrpcServer startServer(int port) throws Exception {
+        DynamicGrpcServer server = new DynamicGrpcServer(port);
+        server.start();
+        return server;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
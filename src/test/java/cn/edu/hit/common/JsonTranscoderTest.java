@@ -0,0 +1,200 @@
+package cn.edu.hit.common;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.util.JsonFormat;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 验证JsonTranscoder对已有proto中每种消息的JSON输出与JsonFormat.printer()逐字符相同，并能解析回相同的消息，
+ * 以及与JsonFormat.parser()一样拒绝重复设置的字段和oneof
+ */
+public class JsonTranscoderTest {
+    private static final String[] STRINGS = {
+            "",
+            "Alice",
+            "alice@example.com",
+            "中文名字",
+            "quote \" backslash \\ slash /",
+            "html <b>&amp;</b> a='1'",
+            "line\nbreak\ttab\rreturn\bback\fform",
+            "control \u0001\u001f\u007f",
+            "separators \u2028\u2029",
+            "emoji 😀",
+    };
+
+    private final List<Descriptors.Descriptor> types = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        ProtoFileManager protoManager = new ProtoFileManager();
+        protoManager.loadDescriptorSetResource(ProtoFileManager.PRECOMPILED_DESCRIPTOR_SET);
+        for (Descriptors.FileDescriptor file : protoManager.getSnapshot().getFileDescriptors().values()) {
+            for (Descriptors.Descriptor type : file.getMessageTypes()) {
+                addWithNested(type);
+            }
+        }
+        assertTrue("no message types loaded", types.size() > 0);
+    }
+
+    private void addWithNested(Descriptors.Descriptor type) {
+        types.add(type);
+        for (Descriptors.Descriptor nested : type.getNestedTypes()) {
+            addWithNested(nested);
+        }
+    }
+
+    @Test
+    public void emptyMessagesMatchJsonFormat() throws Exception {
+        for (Descriptors.Descriptor type : types) {
+            assertSameJson(DynamicMessage.getDefaultInstance(type));
+        }
+    }
+
+    @Test
+    public void populatedMessagesMatchJsonFormat() throws Exception {
+        for (Descriptors.Descriptor type : types) {
+            for (int seed = 0; seed < STRINGS.length; seed++) {
+                assertSameJson(fill(type, seed, 0));
+            }
+        }
+    }
+
+    @Test
+    public void fieldsSetTwiceAreRejected() throws Exception {
+        Descriptors.Descriptor type = oneofType();
+        JsonTranscoder transcoder = JsonTranscoder.forType(type);
+
+        assertRejected(transcoder, "{\"user_id\": 1, \"user_id\": 2}", "Field t.Sample.user_id has already been set.");
+        assertRejected(transcoder, "{\"inner\": {\"x\": 1, \"x\": 2}}", "Field t.Inner.x has already been set.");
+        // 以下与JsonFormat.parser()的错误相同
+        String[] sameAsJsonFormat = {
+                "{\"user_id\": 1, \"userId\": 2}",
+                "{\"userId\": 1, \"user_id\": null}",
+                "{\"name\": \"a\", \"code\": 1}",
+                "{\"name\": \"\", \"code\": 0}",
+        };
+        for (String json : sameAsJsonFormat) {
+            String expected = null;
+            try {
+                JsonFormat.parser().merge(json, DynamicMessage.newBuilder(type));
+                fail("JsonFormat accepted " + json);
+            } catch (InvalidProtocolBufferException e) {
+                expected = e.getMessage();
+            }
+            assertRejected(transcoder, json, expected);
+        }
+
+        // null不算设置，之后仍可设置该字段或同一oneof的其他字段
+        DynamicMessage parsed = DynamicMessage.parseFrom(type,
+                transcoder.toProto("{\"user_id\": null, \"userId\": 1, \"name\": null, \"code\": 2}"));
+        assertEquals(1, parsed.getField(type.findFieldByName("user_id")));
+        assertEquals(2, parsed.getField(type.findFieldByName("code")));
+    }
+
+    private static void assertRejected(JsonTranscoder transcoder, String json, String message) throws Exception {
+        try {
+            transcoder.toProto(json);
+            fail("accepted " + json);
+        } catch (InvalidProtocolBufferException e) {
+            assertEquals(json, message, e.getMessage());
+        }
+    }
+
+    /**
+     * 已有proto中没有oneof，构造一个含oneof和嵌套消息的类型
+     */
+    private static Descriptors.Descriptor oneofType() throws Exception {
+        DescriptorProtos.DescriptorProto inner = DescriptorProtos.DescriptorProto.newBuilder()
+                .setName("Inner")
+                .addField(field("x", 1, DescriptorProtos.FieldDescriptorProto.Type.TYPE_INT32))
+                .build();
+        DescriptorProtos.DescriptorProto sample = DescriptorProtos.DescriptorProto.newBuilder()
+                .setName("Sample")
+                .addField(field("user_id", 1, DescriptorProtos.FieldDescriptorProto.Type.TYPE_INT32))
+                .addField(field("name", 2, DescriptorProtos.FieldDescriptorProto.Type.TYPE_STRING).setOneofIndex(0))
+                .addField(field("code", 3, DescriptorProtos.FieldDescriptorProto.Type.TYPE_INT32).setOneofIndex(0))
+                .addField(field("inner", 4, DescriptorProtos.FieldDescriptorProto.Type.TYPE_MESSAGE)
+                        .setTypeName(".t.Inner"))
+                .addOneofDecl(DescriptorProtos.OneofDescriptorProto.newBuilder().setName("choice"))
+                .build();
+        DescriptorProtos.FileDescriptorProto file = DescriptorProtos.FileDescriptorProto.newBuilder()
+                .setName("sample.proto")
+                .setPackage("t")
+                .setSyntax("proto3")
+                .addMessageType(inner)
+                .addMessageType(sample)
+                .build();
+        return Descriptors.FileDescriptor.buildFrom(file, new Descriptors.FileDescriptor[0])
+                .findMessageTypeByName("Sample");
+    }
+
+    private static DescriptorProtos.FieldDescriptorProto.Builder field(
+            String name, int number, DescriptorProtos.FieldDescriptorProto.Type type) {
+        return DescriptorProtos.FieldDescriptorProto.newBuilder().setName(name).setNumber(number).setType(type);
+    }
+
+    private static void assertSameJson(DynamicMessage message) throws Exception {
+        JsonTranscoder transcoder = JsonTranscoder.forType(message.getDescriptorForType());
+        String expected = JsonFormat.printer().print(message);
+        String json = transcoder.toJson(message.toByteArray());
+        assertEquals(message.getDescriptorForType().getFullName(), expected, json);
+
+        DynamicMessage parsed = DynamicMessage.parseFrom(message.getDescriptorForType(), transcoder.toProto(json));
+        assertEquals(message.getDescriptorForType().getFullName(), message, parsed);
+    }
+
+    /**
+     * 按seed为每个字段赋值，repeated字段3个元素，嵌套消息最多3层
+     */
+    private static DynamicMessage fill(Descriptors.Descriptor type, int seed, int depth) {
+        DynamicMessage.Builder builder = DynamicMessage.newBuilder(type);
+        for (Descriptors.FieldDescriptor field : type.getFields()) {
+            if (field.isRepeated()) {
+                for (int i = 0; i < 3; i++) {
+                    builder.addRepeatedField(field, value(field, seed + i, depth));
+                }
+            } else {
+                builder.setField(field, value(field, seed, depth));
+            }
+        }
+        return builder.build();
+    }
+
+    private static Object value(Descriptors.FieldDescriptor field, int seed, int depth) {
+        switch (field.getJavaType()) {
+            case INT:
+                return seed * 7919 - 100;
+            case LONG:
+                return seed * 1_000_000_007L - 5;
+            case FLOAT:
+                return seed / 3f;
+            case DOUBLE:
+                return seed * 19.99;
+            case BOOLEAN:
+                return seed % 2 == 1;
+            case STRING:
+                return STRINGS[seed % STRINGS.length];
+            case BYTE_STRING:
+                return ByteString.copyFromUtf8(STRINGS[seed % STRINGS.length]);
+            case ENUM: {
+                List<Descriptors.EnumValueDescriptor> values = field.getEnumType().getValues();
+                return values.get(seed % values.size());
+            }
+            default:
+                return depth < 3 ? fill(field.getMessageType(), seed + 1, depth + 1)
+                        : DynamicMessage.getDefaultInstance(field.getMessageType());
+        }
+    }
+}